@@ -0,0 +1,115 @@
+package mobilehome.bench;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Compares two runs of the benchmarks saved with -rf csv and reports every
+ * benchmark more than threshold percent slower, or allocating more than
+ * threshold percent more per operation (gc.alloc.rate.norm, from -prof gc),
+ * than in the baseline.
+ *
+ * <pre>
+ * java -jar target/benchmarks.jar -prof gc -rf csv -rff results.csv
+ * java -cp target/benchmarks.jar mobilehome.bench.BenchmarkRegressions previous.csv results.csv [10]
+ * </pre>
+ *
+ * The exit status is 1 if there is a regression.
+ */
+public class BenchmarkRegressions {
+	private final static String THROUGHPUT_UNIT = "ops/s";
+	private final static String ALLOCATION_UNIT = "B/op";
+
+	private BenchmarkRegressions(){}
+
+	/**
+	 * Reads a JMH csv result file into the score of each benchmark and
+	 * parameter values, keyed by those and the unit.
+	 */
+	static Map<String, Double> read(File file) throws IOException{
+		Map<String, Double> scores = new LinkedHashMap<String, Double>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try{
+			List<String> header = split(reader.readLine());
+			int score = header.indexOf("Score");
+			int unit = header.indexOf("Unit");
+			if(score < 0 || unit < 0){
+				throw new IOException(file + " is not a JMH csv result file");
+			}
+			String line;
+			while((line = reader.readLine()) != null){
+				List<String> values = split(line);
+				StringBuilder key = new StringBuilder(values.get(0));
+				for(int col = unit + 1; col < values.size(); col++){
+					key.append(' ').append(header.get(col).replace("Param: ", "")).append('=').append(values.get(col));
+				}
+				key.append(" [").append(values.get(unit)).append(']');
+				scores.put(key.toString(), Double.valueOf(values.get(score)));
+			}
+		}finally{
+			reader.close();
+		}
+		return scores;
+	}
+
+	private static List<String> split(String line){
+		List<String> values = new ArrayList<String>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for(int i = 0; i < line.length(); i++){
+			char c = line.charAt(i);
+			if(c == '"'){
+				quoted = !quoted;
+			}else if(c == ',' && !quoted){
+				values.add(value.toString());
+				value.setLength(0);
+			}else{
+				value.append(c);
+			}
+		}
+		values.add(value.toString());
+		return values;
+	}
+
+	public static void main(String[] args) throws IOException{
+		if(args.length < 2){
+			System.out.println("Usage: BenchmarkRegressions baseline.csv results.csv [threshold percent]");
+			System.exit(2);
+		}
+		Map<String, Double> before = read(new File(args[0]));
+		Map<String, Double> after = read(new File(args[1]));
+		double threshold = (args.length > 2) ? Double.parseDouble(args[2]) : 10;
+
+		int regressions = 0;
+		for(Map.Entry<String, Double> result : after.entrySet()){
+			Double baseline = before.get(result.getKey());
+			if(baseline == null || baseline.doubleValue() == 0){
+				continue;
+			}
+			double change = 100 * (result.getValue() - baseline) / baseline;
+			boolean regressed;
+			if(result.getKey().endsWith("[" + THROUGHPUT_UNIT + "]")){
+				regressed = -change > threshold;
+			}else if(result.getKey().endsWith("[" + ALLOCATION_UNIT + "]")){
+				regressed = change > threshold;
+			}else{
+				continue;
+			}
+			if(regressed){
+				regressions++;
+				System.out.println(String.format(Locale.US, "REGRESSION %s: %.3f -> %.3f (%+.1f%%)", result.getKey(),
+						baseline, result.getValue(), change));
+			}
+		}
+		System.out.println(regressions + " regressions");
+		System.exit(regressions > 0 ? 1 : 0);
+	}
+}
@@ -0,0 +1,85 @@
+package mobilehome.bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.RentRollDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decodes Rent Roll rows into lots: numeric cells column by column, as the
+ * cell loop of DocumentList.loadRentRoll does, and text rows with '$' and
+ * ',' as LocalRentRollSource does for CSV/TSV exports.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DecodeBenchmark {
+	@Param({"25", "1000", "100000"})
+	int lots;
+
+	private String[][] Rows;
+	private double[][] Cells;
+	private int[] Columns;
+	private RentRollDecoder Decoder;
+
+	@Setup
+	public void setup(){
+		Decoder = RentRollDecoder.fromHeader(SyntheticRentRoll.HEADER);
+		List<Integer> columns = new ArrayList<Integer>();
+		for(int col = 0; col < Decoder.getWidth(); col++){
+			if(Decoder.isUsed(col)){
+				columns.add(col);
+			}
+		}
+		Columns = new int[columns.size()];
+		for(int i = 0; i < Columns.length; i++){
+			Columns[i] = columns.get(i);
+		}
+		Rows = SyntheticRentRoll.rows(lots);
+		Cells = new double[lots][Columns.length];
+		for(int row = 0; row < lots; row++){
+			for(int i = 0; i < Columns.length; i++){
+				Cells[row][i] = Double.parseDouble(Rows[row][Columns[i]].replace("$", ""));
+			}
+		}
+	}
+
+	@Benchmark
+	public List<MobileHomeInfo> cells(){
+		List<MobileHomeInfo> mobilehomeinfo = new ArrayList<MobileHomeInfo>(Cells.length);
+		for(double[] row : Cells){
+			Decoder.beginRow();
+			for(int i = 0; i < Columns.length; i++){
+				Decoder.cell(Columns[i], row[i]);
+			}
+			mobilehomeinfo.add(Decoder.endRow());
+		}
+		return mobilehomeinfo;
+	}
+
+	@Benchmark
+	public List<MobileHomeInfo> strings(){
+		List<MobileHomeInfo> mobilehomeinfo = new ArrayList<MobileHomeInfo>(Rows.length);
+		for(String[] row : Rows){
+			mobilehomeinfo.add(Decoder.decode(row));
+		}
+		return mobilehomeinfo;
+	}
+}
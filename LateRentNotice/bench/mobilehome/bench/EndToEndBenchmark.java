@@ -0,0 +1,65 @@
+package mobilehome.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import mobilehome.info.LocalRentRollSource;
+import mobilehome.info.MobileHomeInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Loads a CSV export, computes and renders the notices of a park, as
+ * DocumentListDemo --source does. A park has at most
+ * MobileHomeInfo.MaxLots() rows, so there is one size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EndToEndBenchmark {
+	@Param({"25"})
+	int lots;
+
+	private File Directory;
+	private File Output;
+	private LocalRentRollSource Source;
+	private PrintStream Out;
+
+	@Setup
+	public void setup() throws IOException{
+		Directory = SyntheticRentRoll.temporaryDirectory("rentroll");
+		SyntheticRentRoll.writeCsv(new File(Directory, SyntheticRentRoll.WORKSHEET + ".csv"),
+				SyntheticRentRoll.rows(lots));
+		Source = new LocalRentRollSource(Directory);
+		Output = new File(Directory, "notices.docx");
+		Out = SyntheticRentRoll.quiet();
+	}
+
+	@TearDown
+	public void teardown(){
+		System.setOut(Out);
+		SyntheticRentRoll.delete(Directory);
+	}
+
+	@Benchmark
+	public int local() throws Exception{
+		return MobileHomeInfo.GenerateLateNotices(Source, MobileHomeInfo.MESA, SyntheticRentRoll.WORKSHEET,
+				Output.getPath()).size();
+	}
+}
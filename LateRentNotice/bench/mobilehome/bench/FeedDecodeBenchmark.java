@@ -0,0 +1,75 @@
+package mobilehome.bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gdata.data.ExtensionProfile;
+import com.google.gdata.data.spreadsheet.Cell;
+import com.google.gdata.data.spreadsheet.CellEntry;
+import com.google.gdata.data.spreadsheet.CellFeed;
+
+import gdrive.api.docs.CellFeedReader;
+import mobilehome.info.MobileHomeInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parses a cell feed already in memory into lots, through CellFeed objects
+ * as DocumentList used to, and through the pull parser of CellFeedReader.
+ * A feed holds about a kilobyte of Atom per cell, so sizes stop at 10,000.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeedDecodeBenchmark {
+	@Param({"25", "1000", "10000"})
+	int lots;
+
+	private byte[] Feed;
+	private ExtensionProfile Profile;
+
+	@Setup
+	public void setup() throws Exception{
+		Feed = SyntheticRentRoll.cellFeed(lots);
+		Profile = new ExtensionProfile();
+		new CellFeed().declareExtensions(Profile);
+	}
+
+	@Benchmark
+	public List<MobileHomeInfo> atom() throws Exception{
+		CellFeed feed = new CellFeed();
+		feed.parseAtom(Profile, new ByteArrayInputStream(Feed));
+		CellFeedReader.RentRollHandler handler = new CellFeedReader.RentRollHandler(lots + 2);
+		for(CellEntry entry : feed.getEntries()){
+			Cell cell = entry.getCell();
+			Number number = cell.getNumericValue();
+			if(number != null){
+				handler.cell(cell.getRow(), cell.getCol(), null, number.doubleValue());
+			}else{
+				handler.cell(cell.getRow(), cell.getCol(), cell.getValue(), Double.NaN);
+			}
+		}
+		return handler.finish();
+	}
+
+	@Benchmark
+	public List<MobileHomeInfo> stream() throws Exception{
+		CellFeedReader.RentRollHandler handler = new CellFeedReader.RentRollHandler(lots + 2);
+		CellFeedReader.read(new ByteArrayInputStream(Feed), handler);
+		return handler.finish();
+	}
+}
@@ -0,0 +1,81 @@
+package mobilehome.bench;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gdata.data.spreadsheet.WorksheetEntry;
+
+import gdrive.api.docs.DocumentList;
+import gdrive.api.docs.FakeFeedServer;
+import gdrive.api.docs.PooledRequestFactory;
+import mobilehome.info.MobileHomeInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fetches and decodes the Rent Roll from a FakeFeedServer on the loopback
+ * interface, as DocumentListDemo --fakefeeds does, without rendering; over
+ * the default transport and over a PooledRequestFactory.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FeedLoadBenchmark {
+	@Param({"25", "1000", "10000"})
+	int lots;
+
+	@Param({"false", "true"})
+	boolean pooled;
+
+	private File Directory;
+	private FakeFeedServer Server;
+	private PooledRequestFactory Pool;
+	private DocumentList Documents;
+	private WorksheetEntry Worksheet;
+	private PrintStream Out;
+
+	@Setup
+	public void setup() throws Exception{
+		Directory = SyntheticRentRoll.fixtures(lots);
+		Server = new FakeFeedServer(Directory, 0).start();
+		Documents = new DocumentList("LateRentNoticeBenchmark");
+		Documents.setFeedBase(Server.getBaseUrl());
+		if(pooled){
+			Pool = new PooledRequestFactory(PooledRequestFactory.DEFAULT_MAX_PER_HOST);
+			Documents.setRequestFactory(Pool);
+		}
+		Worksheet = Documents.findWorksheet(DocumentList.RENT_ROLL_TITLE, SyntheticRentRoll.WORKSHEET);
+		Out = SyntheticRentRoll.quiet();
+	}
+
+	@TearDown
+	public void teardown(){
+		System.setOut(Out);
+		if(Pool != null){
+			Pool.close();
+		}
+		Server.stop();
+		SyntheticRentRoll.delete(Directory);
+	}
+
+	@Benchmark
+	public List<MobileHomeInfo> load() throws Exception{
+		return Documents.loadRentRoll(Worksheet, lots + 2);
+	}
+}
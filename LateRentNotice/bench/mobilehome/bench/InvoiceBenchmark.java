@@ -0,0 +1,64 @@
+package mobilehome.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import mobilehome.info.InvoiceWriter;
+import mobilehome.info.MobileHomeInfo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Fills and writes one invoice workbook per lot, as DocumentListDemo
+ * --invoices does. Reads the template from resources/temp, so run it from
+ * LateRentNotice/.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class InvoiceBenchmark {
+	@Param({"25", "1000"})
+	int lots;
+
+	private List<MobileHomeInfo> Lots;
+	private InvoiceWriter Writer;
+	private File Directory;
+
+	@Setup
+	public void setup() throws IOException{
+		if(!new File(InvoiceWriter.MESA_TEMPLATE).isFile()){
+			throw new IOException("Run from LateRentNotice/, " + InvoiceWriter.MESA_TEMPLATE + " not found");
+		}
+		Lots = SyntheticRentRoll.lots(lots);
+		Writer = new InvoiceWriter(Runtime.getRuntime().availableProcessors());
+		Directory = SyntheticRentRoll.temporaryDirectory("invoices");
+	}
+
+	@TearDown
+	public void teardown(){
+		Writer.shutdown();
+		SyntheticRentRoll.delete(Directory);
+	}
+
+	@Benchmark
+	public int xls() throws Exception{
+		return Writer.write(Lots, MobileHomeInfo.MESA, SyntheticRentRoll.WORKSHEET, new Date(), Directory).size();
+	}
+}
@@ -0,0 +1,75 @@
+package mobilehome.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import mobilehome.info.LateNoticeTemplate;
+import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.ParallelNoticeRenderer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Renders the late notices of a Rent Roll into one .docx, sequentially as
+ * MobileHomeInfo.GenerateLateNotices does and on the ForkJoinPool of a
+ * ParallelNoticeRenderer. Run with -prof gc: its gc.alloc.rate.norm sums
+ * the allocation of every thread, so the pool's work is counted too.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+	@Param({"25", "1000", "100000"})
+	int lots;
+
+	private List<MobileHomeInfo> Lots;
+	private LateNoticeTemplate Template;
+	private ParallelNoticeRenderer Renderer;
+	private File Output;
+	private PrintStream Out;
+
+	@Setup
+	public void setup() throws IOException{
+		Lots = SyntheticRentRoll.lots(lots);
+		Template = LateNoticeTemplate.forPark(MobileHomeInfo.MESA, new Date());
+		Renderer = new ParallelNoticeRenderer();
+		Output = File.createTempFile("notices", ".docx");
+		Out = SyntheticRentRoll.quiet();
+	}
+
+	@TearDown
+	public void teardown(){
+		System.setOut(Out);
+		Output.delete();
+	}
+
+	@Benchmark
+	public long sequential() throws Exception{
+		MobileHomeInfo.GenerateLateNotices(Lots, Template, Output.getPath());
+		return Output.length();
+	}
+
+	@Benchmark
+	public long parallel() throws Exception{
+		Renderer.generateLateNotices(Lots, Template, Output.getPath());
+		return Output.length();
+	}
+}
@@ -0,0 +1,176 @@
+package mobilehome.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.gdata.data.spreadsheet.WorksheetEntry;
+
+import gdrive.api.docs.DocumentList;
+import gdrive.api.docs.FakeFeedServer;
+import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.RentRollDecoder;
+
+/**
+ * Synthetic Rent Rolls of any size for the benchmarks. The same number of
+ * lots always gives the same rows.
+ */
+final class SyntheticRentRoll {
+	final static String WORKSHEET = "May 2014";
+	final static String[] HEADER = {
+		"Lot", "", "", "", "", "", "Lot Rent", "MHP Rent", "Taxes Insurance", "Previous Balance",
+		"Late Fee", "Credit", "", "Received Before 5th", "", "", ""
+	};
+
+	private SyntheticRentRoll(){}
+
+	/**
+	 * Returns the rows of a Rent Roll, without the header row.
+	 */
+	static String[][] rows(int lots){
+		Random random = new Random(42);
+		String[][] rows = new String[lots][HEADER.length];
+		for(int i = 0; i < lots; i++){
+			String[] row = rows[i];
+			for(int col = 0; col < row.length; col++){
+				row[col] = "";
+			}
+			int lotrent = 200 + 25 * random.nextInt(9);
+			int mhprent = random.nextBoolean() ? 300 : 0;
+			String taxes = (random.nextInt(4) == 0) ? "25.50" : "0";
+			int previous = (random.nextInt(3) == 0) ? random.nextInt(400) : 0;
+			int latefee = (previous > 0) ? 50 : 0;
+			int credit = (random.nextInt(5) == 0) ? -10 : 0;
+			int due = lotrent + mhprent + previous + latefee + credit;
+			int received = random.nextBoolean() ? due : random.nextInt(due + 1);
+			row[MobileHomeInfo.COL_LOT_NUMBER] = String.valueOf(i + 1);
+			row[MobileHomeInfo.COL_LOT_RENT] = "$" + lotrent + ".00";
+			row[MobileHomeInfo.COL_MHP_RENT] = String.valueOf(mhprent);
+			row[MobileHomeInfo.COL_TAXES_INSURANCE] = taxes;
+			row[MobileHomeInfo.COL_PREVIOUS_BALANCE] = String.valueOf(previous);
+			row[MobileHomeInfo.COL_LATE_FEE] = String.valueOf(latefee);
+			row[MobileHomeInfo.COL_CREDIT] = String.valueOf(credit);
+			row[MobileHomeInfo.COL_RECEIVED_BEFORE_5TH] = String.valueOf(received);
+		}
+		return rows;
+	}
+
+	/**
+	 * Returns the lots of a Rent Roll.
+	 */
+	static List<MobileHomeInfo> lots(int lots){
+		RentRollDecoder decoder = RentRollDecoder.fromHeader(HEADER);
+		List<MobileHomeInfo> mobilehomeinfo = new ArrayList<MobileHomeInfo>(lots);
+		for(String[] row : rows(lots)){
+			mobilehomeinfo.add(decoder.decode(row));
+		}
+		return mobilehomeinfo;
+	}
+
+	/**
+	 * Writes a Rent Roll as the worksheet of a FakeFeedServer fixture
+	 * directory, and returns the directory.
+	 */
+	static File fixtures(int lots) throws IOException{
+		File directory = temporaryDirectory("feeds");
+		File spreadsheet = new File(directory, DocumentList.RENT_ROLL_TITLE);
+		spreadsheet.mkdirs();
+		writeCsv(new File(spreadsheet, WORKSHEET + ".csv"), rows(lots));
+		return directory;
+	}
+
+	/**
+	 * Returns the cell feed FakeFeedServer serves for a Rent Roll of the
+	 * given size, uncompressed.
+	 */
+	static byte[] cellFeed(int lots) throws Exception{
+		File directory = fixtures(lots);
+		FakeFeedServer server = new FakeFeedServer(directory, 0).start();
+		try{
+			DocumentList documents = new DocumentList("LateRentNoticeBenchmark");
+			documents.setFeedBase(server.getBaseUrl());
+			WorksheetEntry worksheet = documents.findWorksheet(DocumentList.RENT_ROLL_TITLE, WORKSHEET);
+			URL url = new URL(worksheet.getCellFeedUrl() + "?min-row=1&min-col=1&max-row=" + (lots + 1)
+					+ "&max-col=" + HEADER.length);
+			InputStream in = url.openStream();
+			try{
+				ByteArrayOutputStream feed = new ByteArrayOutputStream();
+				byte[] buffer = new byte[65536];
+				int n;
+				while((n = in.read(buffer)) != -1){
+					feed.write(buffer, 0, n);
+				}
+				return feed.toByteArray();
+			}finally{
+				in.close();
+			}
+		}finally{
+			server.stop();
+			delete(directory);
+		}
+	}
+
+	static void writeCsv(File file, String[][] rows) throws IOException{
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try{
+			writeCsvLine(writer, HEADER);
+			for(String[] row : rows){
+				writeCsvLine(writer, row);
+			}
+		}finally{
+			writer.close();
+		}
+	}
+
+	private static void writeCsvLine(Writer writer, String[] values) throws IOException{
+		for(int col = 0; col < values.length; col++){
+			if(col > 0){
+				writer.write(',');
+			}
+			writer.write('"');
+			writer.write(values[col].replace("\"", "\"\""));
+			writer.write('"');
+		}
+		writer.write('\n');
+	}
+
+	static File temporaryDirectory(String prefix) throws IOException{
+		File directory = File.createTempFile(prefix, "");
+		directory.delete();
+		directory.mkdirs();
+		return directory;
+	}
+
+	static void delete(File file){
+		File[] children = file.listFiles();
+		for(int i = 0; children != null && i < children.length; i++){
+			delete(children[i]);
+		}
+		file.delete();
+	}
+
+	/**
+	 * Drops what the pipeline prints to System.out, so progress messages do
+	 * not flood the benchmark output, and returns the stream to restore.
+	 */
+	static PrintStream quiet(){
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(new OutputStream(){
+			public void write(int b){
+			}
+			public void write(byte[] b, int off, int len){
+			}
+		}));
+		return out;
+	}
+}
@@ -0,0 +1,80 @@
+package mobilehome.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import mobilehome.info.FeeSchedule;
+import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.RentRoll;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Aggregates a Rent Roll: the total due and the delinquent lots, and the
+ * amount due by every lot on every day of the month, over the list of
+ * MobileHomeInfo objects and over the columns of a RentRoll.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Measurement(iterations = 5, time = 500, timeUnit = TimeUnit.MILLISECONDS)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TotalDueBenchmark {
+	@Param({"25", "1000", "100000"})
+	int lots;
+
+	private List<MobileHomeInfo> Lots;
+	private RentRoll Roll;
+	private FeeSchedule Fees;
+	private long[] Quote;
+
+	@Setup
+	public void setup(){
+		Lots = SyntheticRentRoll.lots(lots);
+		Roll = RentRoll.of(Lots);
+		Fees = FeeSchedule.forPark(MobileHomeInfo.MESA);
+		Quote = new long[lots * FeeSchedule.DAYS];
+	}
+
+	@Benchmark
+	public long list(){
+		long total = 0;
+		for(MobileHomeInfo mh : Lots){
+			total += mh.TotalDue();
+		}
+		return total;
+	}
+
+	@Benchmark
+	public long rentroll(){
+		return Roll.totalDue() + Roll.countDelinquent();
+	}
+
+	@Benchmark
+	public long[] feesList(){
+		int i = 0;
+		for(MobileHomeInfo mh : Lots){
+			for(int day = 1; day <= FeeSchedule.DAYS; day++){
+				Quote[i++] = Fees.amountDueOn(mh.TotalDue(), mh.getReceivedBefore5th(), day);
+			}
+		}
+		return Quote;
+	}
+
+	@Benchmark
+	public long[] feesQuote(){
+		Fees.quote(Roll, Quote);
+		return Quote;
+	}
+}
@@ -0,0 +1,324 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import com.google.gdata.util.AuthenticationException;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the ClientLogin tokens issued to each user and service in a
+ * properties file, so a run can reuse the token of an earlier run instead
+ * of logging in again. Tokens are filed under a salted hash of the user's
+ * credentials as well, so a run with another password never picks up the
+ * token issued for the old one; a token the server rejects is dropped with
+ * invalidate(). A token is used for lifetime milliseconds after it
+ * was issued, well short of the two weeks Google honours it for, and is
+ * replaced in the background once three quarters of that time has passed,
+ * so a process that keeps running, or a rerun, always finds a fresh one.
+ *
+ * <p>The file is readable by its owner only: it is written to a temporary
+ * file created with owner-only permissions and atomically renamed over the
+ * old one, so the tokens are never readable by others, even briefly, and a
+ * run that exits during a refresh leaves the old tokens in place.
+ */
+public class AuthTokenStore {
+  public static final String DEFAULT_FILE = WorksheetCache.DEFAULT_DIRECTORY + "/tokens.properties";
+  public static final long DEFAULT_LIFETIME_MILLIS = 24L * 60 * 60 * 1000;
+  private static final long RETRY_MILLIS = 60 * 1000;
+
+  private static final String TOKEN_PREFIX = "token.";
+  private static final String ISSUED_PREFIX = "issued.";
+  /** Random salt of the credential hashes, created with the file. */
+  private static final String SALT = "salt";
+
+  /**
+   * Issues new tokens for one user and service.
+   */
+  public interface TokenSource {
+    /** Logs in again and returns the new token. */
+    String newToken() throws AuthenticationException;
+
+    /** Called with every token issued in the background, once it is saved. */
+    void tokenRefreshed(String oldToken, String newToken);
+  }
+
+  private final File file;
+  private final long lifetime;
+  private final Properties tokens = new Properties();
+  private ScheduledThreadPoolExecutor refresher;
+
+  /**
+   * Constructor. Loads the tokens from the file if it exists.
+   *
+   * @param file the properties file holding the tokens.
+   * @param lifetimeMillis how long a token is used after it was issued.
+   *
+   * @throws IOException if the file exists but cannot be read.
+   */
+  public AuthTokenStore(File file, long lifetimeMillis) throws IOException {
+    this.file = file;
+    this.lifetime = lifetimeMillis;
+    if (file.isFile()) {
+      InputStream in = new FileInputStream(file);
+      try {
+        tokens.load(in);
+      } finally {
+        in.close();
+      }
+    }
+    if (tokens.getProperty(SALT) == null) {
+      byte[] salt = new byte[16];
+      new SecureRandom().nextBytes(salt);
+      tokens.setProperty(SALT, hex(salt));
+    }
+  }
+
+  /**
+   * Returns the saved token of a user for a service, or null if there is
+   * none for these credentials or it has expired.
+   */
+  public synchronized String get(String user, String pass, String serviceName) {
+    String key = key(user, pass, serviceName);
+    String token = tokens.getProperty(TOKEN_PREFIX + key);
+    if (token == null || System.currentTimeMillis() - issued(key) >= lifetime) {
+      return null;
+    }
+    return token;
+  }
+
+  /**
+   * Saves a token just issued to a user for a service, replacing any token
+   * saved for other credentials of the same user.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  public synchronized void put(String user, String pass, String serviceName, String token)
+      throws IOException {
+    String key = key(user, pass, serviceName);
+    // the key without its hash, keeping the dot
+    remove(key.substring(0, key.lastIndexOf('.') + 1));
+    tokens.setProperty(TOKEN_PREFIX + key, token);
+    tokens.setProperty(ISSUED_PREFIX + key, String.valueOf(System.currentTimeMillis()));
+    save();
+  }
+
+  /**
+   * Drops the saved token of a user for a service, e.g. once the server
+   * rejected it.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  public synchronized void invalidate(String user, String pass, String serviceName)
+      throws IOException {
+    String key = key(user, pass, serviceName);
+    tokens.remove(TOKEN_PREFIX + key);
+    tokens.remove(ISSUED_PREFIX + key);
+    save();
+  }
+
+  /**
+   * Removes the tokens saved under "service.user." and any hash, and those
+   * saved under "service.user" alone, before keys had a hash.
+   */
+  private void remove(String prefix) {
+    for (Iterator<Object> keys = tokens.keySet().iterator(); keys.hasNext();) {
+      String key = (String) keys.next();
+      String name = key.startsWith(TOKEN_PREFIX) ? key.substring(TOKEN_PREFIX.length())
+          : key.startsWith(ISSUED_PREFIX) ? key.substring(ISSUED_PREFIX.length()) : null;
+      if (name != null && (name.startsWith(prefix) && name.indexOf('.', prefix.length()) == -1
+          || name.length() == prefix.length() - 1 && prefix.startsWith(name))) {
+        keys.remove();
+      }
+    }
+  }
+
+  /**
+   * Replaces the token of a user for a service in the background, once
+   * three quarters of its lifetime has passed and from then on at that
+   * interval, until shutdown(). A failed refresh is tried again a minute
+   * later while the old token is still good.
+   *
+   * @param user the user the token was issued to.
+   * @param pass the password the token was issued for.
+   * @param serviceName the service the token is for, e.g. "wise".
+   * @param source logs in again and installs the new token.
+   */
+  public void keepFresh(final String user, final String pass, final String serviceName,
+      final TokenSource source) {
+    long delay;
+    synchronized (this) {
+      if (refresher == null) {
+        refresher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+          public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "auth-token-refresher");
+            thread.setDaemon(true);
+            return thread;
+          }
+        });
+        refresher.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+      }
+      long issued = issued(key(user, pass, serviceName));
+      delay = Math.max(issued + refreshAfter() - System.currentTimeMillis(), 0);
+    }
+    schedule(user, pass, serviceName, source, delay);
+  }
+
+  /**
+   * Stops refreshing tokens. A refresh already running is let finish.
+   */
+  public synchronized void shutdown() {
+    if (refresher != null) {
+      refresher.shutdown();
+    }
+  }
+
+  private void schedule(final String user, final String pass, final String serviceName,
+      final TokenSource source, long delay) {
+    synchronized (this) {
+      if (refresher.isShutdown()) {
+        return;
+      }
+      refresher.schedule(new Runnable() {
+        public void run() {
+          refresh(user, pass, serviceName, source);
+        }
+      }, delay, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void refresh(String user, String pass, String serviceName, TokenSource source) {
+    String oldToken;
+    synchronized (this) {
+      oldToken = tokens.getProperty(TOKEN_PREFIX + key(user, pass, serviceName));
+    }
+    String newToken;
+    try {
+      newToken = source.newToken();
+    } catch (AuthenticationException e) {
+      System.out.println("Could not refresh the " + serviceName + " token of " + user + ": "
+          + e.getMessage());
+      if (get(user, pass, serviceName) != null) {
+        schedule(user, pass, serviceName, source, RETRY_MILLIS);
+      }
+      return;
+    }
+    try {
+      put(user, pass, serviceName, newToken);
+    } catch (IOException e) {
+      System.out.println("Could not save the " + serviceName + " token: " + e.getMessage());
+    }
+    source.tokenRefreshed(oldToken, newToken);
+    schedule(user, pass, serviceName, source, refreshAfter());
+  }
+
+  private long refreshAfter() {
+    return lifetime / 4 * 3;
+  }
+
+  /** Returns when the token was issued, or 0 if there is none. */
+  private long issued(String key) {
+    String issued = tokens.getProperty(ISSUED_PREFIX + key);
+    try {
+      return (issued == null) ? 0 : Long.parseLong(issued);
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /** Returns "service.user.hash", hash being that of the salted credentials. */
+  private String key(String user, String pass, String serviceName) {
+    String lower = user.toLowerCase();
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      String credentials = tokens.getProperty(SALT) + "\n" + lower + "\n" + pass;
+      byte[] hash = digest.digest(credentials.getBytes("UTF-8"));
+      return serviceName + "." + lower + "." + hex(hash).substring(0, 32);
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 is not available", e);
+    } catch (IOException e) {
+      throw new IllegalStateException("UTF-8 is not available", e);
+    }
+  }
+
+  private static String hex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(bytes.length * 2);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  private void save() throws IOException {
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    Path temporary = createPrivateFile(directory.toPath(), file.getName());
+    try {
+      OutputStream out = Files.newOutputStream(temporary);
+      try {
+        tokens.store(out, "ClientLogin tokens by service and user");
+      } finally {
+        out.close();
+      }
+      try {
+        Files.move(temporary, file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Creates an empty temporary file in directory that only its owner can
+   * read and write, from the moment it exists.
+   */
+  static Path createPrivateFile(Path directory, String prefix) throws IOException {
+    try {
+      return Files.createTempFile(directory, prefix, ".tmp",
+          PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+    } catch (UnsupportedOperationException e) {
+      // not a POSIX file system; restrict it as far as java.io.File can before writing
+      File temporary = Files.createTempFile(directory, prefix, ".tmp").toFile();
+      temporary.setReadable(false, false);
+      temporary.setReadable(true, true);
+      temporary.setWritable(false, false);
+      temporary.setWritable(true, true);
+      return temporary.toPath();
+    }
+  }
+}
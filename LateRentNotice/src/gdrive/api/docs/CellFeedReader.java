@@ -0,0 +1,213 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import com.google.gdata.util.ParseException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.RentRollDecoder;
+
+import org.xmlpull.mxp1.MXParser;
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+/**
+ * Reads a cell feed with a pull parser and hands each gs:cell element to a
+ * handler as row, column and value, skipping everything else in the entry.
+ * No CellEntry, link or content objects are built, and the text of a
+ * numeric cell is not even read, which makes a large worksheet much cheaper
+ * to parse than through CellFeed.
+ */
+public class CellFeedReader {
+  private static final String GS = "http://schemas.google.com/spreadsheets/2006";
+
+  /**
+   * Receives the cells of a feed in the order they appear, which for a
+   * cell feed is row by row, left to right.
+   */
+  public interface Handler {
+    /**
+     * @param row 1-based row.
+     * @param col 1-based column.
+     * @param value the displayed text, or null if the cell is numeric.
+     * @param number the numeric value, or NaN if the cell is not numeric.
+     */
+    void cell(int row, int col, String value, double number);
+  }
+
+  private CellFeedReader() {
+  }
+
+  /**
+   * Reads a cell feed.
+   *
+   * @param in the feed, UTF-8 encoded; it is not closed.
+   * @param handler receives the cells.
+   *
+   * @throws IOException if the feed cannot be read.
+   * @throws ParseException if the feed is not well-formed.
+   */
+  public static void read(InputStream in, Handler handler) throws IOException, ParseException {
+    try {
+      XmlPullParser parser = new MXParser();
+      parser.setFeature(XmlPullParser.FEATURE_PROCESS_NAMESPACES, true);
+      parser.setInput(in, "UTF-8");
+      for (int event = parser.next(); event != XmlPullParser.END_DOCUMENT; event = parser.next()) {
+        if (event != XmlPullParser.START_TAG || !"cell".equals(parser.getName())
+            || !GS.equals(parser.getNamespace())) {
+          continue;
+        }
+        int row = Integer.parseInt(parser.getAttributeValue(null, "row"));
+        int col = Integer.parseInt(parser.getAttributeValue(null, "col"));
+        String numeric = parser.getAttributeValue(null, "numericValue");
+        if (numeric != null) {
+          handler.cell(row, col, null, Double.parseDouble(numeric));
+        } else {
+          handler.cell(row, col, parser.nextText(), Double.NaN);
+        }
+      }
+    } catch (XmlPullParserException e) {
+      throw new ParseException("Invalid cell feed", e);
+    } catch (NumberFormatException e) {
+      throw new ParseException("Invalid cell feed", e);
+    }
+  }
+
+  /**
+   * Keeps the cells of one feed in flat arrays, so a range fetched on
+   * another thread, or fetched again after a failure, can be passed on in
+   * row order once the ranges before it are done.
+   */
+  public static class CellBuffer implements Handler {
+    private int size;
+    private int[] rows = new int[256];
+    private int[] cols = new int[256];
+    private String[] values = new String[256];
+    private double[] numbers = new double[256];
+
+    public void cell(int row, int col, String value, double number) {
+      if (size == rows.length) {
+        int capacity = size * 2;
+        rows = Arrays.copyOf(rows, capacity);
+        cols = Arrays.copyOf(cols, capacity);
+        values = Arrays.copyOf(values, capacity);
+        numbers = Arrays.copyOf(numbers, capacity);
+      }
+      rows[size] = row;
+      cols[size] = col;
+      values[size] = value;
+      numbers[size] = number;
+      size++;
+    }
+
+    /**
+     * Hands the buffered cells to another handler, in the order received.
+     */
+    public void replay(Handler handler) {
+      for (int i = 0; i < size; i++) {
+        handler.cell(rows[i], cols[i], values[i], numbers[i]);
+      }
+    }
+  }
+
+  /**
+   * Decodes the cells of a Rent Roll worksheet into lots. Row 1 is the
+   * header, which sets up the RentRollDecoder; rows 2 through maxlots - 1
+   * each give one lot, with rows that have no cells decoding as empty lots.
+   * Cells must arrive in row order. The header row may be of any width; a
+   * header RentRollDecoder.fromHeader rejects makes the first cell of a lot,
+   * or finish(), throw its IllegalArgumentException.
+   */
+  public static class RentRollHandler implements Handler {
+    private final int maxlots;
+    private String[] header;
+    private final List<MobileHomeInfo> lots;
+    private RentRollDecoder decoder;
+    /** Row being decoded, 0 before the first lot. */
+    private int current = 0;
+
+    /**
+     * @param maxlots one past the last row holding a lot.
+     */
+    public RentRollHandler(int maxlots) {
+      this(maxlots, MobileHomeInfo.RENT_ROLL_COLUMNS);
+    }
+
+    /**
+     * @param maxlots one past the last row holding a lot.
+     * @param columns the number of columns of the worksheet, e.g. its
+     *    colCount; the header grows past it if a wider row arrives.
+     */
+    public RentRollHandler(int maxlots, int columns) {
+      this.maxlots = maxlots;
+      header = new String[Math.max(columns, 1)];
+      lots = new ArrayList<MobileHomeInfo>(Math.max(maxlots - 2, 0));
+    }
+
+    public void cell(int row, int col, String value, double number) {
+      if (row < 1 || row >= maxlots || col < 1) {
+        return;
+      }
+      if (row == 1) {
+        if (col > header.length) {
+          header = Arrays.copyOf(header, Math.max(col, header.length * 2));
+        }
+        header[col - 1] = (value != null) ? value : String.valueOf(number);
+        return;
+      }
+      if (row != current) {
+        advanceTo(row);
+        decoder.beginRow();
+        current = row;
+      }
+      if (value == null) {
+        decoder.cell(col - 1, number);
+      } else {
+        decoder.cell(col - 1, value);
+      }
+    }
+
+    /**
+     * Returns one lot per row, rows 2 through maxlots - 1.
+     */
+    public List<MobileHomeInfo> finish() {
+      advanceTo(maxlots);
+      return lots;
+    }
+
+    /** Ends the current row and adds empty lots for the rows before row. */
+    private void advanceTo(int row) {
+      if (decoder == null) {
+        decoder = RentRollDecoder.fromHeader(header);
+      }
+      if (current >= 2) {
+        lots.add(decoder.endRow());
+      }
+      for (int empty = Math.max(current + 1, 2); empty < row; empty++) {
+        decoder.beginRow();
+        lots.add(decoder.endRow());
+      }
+      current = row;
+    }
+  }
+}
@@ -16,32 +16,46 @@
 
 package gdrive.api.docs;
 
+import com.google.gdata.client.AuthTokenFactory.AuthToken;
 import com.google.gdata.client.GoogleAuthTokenFactory.UserToken;
 import com.google.gdata.client.GoogleService;
 import com.google.gdata.client.Query;
+import com.google.gdata.client.Service.GDataRequest;
+import com.google.gdata.client.Service.GDataRequestFactory;
 import com.google.gdata.client.docs.DocsService;
+import com.google.gdata.client.spreadsheet.SpreadsheetQuery;
+import com.google.gdata.data.batch.BatchOperationType;
+import com.google.gdata.data.batch.BatchStatus;
+import com.google.gdata.data.batch.BatchUtils;
 import com.google.gdata.data.docs.DocumentListFeed;
 import com.google.gdata.data.spreadsheet.CellEntry;
 import com.google.gdata.data.spreadsheet.CellFeed;
+import com.google.gdata.data.spreadsheet.SpreadsheetEntry;
 import com.google.gdata.data.spreadsheet.SpreadsheetFeed;
 import com.google.gdata.data.spreadsheet.WorksheetEntry;
 import com.google.gdata.data.spreadsheet.WorksheetFeed;
 import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.ResourceNotFoundException;
 import com.google.gdata.util.ServiceException;
 
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 import jxl.read.biff.BiffException;
 import jxl.write.WriteException;
 import jxl.write.biff.RowsExceededException;
 import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.Money;
+import mobilehome.info.RunMetrics;
 
 /**
  * An application that serves as a sample to show how the Documents List Service
@@ -60,6 +74,18 @@ public class DocumentList {
   public static final String SPREADSHEETS_SERVICE_NAME = "wise";
   public static final String SPREADSHEETS_HOST = "spreadsheets.google.com";
 
+  /** Title of the spreadsheet holding one worksheet per month. */
+  public static final String RENT_ROLL_TITLE = "Rent Roll";
+  public static final String SPREADSHEET_FEED_URL =
+      "https://" + SPREADSHEETS_HOST + "/feeds/spreadsheets/private/full";
+
+  /** Maximum number of Rent Roll rows requested by a single cell-feed call. */
+  public static final int ROWS_PER_FETCH = 500;
+
+  /** Headers of the columns recordNotices writes, in the order it adds them. */
+  private static final String[] NOTICE_HEADERS =
+      {"Notice Date", "Amount After 5th", "Amount After 10th"};
+
   private final String URL_FEED = "/feeds";
   private final String URL_DOCLIST_FEED = "/private/full";
 
@@ -73,6 +99,19 @@ public class DocumentList {
   private final String URL_CATEGORY_FOLDER = "/-/folder";
 
   private String host;
+  private String applicationName;
+  private AuthTokenStore tokenStore;
+  /** Credentials of the last login, kept to log in again if a saved token is rejected. */
+  private String user;
+  private String pass;
+  /** Whether the services send tokens taken from the store rather than just issued. */
+  private boolean savedTokens;
+  /** Counts the logins, so concurrent jobs rejected with the same tokens log in again once. */
+  private int logins;
+  private String spreadsheetFeedUrl = SPREADSHEET_FEED_URL;
+  private RowFetcher rowFetcher = new RowFetcher(1, ROWS_PER_FETCH, 0);
+  private WorksheetCache cache;
+  private FeedIndex index;
 
   private final Map<String, String> DOWNLOAD_DOCUMENT_FORMATS;
   {
@@ -133,15 +172,27 @@ public class DocumentList {
     }
 
     service = new DocsService(applicationName);
+    // The docs service fetches the spreadsheet feeds too, but only knows the
+    // docs extensions; without these the gs:cell and gs:colCount elements are
+    // left unparsed.
+    new SpreadsheetFeed().declareExtensions(service.getExtensionProfile());
+    new WorksheetFeed().declareExtensions(service.getExtensionProfile());
+    new CellFeed().declareExtensions(service.getExtensionProfile());
 
     // Creating a spreadsheets service is necessary for downloading spreadsheets
     spreadsheetsService = new GoogleService(SPREADSHEETS_SERVICE_NAME, applicationName);
 
     this.host = host;
+    this.applicationName = applicationName;
   }
 
   /**
-   * Set user credentials based on a username and password.
+   * Set user credentials based on a username and password. With a token
+   * store, tokens saved by an earlier login with the same credentials are
+   * used instead of logging in again, and are kept fresh in the background.
+   * If the server rejects a saved token, it is dropped and the user is
+   * logged in again with these credentials, see loadRentRoll and
+   * recordNotices.
    *
    * @param user username to log in with.
    * @param pass password for the user logging in.
@@ -155,8 +206,132 @@ public class DocumentList {
       throw new DocumentListException("null login credentials");
     }
 
-    service.setUserCredentials(user, pass);
-    spreadsheetsService.setUserCredentials(user, pass);
+    RunMetrics.Span span = RunMetrics.start(RunMetrics.AUTH);
+    try {
+      if (tokenStore == null) {
+        service.setUserCredentials(user, pass);
+        spreadsheetsService.setUserCredentials(user, pass);
+      } else {
+        synchronized (this) {
+          this.user = user;
+          this.pass = pass;
+          boolean saved = login(service, DocsService.DOCS_SERVICE, user, pass);
+          savedTokens = login(spreadsheetsService, SPREADSHEETS_SERVICE_NAME, user, pass) || saved;
+          logins++;
+        }
+      }
+      span.stop();
+    } finally {
+      span.fail();
+    }
+  }
+
+  /**
+   * Gives one service the saved token of user, or logs in and saves the
+   * token issued, and has the store refresh it.
+   *
+   * @return true if the saved token is used.
+   */
+  private boolean login(final GoogleService googleService, final String serviceName,
+      final String user, final String pass) throws AuthenticationException {
+    String token = tokenStore.get(user, pass, serviceName);
+    if (token != null) {
+      googleService.setUserToken(token);
+    } else {
+      issueToken(googleService, serviceName, user, pass);
+    }
+    tokenStore.keepFresh(user, pass, serviceName, new AuthTokenStore.TokenSource() {
+      public String newToken() throws AuthenticationException {
+        return googleService.getAuthToken(user, pass, null, null, serviceName, applicationName);
+      }
+
+      public void tokenRefreshed(String oldToken, String newToken) {
+        replaceToken(oldToken, newToken);
+      }
+    });
+    return token != null;
+  }
+
+  /**
+   * Logs one service in with the credentials and saves the token issued.
+   */
+  private void issueToken(GoogleService googleService, String serviceName, String user, String pass)
+      throws AuthenticationException {
+    googleService.setUserCredentials(user, pass);
+    String token = ((UserToken) googleService.getAuthTokenFactory().getAuthToken()).getValue();
+    try {
+      tokenStore.put(user, pass, serviceName, token);
+    } catch (IOException e) {
+      System.out.println("Could not save the " + serviceName + " token: " + e.getMessage());
+    }
+  }
+
+  /** Returns the number of logins so far, to pass to loginAgain. */
+  private synchronized int logins() {
+    return logins;
+  }
+
+  /**
+   * Called when a request was rejected as unauthenticated. If the services
+   * were sending saved tokens, drops them from the store and logs in again
+   * with the credentials of the last login. A job rejected with tokens that
+   * another job already replaced only needs to try again.
+   *
+   * @param login the number of logins when the rejected request was sent.
+   *
+   * @return true if the request should be sent again.
+   */
+  private synchronized boolean loginAgain(int login, AuthenticationException cause)
+      throws AuthenticationException {
+    if (login != logins) {
+      return true;
+    }
+    if (!savedTokens) {
+      return false;
+    }
+    System.out.println("Saved login rejected (" + cause.getMessage() + "), logging in again");
+    try {
+      tokenStore.invalidate(user, pass, DocsService.DOCS_SERVICE);
+      tokenStore.invalidate(user, pass, SPREADSHEETS_SERVICE_NAME);
+    } catch (IOException e) {
+      System.out.println("Could not drop the saved tokens: " + e.getMessage());
+    }
+    savedTokens = false;
+    RunMetrics.Span span = RunMetrics.start(RunMetrics.AUTH);
+    try {
+      issueToken(service, DocsService.DOCS_SERVICE, user, pass);
+      issueToken(spreadsheetsService, SPREADSHEETS_SERVICE_NAME, user, pass);
+      span.stop();
+    } finally {
+      span.fail();
+    }
+    logins++;
+    return true;
+  }
+
+  /**
+   * Gives newToken to every service still sending oldToken. The docs
+   * service sends the spreadsheets token once it has fetched a Rent Roll.
+   */
+  private synchronized void replaceToken(String oldToken, String newToken) {
+    GoogleService[] services = {service, spreadsheetsService};
+    for (GoogleService googleService : services) {
+      AuthToken token = googleService.getAuthTokenFactory().getAuthToken();
+      if (token instanceof UserToken && ((UserToken) token).getValue().equals(oldToken)) {
+        googleService.setUserToken(newToken);
+      }
+    }
+  }
+
+  /**
+   * Reuses the ClientLogin tokens saved in the given store across runs,
+   * and keeps them fresh, instead of logging in on every run. Must be set
+   * before login.
+   *
+   * @param store the store to use, or null to log in every time.
+   */
+  public void setAuthTokenStore(AuthTokenStore store) {
+    tokenStore = store;
   }
 
   /**
@@ -173,11 +348,72 @@ public class DocumentList {
       throw new DocumentListException("null login credentials");
     }
 
-    service.setAuthSubToken(token);
-    spreadsheetsService.setAuthSubToken(token);
+    RunMetrics.Span span = RunMetrics.start(RunMetrics.AUTH);
+    try {
+      service.setAuthSubToken(token);
+      spreadsheetsService.setAuthSubToken(token);
+      span.stop();
+    } finally {
+      span.fail();
+    }
   }
 
 
+  /**
+   * Points the spreadsheet feeds at another server, such as a
+   * FakeFeedServer, instead of spreadsheets.google.com. Worksheet and cell
+   * feeds follow the links in the entries that server returns, so every
+   * Rent Roll request goes to it. Without a login no token is sent.
+   *
+   * @param baseUrl scheme, host and port of the server, e.g.
+   *    "http://localhost:8080".
+   */
+  public void setFeedBase(String baseUrl) {
+    spreadsheetFeedUrl = baseUrl + "/feeds/spreadsheets/private/full";
+  }
+
+  /**
+   * Sets the fetcher that loads the Rent Roll rows: how many ranges are
+   * fetched at once, how many rows each, at what rate and with how many
+   * attempts. The default fetches ROWS_PER_FETCH rows at a time, one range
+   * after the other.
+   *
+   * @param fetcher the row fetcher.
+   */
+  public void setRowFetcher(RowFetcher fetcher) {
+    rowFetcher = fetcher;
+  }
+
+  /**
+   * Sends every request of the docs service, which fetches the spreadsheet
+   * feeds, through the given transport, e.g. a PooledRequestFactory,
+   * instead of the default one. A token from an earlier login is carried
+   * over.
+   *
+   * @param factory the transport.
+   */
+  public void setRequestFactory(GDataRequestFactory factory) {
+    factory.setHeader("User-Agent", service.getServiceVersion() + " (gzip)");
+    factory.setHeader("GData-Version", service.getProtocolVersion().getVersionString());
+    AuthToken token = service.getAuthTokenFactory().getAuthToken();
+    if (token != null) {
+      factory.setAuthToken(token);
+    }
+    service.setRequestFactory(factory);
+  }
+
+  /**
+   * Sends the spreadsheets service's ClientLogin token with the requests of
+   * the docs service, which fetches the spreadsheet feeds. Does nothing if
+   * there is no such token (AuthSub login, or no login at all).
+   */
+  private synchronized void useSpreadsheetsToken() {
+    AuthToken token = spreadsheetsService.getAuthTokenFactory().getAuthToken();
+    if (token instanceof UserToken) {
+      service.setUserToken(((UserToken) token).getValue());
+    }
+  }
+
   /**
    * Search the documents, and return a feed of docs that match.
    *
@@ -257,111 +493,454 @@ public class DocumentList {
   
   public void generateLateNotices(int mobilepark, String worksheetname) 
 		  throws IOException, ServiceException, RowsExceededException, BiffException, WriteException, ParseException {
-	  UserToken spreadsheetsToken = (UserToken) spreadsheetsService
-	            .getAuthTokenFactory().getAuthToken();
-	  service.setUserToken(spreadsheetsToken.getValue());
+	  MobileHomeInfo.GenerateLateNotices(new GDataRentRollSource(this), mobilepark, worksheetname);
+  }
+
+  /**
+   * Finds a month's worksheet in the "Rent Roll" spreadsheet and loads the
+   * lots of the given park from it. If a saved login is rejected, logs in
+   * again and loads it once more.
+   *
+   * @param mobilepark MobileHomeInfo.CT or MobileHomeInfo.MESA.
+   * @param worksheetname name of the worksheet to read.
+   *
+   * @throws IOException if the spreadsheet or worksheet cannot be found.
+   * @throws ServiceException
+   */
+  public List<MobileHomeInfo> loadRentRoll(int mobilepark, String worksheetname)
+      throws IOException, ServiceException {
+    int login = logins();
+    try {
+      return loadRentRollOnce(mobilepark, worksheetname);
+    } catch (AuthenticationException e) {
+      if (!loginAgain(login, e)) {
+        throw e;
+      }
+      return loadRentRollOnce(mobilepark, worksheetname);
+    }
+  }
+
+  private List<MobileHomeInfo> loadRentRollOnce(int mobilepark, String worksheetname)
+      throws IOException, ServiceException {
+	  useSpreadsheetsToken();
   
-	  URL SPREADSHEET_FEED_URL = new URL(
-			  "https://spreadsheets.google.com/feeds/spreadsheets/private/full");
-	  
-	  SpreadsheetFeed feed = service.getFeed(SPREADSHEET_FEED_URL,
-		        SpreadsheetFeed.class);
+	  WorksheetEntry worksheet = findWorksheet(RENT_ROLL_TITLE, worksheetname);
 	  
-	  List<com.google.gdata.data.spreadsheet.SpreadsheetEntry> spreadsheets = feed.getEntries();
-	  
-	  com.google.gdata.data.spreadsheet.SpreadsheetEntry mySSEntry = null;
-	  
-	  for(com.google.gdata.data.spreadsheet.SpreadsheetEntry ssentry: spreadsheets) {
-		  if(ssentry.getTitle().getPlainText().equalsIgnoreCase("Rent Roll")){
-			  mySSEntry = ssentry;
-			  break;
-		  }
+	  int maxlots = MobileHomeInfo.MaxLots(mobilepark);
+	  if (cache == null) {
+		  return loadRentRoll(worksheet, maxlots);
 	  }
-	  if(mySSEntry != null){
-		  System.out.println("Found \"Rent Roll\" Spreadsheet");
-	  }else{
-		  System.out.println("Could not find spreadsheet");
-		  System.exit(-1);
-	  }
-	  
-	  WorksheetFeed worksheetFeed = service.getFeed(mySSEntry.getWorksheetFeedUrl(), WorksheetFeed.class);
-	  List<WorksheetEntry> worksheets = worksheetFeed.getEntries();
-	  WorksheetEntry worksheet = null;
-	  String sheetname = worksheetname;
-	  
-	  for (WorksheetEntry ws : worksheets) {
-		  //System.out.println(ws.getTitle().getPlainText());
-		  if(ws.getTitle().getPlainText().equals(sheetname)){
-			  worksheet = ws;
-		  }
-	  }
-	  
-	  if(worksheet == null){
-		  System.out.println("Could not find Worksheet: " + sheetname);
-		  System.exit(0);
-	  }else{
-		  System.out.println("Found Worksheet: " + sheetname);
-	  }
-	  
-	  int maxlots = (mobilepark == MobileHomeInfo.CT) ? MobileHomeInfo.CT_MAX_LOTS : MobileHomeInfo.MESA_MAX_LOTS;
-	  
-	  List<MobileHomeInfo> mobilehomeinfo = new ArrayList<MobileHomeInfo>();
-	  for(int everylot = 2; everylot < maxlots; everylot++){
-		  URL cellFeedUrl = new URL(worksheet.getCellFeedUrl().toString()+ "?min-row="+everylot+"&min-col=1&max-row="+everylot+"&max-col=17");
-		  //URL cellFeedUrl = new URL(worksheet.getCellFeedUrl().toString()+MobileHomeInfo.LotBalanceURL(13));
-		  CellFeed cellFeed = service.getFeed(cellFeedUrl, CellFeed.class);
-		  
-		  float lotrent=0, mhprent=0, taxes_insurance=0;
-		  float previousbalance = 0;
-		  float latefee = 0;
-		  float credit= 0;
-		  int lotnumber=0;
-		  float receivedbefore5th = 0;
-		  for (CellEntry cell : cellFeed.getEntries()) {
-			  if(cell.getTitle().getPlainText().contains("A")){
-				  lotnumber = Integer.parseInt(cell.getPlainTextContent());
-			  }
-			  if(cell.getTitle().getPlainText().contains("G")){
-				  lotrent = Float.parseFloat(cell.getPlainTextContent());
-			  }
-			  if(cell.getTitle().getPlainText().contains("H")){
-				  mhprent = Float.parseFloat(cell.getPlainTextContent());
-			  }
-			  if(cell.getTitle().getPlainText().contains("I")){
-				  taxes_insurance = Float.parseFloat(cell.getPlainTextContent());
-			  }
-			  if(cell.getTitle().getPlainText().contains("J")){
-				  previousbalance = Float.parseFloat(cell.getPlainTextContent());
-			  }
-			  if(cell.getTitle().getPlainText().contains("K")){
-				  latefee = Float.parseFloat(cell.getPlainTextContent());
-			  }	  
-			  if(cell.getTitle().getPlainText().contains("L")){
-				  credit = Float.parseFloat(cell.getPlainTextContent());
-			  }	  
-			  if(cell.getTitle().getPlainText().contains("N")){
-				  receivedbefore5th = Float.parseFloat(cell.getPlainTextContent());
-			  }
-		  }
-		
-		  mobilehomeinfo.add(new MobileHomeInfo(lotrent+mhprent+taxes_insurance, 
-				  								previousbalance, 
-				  								latefee,
-				  								credit,
-				  								lotnumber,
-				  								receivedbefore5th));
-	  }
-	  float sum = 0; 
-	  for(MobileHomeInfo mh : mobilehomeinfo){
-		  sum=sum+mh.TotalDue();
-		  //System.out.println(mh + "Total Due: " + mh.TotalDue());
+
+	  String key = worksheet.getId() + "#" + maxlots;
+	  String etag = worksheet.getEtag();
+	  String updated = (worksheet.getUpdated() == null) ? null : worksheet.getUpdated().toString();
+	  List<MobileHomeInfo> mobilehomeinfo = cache.get(key, etag, updated);
+	  if (mobilehomeinfo != null) {
+		  System.out.println("Worksheet unchanged since " + updated + ", using cached rows");
+		  return mobilehomeinfo;
 	  }
-	  System.out.println("Total Rent Due: " + sum);
-	  MobileHomeInfo.GenerateLateNotices(mobilehomeinfo, mobilepark);
+	  mobilehomeinfo = loadRentRoll(worksheet, maxlots);
+	  cache.put(key, etag, updated, mobilehomeinfo);
+	  return mobilehomeinfo;
+  }
+
+  /**
+   * Writes the notice date and the amounts due after the 5th and the 10th of
+   * every delinquent lot back to a Rent Roll worksheet, in the columns headed
+   * "Notice Date", "Amount After 5th" and "Amount After 10th". A column
+   * without such a header is added after the last used column, widening
+   * the worksheet if needed; no other column is written.
+   *
+   * <p>The worksheet is read again first, and if a delinquent lot is no
+   * longer on the row it was loaded from (the sheet was sorted, or rows
+   * were inserted or deleted), nothing is written. Every cell is updated
+   * with the ETag it was queried with, so a cell changed in the meantime
+   * fails with 409 Conflict instead of being overwritten. All cells go
+   * through the cell feed's batch endpoint: one batch query to get the
+   * cells' edit links and ETags and one batch update, whatever the number
+   * of lots. If a saved login is rejected, logs in again and records them
+   * once more.
+   *
+   * @param mobilepark MobileHomeInfo.CT or MobileHomeInfo.MESA.
+   * @param worksheetname name of the worksheet, e.g. "May 2014".
+   * @param mobilehomeinfo the lots of the worksheet, as returned by loadRentRoll.
+   * @param noticedate the date the notices were issued on.
+   *
+   * @throws IOException if the worksheet cannot be found, a lot moved or a
+   *    cell is not updated.
+   * @throws ServiceException
+   */
+  public void recordNotices(int mobilepark, String worksheetname, List<MobileHomeInfo> mobilehomeinfo,
+      Date noticedate) throws IOException, ServiceException {
+    int login = logins();
+    try {
+      recordNoticesOnce(mobilepark, worksheetname, mobilehomeinfo, noticedate);
+    } catch (AuthenticationException e) {
+      if (!loginAgain(login, e)) {
+        throw e;
+      }
+      recordNoticesOnce(mobilepark, worksheetname, mobilehomeinfo, noticedate);
+    }
+  }
+
+  private void recordNoticesOnce(int mobilepark, String worksheetname,
+      List<MobileHomeInfo> mobilehomeinfo, Date noticedate) throws IOException, ServiceException {
+    useSpreadsheetsToken();
+
+    WorksheetEntry worksheet = findWorksheet(RENT_ROLL_TITLE, worksheetname);
+    HeaderRow header = new HeaderRow();
+    List<MobileHomeInfo> current =
+        loadRentRoll(worksheet, MobileHomeInfo.MaxLots(mobilepark), header);
+    for (int i = 0; i < mobilehomeinfo.size(); i++) {
+      MobileHomeInfo mh = mobilehomeinfo.get(i);
+      if (mh.IsDelinquent()
+          && (i >= current.size() || current.get(i).getLotNumber() != mh.getLotNumber())) {
+        throw new IOException("Lot " + mh.getLotNumber() + " is no longer on row " + (i + 2)
+            + " of " + worksheetname + "; load the worksheet again before recording notices");
+      }
+    }
+
+    // cell id ("R2C18") -> new input value, header row included
+    Map<String, String> values = new HashMap<String, String>();
+    int[] columns = new int[NOTICE_HEADERS.length];
+    int lastColumn = header.lastColumn;
+    for (int f = 0; f < NOTICE_HEADERS.length; f++) {
+      columns[f] = header.find(NOTICE_HEADERS[f]);
+      if (columns[f] == 0) {
+        columns[f] = ++lastColumn;
+        values.put(cellId(1, columns[f]), NOTICE_HEADERS[f]);
+      }
+    }
+    if (worksheet.getColCount() < lastColumn) {
+      worksheet.setColCount(lastColumn);
+      worksheet = worksheet.update();
+    }
+
+    String date = new SimpleDateFormat("MM/dd/yyyy").format(noticedate);
+    int notices = 0;
+    for (int i = 0; i < mobilehomeinfo.size(); i++) {
+      MobileHomeInfo mh = mobilehomeinfo.get(i);
+      if (mh.IsDelinquent()) {
+        int row = i + 2;
+        values.put(cellId(row, columns[0]), date);
+        values.put(cellId(row, columns[1]), Money.format(mh.AmountAfter5th(mobilepark)));
+        values.put(cellId(row, columns[2]), Money.format(mh.AmountAfter10th(mobilepark)));
+        notices++;
+      }
+    }
+
+    String cellFeedUrl = worksheet.getCellFeedUrl().toString();
+    URL batchUrl = new URL(cellFeedUrl + "/batch");
+
+    CellFeed query = new CellFeed();
+    for (String id : values.keySet()) {
+      CellEntry entry = new CellEntry();
+      entry.setId(cellFeedUrl + "/" + id);
+      BatchUtils.setBatchId(entry, id);
+      BatchUtils.setBatchOperationType(entry, BatchOperationType.QUERY);
+      query.getEntries().add(entry);
+    }
+    CellFeed cells = service.batch(batchUrl, query);
+
+    CellFeed update = new CellFeed();
+    for (CellEntry cell : cells.getEntries()) {
+      checkBatchStatus(cell);
+      String id = BatchUtils.getBatchId(cell);
+      String value = values.get(id);
+      String existing = cell.getCell().getInputValue();
+      if (id.startsWith("R1C") && existing != null && existing.length() > 0
+          && !headerKey(existing).equals(headerKey(value))) {
+        throw new IOException("Cell " + id + " of " + worksheetname + " was headed \"" + existing
+            + "\" after the worksheet was read; not overwriting it with \"" + value + "\"");
+      }
+      // the copy keeps the cell's ETag, so the update fails if the cell changed since the query
+      CellEntry entry = new CellEntry(cell);
+      entry.changeInputValueLocal(value);
+      BatchUtils.setBatchId(entry, id);
+      BatchUtils.setBatchOperationType(entry, BatchOperationType.UPDATE);
+      update.getEntries().add(entry);
+    }
+    for (CellEntry cell : service.batch(batchUrl, update).getEntries()) {
+      checkBatchStatus(cell);
+    }
+    System.out.println("Recorded " + notices + " notices on " + worksheetname);
+  }
+
+  private static String cellId(int row, int col) {
+    return "R" + row + "C" + col;
+  }
+
+  private static void checkBatchStatus(CellEntry entry) throws IOException {
+    if (!BatchUtils.isSuccess(entry)) {
+      BatchStatus status = BatchUtils.getBatchStatus(entry);
+      throw new IOException("Batch operation on cell " + BatchUtils.getBatchId(entry) + " failed: "
+          + ((status == null) ? "no status" : status.getCode() + " " + status.getReason()));
+    }
+  }
+
+  /**
+   * Finds a worksheet of a spreadsheet. Locations already in the feed index
+   * are fetched directly; otherwise the spreadsheet is looked up with a
+   * title-restricted query and every worksheet of its worksheet feed is
+   * added to the index.
+   *
+   * @param title title of the spreadsheet (case insensitive).
+   * @param worksheetname name of the worksheet.
+   *
+   * @throws IOException if the spreadsheet or worksheet cannot be found.
+   * @throws ServiceException
+   */
+  public WorksheetEntry findWorksheet(String title, String worksheetname)
+      throws IOException, ServiceException {
+    if (index != null) {
+      String url = index.getWorksheetUrl(title, worksheetname);
+      if (url != null) {
+        RunMetrics.Span span = RunMetrics.start(RunMetrics.WORKSHEET);
+        try {
+          WorksheetEntry worksheet = service.getEntry(new URL(url), WorksheetEntry.class);
+          span.stop();
+          if (worksheet.getTitle().getPlainText().equals(worksheetname)) {
+            System.out.println("Found Worksheet: " + worksheetname);
+            return worksheet;
+          }
+        } catch (ResourceNotFoundException e) {
+          // Moved or deleted since it was indexed, look it up again below.
+        } finally {
+          span.fail();
+        }
+        index.removeWorksheet(title, worksheetname);
+      }
+    }
+
+    WorksheetFeed worksheetFeed;
+    try {
+      worksheetFeed = getWorksheetFeed(findWorksheetFeedUrl(title));
+    } catch (ResourceNotFoundException e) {
+      if (index == null) {
+        throw e;
+      }
+      index.removeSpreadsheet(title);
+      worksheetFeed = getWorksheetFeed(findWorksheetFeedUrl(title));
+    }
+
+    WorksheetEntry worksheet = null;
+    for (WorksheetEntry ws : worksheetFeed.getEntries()) {
+      String name = ws.getTitle().getPlainText();
+      if (index != null) {
+        index.putWorksheetUrl(title, name, ws.getSelfLink().getHref());
+      }
+      if (name.equals(worksheetname)) {
+        worksheet = ws;
+        if (index == null) {
+          break;
+        }
+      }
+    }
+    if (index != null) {
+      index.save();
+    }
+
+    if (worksheet == null) {
+      throw new IOException("Could not find Worksheet: " + worksheetname);
+    }
+    System.out.println("Found Worksheet: " + worksheetname);
+    return worksheet;
+  }
+
+  private WorksheetFeed getWorksheetFeed(URL worksheetFeedUrl) throws IOException, ServiceException {
+    RunMetrics.Span span = RunMetrics.start(RunMetrics.WORKSHEET);
+    try {
+      WorksheetFeed feed = service.getFeed(worksheetFeedUrl, WorksheetFeed.class);
+      span.stop();
+      return feed;
+    } finally {
+      span.fail();
+    }
+  }
+
+  /**
+   * Returns the worksheet feed URL of the spreadsheet with the given title,
+   * from the feed index or from a title-exact spreadsheet query.
+   */
+  private URL findWorksheetFeedUrl(String title) throws IOException, ServiceException {
+    if (index != null) {
+      String url = index.getWorksheetFeedUrl(title);
+      if (url != null) {
+        return new URL(url);
+      }
+    }
+
+    SpreadsheetQuery query = new SpreadsheetQuery(new URL(spreadsheetFeedUrl));
+    query.setTitleQuery(title);
+    query.setTitleExact(true);
+    SpreadsheetFeed feed;
+    RunMetrics.Span span = RunMetrics.start(RunMetrics.SPREADSHEET);
+    try {
+      feed = service.query(query, SpreadsheetFeed.class);
+      span.stop();
+    } finally {
+      span.fail();
+    }
+
+    for (SpreadsheetEntry entry : feed.getEntries()) {
+      if (entry.getTitle().getPlainText().equalsIgnoreCase(title)) {
+        System.out.println("Found \"" + title + "\" Spreadsheet");
+        URL url = entry.getWorksheetFeedUrl();
+        if (index != null) {
+          index.putWorksheetFeedUrl(title, url.toString());
+        }
+        return url;
+      }
+    }
+    throw new IOException("Could not find spreadsheet: " + title);
+  }
+
+  /**
+   * Looks up spreadsheets and worksheets in the given index before
+   * querying the feeds, and records what the queries find.
+   *
+   * @param index the index to use, or null to query the feeds every time.
+   */
+  public void setFeedIndex(FeedIndex index) {
+    this.index = index;
+  }
+
+  /**
+   * Keeps the rows of every worksheet read by loadRentRoll in the given
+   * cache, and serves them from it while the worksheet is unchanged.
+   *
+   * @param cache the cache to use, or null to always fetch the cells.
+   */
+  public void setWorksheetCache(WorksheetCache cache) {
+    this.cache = cache;
+  }
+
+
+  /**
+   * Loads the lots on rows 2 through maxlots - 1 of a Rent Roll worksheet.
+   * The rows are fetched by the row fetcher with ranged cell-feed requests,
+   * by default of at most ROWS_PER_FETCH rows each, so a whole park normally
+   * costs one round trip instead of one per lot. Row 1 comes with the first
+   * request and its headers decide which column holds which field. Every
+   * column of the worksheet, as many as its colCount, is requested. The
+   * feeds are read by CellFeedReader, cell by cell, without building
+   * CellEntry objects.
+   *
+   * @param worksheet the worksheet to read.
+   * @param maxlots one past the last row holding a lot.
+   *
+   * @throws IOException also if the header row does not name the fields.
+   * @throws ServiceException
+   */
+  public List<MobileHomeInfo> loadRentRoll(WorksheetEntry worksheet, int maxlots)
+      throws IOException, ServiceException {
+    return loadRentRoll(worksheet, maxlots, null);
+  }
+
+  /**
+   * Same as above, also handing every cell read to layout, if not null.
+   */
+  private List<MobileHomeInfo> loadRentRoll(final WorksheetEntry worksheet, int maxlots,
+      CellFeedReader.Handler layout) throws IOException, ServiceException {
+    final int columns = worksheet.getColCount();
+    // without a colCount, leave max-col out and get every column
+    final String maxcol = (columns > 0) ? "&max-col=" + columns : "";
+    List<CellFeedReader.CellBuffer> ranges = rowFetcher.fetch(1, maxlots - 1,
+        new RowFetcher.RangeLoader<CellFeedReader.CellBuffer>() {
+          public CellFeedReader.CellBuffer load(int minrow, int maxrow)
+              throws IOException, ServiceException {
+            URL cellFeedUrl = new URL(worksheet.getCellFeedUrl().toString() + "?min-row=" + minrow
+                + "&min-col=1&max-row=" + maxrow + maxcol);
+            CellFeedReader.CellBuffer cells = new CellFeedReader.CellBuffer();
+            readCellFeed(cellFeedUrl, cells);
+            return cells;
+          }
+        });
+
+    RunMetrics.Span span = RunMetrics.start(RunMetrics.DECODE);
+    try {
+      CellFeedReader.RentRollHandler lots = new CellFeedReader.RentRollHandler(maxlots, columns);
+      for (CellFeedReader.CellBuffer cells : ranges) {
+        cells.replay(lots);
+        if (layout != null) {
+          cells.replay(layout);
+        }
+      }
+      List<MobileHomeInfo> mobilehomeinfo = lots.finish();
+      span.stop();
+      return mobilehomeinfo;
+    } catch (IllegalArgumentException e) {
+      throw new IOException("Could not read " + worksheet.getTitle().getPlainText() + ": "
+          + e.getMessage(), e);
+    } finally {
+      span.fail();
+    }
+  }
+
+  /**
+   * Streams a cell feed into handler through CellFeedReader, on the same
+   * transport and with the same headers as service.getFeed, but without
+   * building a CellFeed. Each call is one fetch in the run metrics,
+   * parsing included, since the feed is parsed as it arrives.
+   */
+  private void readCellFeed(URL cellFeedUrl, CellFeedReader.Handler handler)
+      throws IOException, ServiceException {
+    RunMetrics.Span span = RunMetrics.start(RunMetrics.FETCH);
+    GDataRequest request = service.createFeedRequest(cellFeedUrl);
+    try {
+      request.execute();
+      CountingInputStream in = new CountingInputStream(request.getResponseStream());
+      CellFeedReader.read(in, handler);
+      span.stop(in.getCount());
+    } finally {
+      request.end();
+      span.fail();
+    }
+  }
+
+  /**
+   * Keeps the non-empty header cells of a worksheet and the last column
+   * holding a cell on any row it is handed.
+   */
+  private static class HeaderRow implements CellFeedReader.Handler {
+    /** 1-based column -> header, in column order. */
+    private final Map<Integer, String> headers = new TreeMap<Integer, String>();
+    int lastColumn;
+
+    public void cell(int row, int col, String value, double number) {
+      lastColumn = Math.max(lastColumn, col);
+      if (row == 1 && value != null && value.trim().length() > 0) {
+        headers.put(col, value);
+      }
+    }
+
+    /**
+     * Returns the first column whose header is name, ignoring case, spaces
+     * and punctuation, or 0 if there is none.
+     */
+    int find(String name) {
+      String key = headerKey(name);
+      for (Map.Entry<Integer, String> header : headers.entrySet()) {
+        if (headerKey(header.getValue()).equals(key)) {
+          return header.getKey();
+        }
+      }
+      return 0;
+    }
+  }
+
+  /** Lower-cases a header and drops everything but its letters and digits. */
+  private static String headerKey(String header) {
+    StringBuilder key = new StringBuilder(header.length());
+    for (int i = 0; i < header.length(); i++) {
+      char c = Character.toLowerCase(header.charAt(i));
+      if (Character.isLetterOrDigit(c)) {
+        key.append(c);
+      }
+    }
+    return key.toString();
   }
 
- 
- 
   /**
    * Gets the suffix of the resourceId. If the resourceId is
    * "document:dh3bw3j_0f7xmjhd8", "dh3bw3j_0f7xmjhd8" will be returned.
@@ -25,16 +25,30 @@ import com.google.gdata.data.docs.RevisionEntry;
 import com.google.gdata.util.AuthenticationException;
 import com.google.gdata.util.ServiceException;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.text.ParseException;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import mobilehome.info.InvoiceWriter;
+import mobilehome.info.LateNoticeTemplate;
+import mobilehome.info.LocalRentRollSource;
 import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.NoticeMailer;
+import mobilehome.info.NoticeRecorder;
+import mobilehome.info.NoticeStore;
+import mobilehome.info.ParallelNoticeRenderer;
+import mobilehome.info.RentRollSource;
+import mobilehome.info.RunMetrics;
+import mobilehome.info.SmtpStub;
+import mobilehome.info.TenantNoticeWriter;
 import jxl.read.biff.BiffException;
 import jxl.write.WriteException;
 import jxl.write.biff.RowsExceededException;
@@ -53,6 +67,13 @@ public class DocumentListDemo {
   private PrintStream out;
   private String Park;
   private String WorksheetName;
+  private RentRollSource source;
+  private ParallelNoticeRenderer renderer;
+  private NoticeStore store;
+  private NoticeRecorder recorder;
+  private TenantNoticeWriter tenantWriter;
+  private NoticeMailer mailer;
+  private InvoiceWriter invoiceWriter;
 
   private static final String APPLICATION_NAME = "JavaGDataClientSampleAppV3.0";
 
@@ -61,6 +82,42 @@ public class DocumentListDemo {
    */
   private static final String[] USAGE_MESSAGE = {
       "Usage: java DocumentListDemo.jar --username <user> --password <pass> --park <CT|MESA> --worksheet <Month Year>",
+      "   or: java DocumentListDemo.jar --source <file.xls|file.csv|file.tsv|directory> --park <CT|MESA> --worksheet <Month Year>",
+      "   or: java DocumentListDemo.jar [--username <user> --password <pass> | --source <path>]",
+      "           --jobs \"CT:May 2014;MESA:May 2014;CT:April 2014\" [--threads <n>]",
+      "Add --parallel to render the notices of each worksheet on all cores.",
+      "Add --nocache to always query the feeds, fetch the cells and render every notice instead of",
+      "  using resources/cache.",
+      "Add --record to write the notice date and the amounts due after the 5th and the 10th",
+      "  of each delinquent lot back to the worksheet's Notice Date, Amount After 5th and",
+      "  Amount After 10th columns, added after the last used column if missing",
+      "  (Google Spreadsheets only).",
+      "Add --pertenant <pdf|docx|both> to also write each delinquent lot's notice to its own file",
+      "  in a directory named after the combined file, with a manifest.tsv listing them.",
+      "Add --mail <host[:port]|stub> --mailfrom <address> [--mailuser <user> --mailpass <pass>]",
+      "  [--tenants <file>] to mail each notice to the address of its lot in the tenants file",
+      "  (CT.12=tenant@example.com, default resources/tenants.properties). Implies --pertenant pdf.",
+      "  Messages go through resources/outbox; \"stub\" saves them to resources/outbox/stub instead.",
+      "Add --invoices to also fill resources/temp/invoice.xls (CT) or Mesa_Rent_Invoice.xls (Mesa)",
+      "  for every lot and write them to resources/invoices/<Park>_<Month_Year>/Lot<n>.xls.",
+      "Add --feedbase <url> to read the Rent Roll from a stand-in for spreadsheets.google.com, or",
+      "  --fakefeeds <fixtures> [--latency <ms>] [--jitter <ms>] [--errors <0..1>] [--seed <n>] to",
+      "  start one (FakeFeedServer) on fixtures/Rent Roll/<Month Year>.csv. No login is needed.",
+      "Add --pool [<n>] to fetch the feeds over a pool of keep-alive, gzip-compressed connections,",
+      "  at most n (default 4) per host, and print the number and timing of the requests.",
+      "Add --fetchthreads <k> [--rowsperfetch <n>] [--ratelimit <requests per second>] to fetch the",
+      "  Rent Roll rows k ranges at a time, n rows per request (default 500, 1 for row by row),",
+      "  retrying failed requests with backoff.",
+      "Add --notokens to log in on every run instead of reusing, and refreshing in the background,",
+      "  the tokens saved in resources/cache/tokens.properties.",
+      "   or: java DocumentListDemo.jar [--username <user> --password <pass> | --source <path>]",
+      "           --daemon [<port>] to stay running and generate notices when asked, e.g. with",
+      "  curl -H \"X-Notice-Token: $(cat resources/cache/daemon.token)\" -d park=MESA",
+      "  -d 'worksheet=May 2014' http://localhost:8765/generate (or -d jobs=...). Every request",
+      "  needs the token; GET /status reports the runs served and POST /stop stops it. Other",
+      "  options apply to every run.",
+      "Add --metrics [<directory>] to print the time, requests, bytes and allocations of each stage",
+      "  and save them as latenotice.json and latenotice.prom (default resources/metrics).",
       ""};
 
   private final String[] COMMAND_HELP_CREATE = {
@@ -129,6 +186,73 @@ public class DocumentListDemo {
     documentList.loginWithAuthSubToken(authSubToken);
   }
 
+  /**
+   * Reads the Rent Roll from the given source instead of Google Spreadsheets.
+   *
+   * @param source the source to load the worksheet from.
+   */
+  public void setRentRollSource(RentRollSource source) {
+    this.source = source;
+  }
+
+  /**
+   * Renders the notices on a ForkJoinPool. The output is the same as when
+   * they are rendered one after another.
+   *
+   * @param renderer the renderer to use, or null to render sequentially.
+   */
+  public void setRenderer(ParallelNoticeRenderer renderer) {
+    this.renderer = renderer;
+  }
+
+  /**
+   * Only renders the notices of lots whose row changed since the last run of
+   * the same park and worksheet.
+   *
+   * @param store the store of previously rendered notices, or null.
+   */
+  public void setNoticeStore(NoticeStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Records the notice date and amounts of the issued notices back on the
+   * worksheet after the notices are written.
+   *
+   * @param recorder the recorder to use, or null to only write the notices.
+   */
+  public void setNoticeRecorder(NoticeRecorder recorder) {
+    this.recorder = recorder;
+  }
+
+  /**
+   * Also writes each delinquent lot's notice to its own PDF and/or DOCX file.
+   *
+   * @param tenantWriter the writer to use, or null to only write the combined file.
+   */
+  public void setTenantNoticeWriter(TenantNoticeWriter tenantWriter) {
+    this.tenantWriter = tenantWriter;
+  }
+
+  /**
+   * Mails the per lot notice files to the tenants while they are written.
+   * Needs a TenantNoticeWriter.
+   *
+   * @param mailer the started mailer, or null.
+   */
+  public void setNoticeMailer(NoticeMailer mailer) {
+    this.mailer = mailer;
+  }
+
+  /**
+   * Also writes every lot's rent invoice for the worksheet's month.
+   *
+   * @param invoiceWriter the writer to use, or null.
+   */
+  public void setInvoiceWriter(InvoiceWriter invoiceWriter) {
+    this.invoiceWriter = invoiceWriter;
+  }
+
   /**
    * Prints out the specified document entry.
    *
@@ -179,7 +303,24 @@ public class DocumentListDemo {
    */
   private void executeCreateInvoice(int mobilepark, String ws) 
 		  throws IOException, ServiceException, RowsExceededException, BiffException, WriteException, ParseException {
-	  documentList.generateLateNotices(mobilepark, ws);
+	  RentRollSource rentroll = (source == null) ? new GDataRentRollSource(documentList) : source;
+	  Date issued = new Date();
+	  String outputfile = MobileHomeInfo.LateNoticeFile(mobilepark);
+	  List<MobileHomeInfo> mobilehomeinfo = MobileHomeInfo.GenerateLateNotices(rentroll, mobilepark, ws,
+	      outputfile, renderer, store);
+	  if (recorder != null) {
+	    recorder.record(mobilepark, ws, mobilehomeinfo, issued);
+	  }
+	  if (tenantWriter != null) {
+	    tenantWriter.write(mobilehomeinfo, LateNoticeTemplate.forPark(mobilepark, issued),
+	        TenantNoticeWriter.directoryFor(outputfile),
+	        (mailer == null) ? null : mailer.forWorksheet(mobilepark, ws, issued));
+	  }
+	  if (invoiceWriter != null) {
+	    File directory = InvoiceWriter.directoryFor(mobilepark, ws);
+	    List<File> invoices = invoiceWriter.write(mobilehomeinfo, mobilepark, ws, issued, directory);
+	    System.out.println("Wrote " + invoices.size() + " invoices to " + directory);
+	  }
   }
 
 
@@ -208,6 +349,34 @@ public class DocumentListDemo {
     }
   }
 
+  /**
+   * Generates the notices for several park:worksheet jobs on a bounded pool,
+   * sharing this demo's login or Rent Roll source.
+   *
+   * @param jobs the job list, see NoticeBatch.parseJobs.
+   * @param threads maximum number of jobs run at the same time.
+   * @return the number of jobs that failed.
+   */
+  public int runBatch(String jobs, int threads)
+      throws DocumentListException, InterruptedException {
+    return newBatch(threads, out).run(NoticeBatch.parseJobs(jobs));
+  }
+
+  /**
+   * Returns a batch set up like this demo, reporting to the given stream.
+   */
+  NoticeBatch newBatch(int threads, PrintStream batchOut) {
+    RentRollSource batchSource = (source == null) ? new GDataRentRollSource(documentList) : source;
+    NoticeBatch batch = new NoticeBatch(batchSource, threads, batchOut);
+    batch.setRenderer(renderer);
+    batch.setNoticeStore(store);
+    batch.setNoticeRecorder(recorder);
+    batch.setTenantNoticeWriter(tenantWriter);
+    batch.setNoticeMailer(mailer);
+    batch.setInvoiceWriter(invoiceWriter);
+    return batch;
+  }
+
   /**
    * Prints out a message.
    *
@@ -259,13 +428,25 @@ public class DocumentListDemo {
     String host = parser.getValue("host", "s");
     String park = parser.getValue("park");
     String sheetname = parser.getValue("worksheet", "ws");
+    String source = parser.getValue("source", "src");
+    String jobs = parser.getValue("jobs");
+    String threads = parser.getValue("threads");
+    String pertenant = parser.getValue("pertenant");
+    String mail = parser.getValue("mail");
+    String feedbase = parser.getValue("feedbase");
+    String fakefeeds = parser.getValue("fakefeeds");
     boolean help = parser.containsKey("help", "h");
     
     if (host == null) {
       host = DocumentList.DEFAULT_HOST;
     }
 
-    if (help || (user == null || password == null || park == null || sheetname == null) && authSub == null) {
+    boolean credentials = (user != null && password != null) || authSub != null
+        || feedbase != null || fakefeeds != null;
+    boolean daemon = parser.containsKey("daemon");
+    boolean job = jobs != null || (park != null && sheetname != null) || daemon;
+    boolean mailfrom = mail == null || parser.getValue("mailfrom") != null;
+    if (help || !job || (source == null && !credentials) || !mailfrom) {
       printMessage(USAGE_MESSAGE);
       System.exit(1);
     }
@@ -274,16 +455,181 @@ public class DocumentListDemo {
       turnOnLogging();
     }
 
+    RunMetrics metrics = null;
+    if (parser.containsKey("metrics")) {
+      metrics = RunMetrics.enable();
+    }
+
     DocumentListDemo demo = new DocumentListDemo(System.out, APPLICATION_NAME,
         host, park, sheetname);
 
-    if (password != null) {
-      demo.login(user, password);
+    if (parser.containsKey("parallel")) {
+      demo.setRenderer(new ParallelNoticeRenderer());
+    }
+
+    if (mail != null && pertenant == null) {
+      pertenant = "pdf";
+    }
+    TenantNoticeWriter tenantWriter = null;
+    if (pertenant != null) {
+      tenantWriter = new TenantNoticeWriter(TenantNoticeWriter.parseFormats(pertenant),
+          Runtime.getRuntime().availableProcessors());
+      demo.setTenantNoticeWriter(tenantWriter);
+    }
+
+    InvoiceWriter invoiceWriter = null;
+    if (parser.containsKey("invoices")) {
+      invoiceWriter = new InvoiceWriter(Runtime.getRuntime().availableProcessors());
+      demo.setInvoiceWriter(invoiceWriter);
+    }
+
+    NoticeMailer mailer = null;
+    if (mail != null) {
+      String mailhost = mail;
+      int mailport = 25;
+      if (mail.equals("stub")) {
+        SmtpStub stub = new SmtpStub(0, new File(NoticeMailer.DEFAULT_OUTBOX, "stub")).start();
+        mailhost = "127.0.0.1";
+        mailport = stub.getPort();
+      } else if (mail.indexOf(':') != -1) {
+        mailhost = mail.substring(0, mail.indexOf(':'));
+        mailport = Integer.parseInt(mail.substring(mail.indexOf(':') + 1));
+      }
+      String tenants = parser.getValue("tenants");
+      mailer = new NoticeMailer(mailhost, mailport, parser.getValue("mailuser"),
+          parser.getValue("mailpass"), parser.getValue("mailfrom"),
+          new File(NoticeMailer.DEFAULT_OUTBOX),
+          NoticeMailer.loadTenants(new File(tenants == null ? NoticeMailer.DEFAULT_TENANTS : tenants)),
+          NoticeMailer.DEFAULT_SENDERS, NoticeMailer.DEFAULT_QUEUE_SIZE);
+      mailer.start();
+      demo.setNoticeMailer(mailer);
+    }
+
+    if (!parser.containsKey("nocache")) {
+      demo.setNoticeStore(new NoticeStore(new File(NoticeStore.DEFAULT_DIRECTORY)));
+    }
+
+    PooledRequestFactory pool = null;
+    if (parser.containsKey("pool") && source == null) {
+      String connections = parser.getValue("pool");
+      pool = new PooledRequestFactory((connections == null || connections.length() == 0)
+          ? PooledRequestFactory.DEFAULT_MAX_PER_HOST : Integer.parseInt(connections));
+      demo.documentList.setRequestFactory(pool);
+    }
+
+    RowFetcher rowFetcher = null;
+    if (source == null && (parser.containsKey("fetchthreads") || parser.containsKey("rowsperfetch")
+        || parser.containsKey("ratelimit"))) {
+      String fetchthreads = parser.getValue("fetchthreads");
+      String rowsperfetch = parser.getValue("rowsperfetch");
+      String ratelimit = parser.getValue("ratelimit");
+      rowFetcher = new RowFetcher(
+          (fetchthreads == null) ? RowFetcher.DEFAULT_CONCURRENCY : Integer.parseInt(fetchthreads),
+          (rowsperfetch == null) ? DocumentList.ROWS_PER_FETCH : Integer.parseInt(rowsperfetch),
+          (ratelimit == null) ? 0 : Double.parseDouble(ratelimit));
+      demo.documentList.setRowFetcher(rowFetcher);
+    }
+
+    FakeFeedServer feedServer = null;
+    if (fakefeeds != null) {
+      feedServer = new FakeFeedServer(new File(fakefeeds), 0);
+      FakeFeedServer.configure(feedServer, parser);
+      feedbase = feedServer.start().getBaseUrl();
+    }
+
+    AuthTokenStore tokenStore = null;
+    if (source != null) {
+      demo.setRentRollSource(new LocalRentRollSource(source));
+    } else if (feedbase != null) {
+      // the cache and the index are keyed by the production feeds, so leave them off
+      demo.documentList.setFeedBase(feedbase);
+      if (password != null) {
+        demo.login(user, password);
+      }
+      if (parser.containsKey("record")) {
+        demo.setNoticeRecorder(new GDataRentRollSource(demo.documentList));
+      }
     } else {
-      demo.login(authSub);
+      if (password != null && !parser.containsKey("notokens")) {
+        tokenStore = new AuthTokenStore(new File(AuthTokenStore.DEFAULT_FILE),
+            AuthTokenStore.DEFAULT_LIFETIME_MILLIS);
+        demo.documentList.setAuthTokenStore(tokenStore);
+      }
+      if (password != null) {
+        demo.login(user, password);
+      } else {
+        demo.login(authSub);
+      }
+      if (!parser.containsKey("nocache")) {
+        demo.documentList.setWorksheetCache(
+            new WorksheetCache(new File(WorksheetCache.DEFAULT_DIRECTORY)));
+        demo.documentList.setFeedIndex(new FeedIndex(new File(FeedIndex.DEFAULT_FILE)));
+      }
+      if (parser.containsKey("record")) {
+        demo.setNoticeRecorder(new GDataRentRollSource(demo.documentList));
+      }
     }
 
-    demo.run();
+    int status = 0;
+    try {
+      if (daemon) {
+        String port = parser.getValue("daemon");
+        int n = (threads == null) ? NoticeBatch.DEFAULT_THREADS : Integer.parseInt(threads);
+        String directory = parser.getValue("metrics");
+        File metricsDirectory = null;
+        if (metrics != null) {
+          metricsDirectory = new File((directory == null || directory.length() == 0)
+              ? RunMetrics.DEFAULT_DIRECTORY : directory);
+          metrics = null;
+        }
+        new NoticeDaemon(demo, n, (port == null || port.length() == 0)
+            ? NoticeDaemon.DEFAULT_PORT : Integer.parseInt(port), metricsDirectory,
+            new File(NoticeDaemon.DEFAULT_TOKEN_FILE)).start().join();
+      } else if (jobs != null) {
+        int n = (threads == null) ? NoticeBatch.DEFAULT_THREADS : Integer.parseInt(threads);
+        if (demo.runBatch(jobs, n) > 0) {
+          status = 2;
+        }
+      } else {
+        demo.run();
+      }
+    } finally {
+      if (tenantWriter != null) {
+        tenantWriter.shutdown();
+      }
+      if (invoiceWriter != null) {
+        invoiceWriter.shutdown();
+      }
+      if (mailer != null) {
+        mailer.close();
+      }
+      if (rowFetcher != null) {
+        rowFetcher.shutdown();
+      }
+      if (tokenStore != null) {
+        tokenStore.shutdown();
+      }
+      if (pool != null) {
+        pool.printStatistics(System.out);
+        pool.close();
+      }
+      if (feedServer != null) {
+        feedServer.stop();
+      }
+      if (metrics != null) {
+        String directory = parser.getValue("metrics");
+        if (directory == null || directory.length() == 0) {
+          directory = RunMetrics.DEFAULT_DIRECTORY;
+        }
+        metrics.print(System.out);
+        metrics.writeJson(new File(directory, "latenotice.json"));
+        metrics.writePrometheus(new File(directory, "latenotice.prom"));
+      }
+    }
+    // only once the mailer and the other resources above are closed
+    if (status != 0) {
+      System.exit(status);
+    }
   }
 }
 
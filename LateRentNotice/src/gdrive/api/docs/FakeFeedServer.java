@@ -0,0 +1,723 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import cmdline.util.SimpleCommandLineParser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import mobilehome.info.LocalRentRollSource;
+
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+/**
+ * An embedded HTTP server standing in for spreadsheets.google.com. It
+ * serves the spreadsheet, worksheet and cell feeds, and the cell batch
+ * feed, from local fixtures, so the fetch path can be exercised and timed
+ * without touching the real Rent Roll. Point a DocumentList at it with
+ * setFeedBase(getBaseUrl()); no login is needed.
+ *
+ * <p>The fixtures directory holds one directory per spreadsheet, named
+ * after its title, with one CSV or TSV file per worksheet, named after the
+ * worksheet: fixtures/Rent Roll/May 2014.csv. The first line is row 1.
+ *
+ * <p>Every response can be delayed by a fixed latency plus a random jitter,
+ * and a share of the requests can be failed with 503. The random numbers
+ * come from a seeded generator, so a run with the same settings sees the
+ * same delays and errors. Cell updates made through the batch feed are
+ * kept in memory only. Responses are gzip-compressed for clients that
+ * accept it.
+ */
+public class FakeFeedServer {
+  private static final String ATOM = "http://www.w3.org/2005/Atom";
+  private static final String GS = "http://schemas.google.com/spreadsheets/2006";
+  private static final String GD = "http://schemas.google.com/g/2005";
+  private static final String BATCH = "http://schemas.google.com/gdata/batch";
+  private static final String OPENSEARCH = "http://a9.com/-/spec/opensearchrss/1.0/";
+  /**
+   * Fewest columns reported for a worksheet, those of a new sheet (A to Z),
+   * which leaves room for the recorded notice columns. Wider fixtures report
+   * their widest row.
+   */
+  private static final int MIN_COL_COUNT = 26;
+
+  private static final Pattern SPREADSHEETS = Pattern.compile("/feeds/spreadsheets/private/full");
+  private static final Pattern WORKSHEETS =
+      Pattern.compile("/feeds/worksheets/(\\w+)/private/full(?:/(\\w+)(?:/\\w+)?)?");
+  private static final Pattern CELLS = Pattern.compile("/feeds/cells/(\\w+)/(\\w+)/private/full(/batch)?");
+  private static final Pattern BATCH_ENTRY = Pattern.compile("(?s)<(?:\\w+:)?entry[\\s>](.*?)</(?:\\w+:)?entry>");
+  private static final Pattern BATCH_ID = Pattern.compile("<batch:id>([^<]*)</batch:id>");
+  private static final Pattern BATCH_OPERATION = Pattern.compile("<batch:operation type=['\"](\\w+)['\"]");
+  private static final Pattern CELL_ID = Pattern.compile("/R(\\d+)C(\\d+)\\s*<");
+  private static final Pattern ETAG = Pattern.compile("gd:etag=(?:\"([^\"]*)\"|'([^']*)')");
+  private static final Pattern INPUT_VALUE = Pattern.compile("inputValue=(?:\"([^\"]*)\"|'([^']*)')");
+
+  private final File fixtures;
+  private final Server server;
+  private final AtomicInteger requests = new AtomicInteger();
+  /** Cells updated through the batch feed: "key/wid" -> "R2C18" -> value. */
+  private final ConcurrentMap<String, Map<String, String>> edits =
+      new ConcurrentHashMap<String, Map<String, String>>();
+  private volatile long latencyMillis = 0;
+  private volatile long jitterMillis = 0;
+  private volatile double errorRate = 0;
+  private Random random = new Random(0);
+
+  /**
+   * Constructor.
+   *
+   * @param fixtures directory holding the spreadsheets.
+   * @param port port to listen on, 0 for any free port.
+   */
+  public FakeFeedServer(File fixtures, int port) {
+    this.fixtures = fixtures;
+    server = new Server(port);
+    server.setHandler(new AbstractHandler() {
+      public void handle(String target, HttpServletRequest request, HttpServletResponse response,
+          int dispatch) throws IOException, ServletException {
+        ((Request) request).setHandled(true);
+        serve(request, response);
+      }
+    });
+  }
+
+  /** Delays every response by this many milliseconds. */
+  public void setLatency(long millis) {
+    latencyMillis = millis;
+  }
+
+  /** Adds a random delay of up to this many milliseconds to every response. */
+  public void setJitter(long millis) {
+    jitterMillis = millis;
+  }
+
+  /** Fails this share (0 to 1) of the requests with 503 Service Unavailable. */
+  public void setErrorRate(double rate) {
+    errorRate = rate;
+  }
+
+  /** Restarts the jitter and error sequence. */
+  public synchronized void setSeed(long seed) {
+    random = new Random(seed);
+  }
+
+  /** Returns the number of requests served so far, failed ones included. */
+  public int getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * Starts the server.
+   *
+   * @throws IOException if the server cannot be started.
+   */
+  public FakeFeedServer start() throws IOException {
+    if (!fixtures.isDirectory()) {
+      throw new IOException("Fixture directory " + fixtures + " does not exist");
+    }
+    try {
+      server.start();
+    } catch (Exception e) {
+      throw new IOException("Could not start the fake feed server", e);
+    }
+    return this;
+  }
+
+  /**
+   * Stops the server.
+   */
+  public void stop() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      // nothing left to clean up
+    }
+  }
+
+  /**
+   * Returns the URL to pass to DocumentList.setFeedBase.
+   */
+  public String getBaseUrl() {
+    return "http://localhost:" + server.getConnectors()[0].getLocalPort();
+  }
+
+  private void serve(HttpServletRequest request, HttpServletResponse response) throws IOException {
+    requests.incrementAndGet();
+    long delay;
+    boolean fail;
+    synchronized (this) {
+      delay = latencyMillis + (jitterMillis > 0 ? (long) (random.nextDouble() * jitterMillis) : 0);
+      fail = errorRate > 0 && random.nextDouble() < errorRate;
+    }
+    if (delay > 0) {
+      try {
+        Thread.sleep(delay);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    if (fail) {
+      response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Injected error");
+      return;
+    }
+
+    String path = request.getRequestURI();
+    String base = getBaseUrl();
+    StringBuilder xml = new StringBuilder(16384);
+    Matcher m;
+    if (SPREADSHEETS.matcher(path).matches()) {
+      spreadsheetFeed(xml, base, request.getParameter("title"), "true".equals(request.getParameter("title-exact")));
+    } else if ((m = WORKSHEETS.matcher(path)).matches()) {
+      File spreadsheet = new File(fixtures, decode(m.group(1)));
+      if (!spreadsheet.isDirectory()) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      if (m.group(2) == null) {
+        worksheetFeed(xml, base, m.group(1), spreadsheet);
+      } else {
+        File worksheet = worksheetFile(spreadsheet, decode(m.group(2)));
+        if (worksheet == null) {
+          response.sendError(HttpServletResponse.SC_NOT_FOUND);
+          return;
+        }
+        xml.append("<?xml version='1.0' encoding='UTF-8'?>");
+        worksheetEntry(xml, base, m.group(1), m.group(2), worksheet, true);
+      }
+    } else if ((m = CELLS.matcher(path)).matches()) {
+      File spreadsheet = new File(fixtures, decode(m.group(1)));
+      File worksheet = spreadsheet.isDirectory() ? worksheetFile(spreadsheet, decode(m.group(2))) : null;
+      if (worksheet == null) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+        return;
+      }
+      String feed = base + "/feeds/cells/" + m.group(1) + "/" + m.group(2) + "/private/full";
+      String key = m.group(1) + "/" + m.group(2);
+      if (m.group(3) != null) {
+        batchFeed(xml, feed, key, worksheet, readBody(request), "*".equals(request.getHeader("If-Match")));
+      } else {
+        cellFeed(xml, feed, key, worksheet, request);
+      }
+    } else {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    byte[] body = xml.toString().getBytes("UTF-8");
+    String accept = request.getHeader("Accept-Encoding");
+    response.setStatus(HttpServletResponse.SC_OK);
+    response.setHeader("GData-Version", "3.0");
+    response.setContentType("application/atom+xml; charset=UTF-8");
+    if (accept != null && accept.contains("gzip")) {
+      ByteArrayOutputStream compressed = new ByteArrayOutputStream(body.length / 4);
+      GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+      gzip.write(body);
+      gzip.close();
+      body = compressed.toByteArray();
+      response.setHeader("Content-Encoding", "gzip");
+    }
+    response.setContentLength(body.length);
+    OutputStream out = response.getOutputStream();
+    out.write(body);
+    out.flush();
+  }
+
+  private void spreadsheetFeed(StringBuilder xml, String base, String title, boolean exact)
+      throws IOException {
+    String feed = base + "/feeds/spreadsheets/private/full";
+    feedStart(xml, feed, "spreadsheet", "Available Spreadsheets");
+    File[] spreadsheets = listFiles(fixtures);
+    for (File spreadsheet : spreadsheets) {
+      String name = spreadsheet.getName();
+      if (!spreadsheet.isDirectory() || (title != null && (exact ? !name.equalsIgnoreCase(title)
+          : !name.toLowerCase().contains(title.toLowerCase())))) {
+        continue;
+      }
+      String key = encode(name);
+      xml.append("<entry gd:etag='").append(etag(spreadsheet)).append("'>");
+      element(xml, "id", feed + "/" + key);
+      element(xml, "updated", updated(spreadsheet.lastModified()));
+      category(xml, "spreadsheet");
+      xml.append("<title type='text'>");
+      escape(xml, name);
+      xml.append("</title>");
+      xml.append("<content type='application/atom+xml;type=feed' src='");
+      escape(xml, base + "/feeds/worksheets/" + key + "/private/full");
+      xml.append("'/>");
+      link(xml, GS + "#worksheetsfeed", base + "/feeds/worksheets/" + key + "/private/full");
+      link(xml, "self", feed + "/" + key);
+      xml.append("</entry>");
+    }
+    xml.append("</feed>");
+  }
+
+  private void worksheetFeed(StringBuilder xml, String base, String key, File spreadsheet)
+      throws IOException {
+    feedStart(xml, base + "/feeds/worksheets/" + key + "/private/full", "worksheet", spreadsheet.getName());
+    for (File worksheet : worksheetFiles(spreadsheet)) {
+      worksheetEntry(xml, base, key, encode(baseName(worksheet)), worksheet, false);
+    }
+    xml.append("</feed>");
+  }
+
+  private void worksheetEntry(StringBuilder xml, String base, String key, String wid, File worksheet,
+      boolean root) {
+    String self = base + "/feeds/worksheets/" + key + "/private/full/" + wid;
+    xml.append("<entry");
+    if (root) {
+      namespaces(xml);
+    }
+    xml.append(" gd:etag='").append(etag(worksheet, key + "/" + wid)).append("'>");
+    element(xml, "id", self);
+    element(xml, "updated", updated(worksheet.lastModified()));
+    category(xml, "worksheet");
+    xml.append("<title type='text'>");
+    escape(xml, baseName(worksheet));
+    xml.append("</title>");
+    link(xml, GS + "#cellsfeed", base + "/feeds/cells/" + key + "/" + wid + "/private/full");
+    link(xml, "self", self);
+    link(xml, "edit", self + "/version");
+    Worksheet sheet = readWorksheet(worksheet);
+    xml.append("<gs:rowCount>").append(Math.max(sheet.rows.size(), 1)).append("</gs:rowCount>");
+    xml.append("<gs:colCount>").append(sheet.colCount).append("</gs:colCount>");
+    xml.append("</entry>");
+  }
+
+  /**
+   * Writes the non-empty cells of the requested range, row by row, as the
+   * real cell feed does.
+   */
+  private void cellFeed(StringBuilder xml, String feed, String key, File worksheet,
+      HttpServletRequest request) {
+    Worksheet sheet = readWorksheet(worksheet);
+    List<String[]> rows = sheet.rows;
+    Map<String, String> edited = edits.get(key);
+    int minrow = intParameter(request, "min-row", 1);
+    int maxrow = intParameter(request, "max-row", Math.max(rows.size(), 1));
+    int mincol = intParameter(request, "min-col", 1);
+    int maxcol = intParameter(request, "max-col", sheet.colCount);
+    feedStart(xml, feed, "cell", baseName(worksheet));
+    link(xml, "http://schemas.google.com/g/2005#batch", feed + "/batch");
+    xml.append("<gs:rowCount>").append(Math.max(rows.size(), 1)).append("</gs:rowCount>");
+    xml.append("<gs:colCount>").append(sheet.colCount).append("</gs:colCount>");
+    for (int row = minrow; row <= maxrow; row++) {
+      String[] values = (row - 1 < rows.size()) ? rows.get(row - 1) : new String[0];
+      for (int col = mincol; col <= maxcol; col++) {
+        String value = (edited != null && edited.containsKey(id(row, col)))
+            ? edited.get(id(row, col)) : (col - 1 < values.length) ? values[col - 1] : null;
+        if (value != null && value.length() > 0) {
+          cellEntry(xml, feed, row, col, value, null, null, null);
+        }
+      }
+    }
+    xml.append("</feed>");
+  }
+
+  /**
+   * Answers a batch of cell queries and updates. Updates are stored in
+   * memory and show up in later cell feeds and queries; cells never updated
+   * are answered from the fixture. An update must carry the ETag the cell
+   * was last answered with, or be sent with If-Match: *; otherwise it fails
+   * with 409 Conflict and the cell is left as it is.
+   */
+  private void batchFeed(StringBuilder xml, String feed, String key, File worksheet, String body,
+      boolean overwrite) {
+    List<String[]> rows = readWorksheet(worksheet).rows;
+    edits.putIfAbsent(key, new ConcurrentHashMap<String, String>());
+    Map<String, String> edited = edits.get(key);
+    feedStart(xml, feed, "cell", "Batch Feed");
+    Matcher entry = BATCH_ENTRY.matcher(body);
+    while (entry.find()) {
+      String content = entry.group(1);
+      Matcher id = BATCH_ID.matcher(content);
+      Matcher operation = BATCH_OPERATION.matcher(content);
+      Matcher cell = CELL_ID.matcher(content);
+      if (!cell.find()) {
+        continue;
+      }
+      int row = Integer.parseInt(cell.group(1));
+      int col = Integer.parseInt(cell.group(2));
+      String type = operation.find() ? operation.group(1) : "query";
+      String batchid = id.find() ? id.group(1) : id(row, col);
+      String value = edited.get(id(row, col));
+      if (value == null) {
+        String[] values = (row - 1 < rows.size()) ? rows.get(row - 1) : new String[0];
+        value = (col - 1 < values.length && values[col - 1] != null) ? values[col - 1] : "";
+      }
+      if (type.equals("update")) {
+        Matcher etag = ETAG.matcher(content);
+        if (!overwrite && (!etag.find()
+            || !cellEtag(value).equals(unescape(etag.group(1) != null ? etag.group(1) : etag.group(2))))) {
+          cellEntry(xml, feed, row, col, value, batchid, type, "409 Conflict");
+          continue;
+        }
+        Matcher input = INPUT_VALUE.matcher(content);
+        if (input.find()) {
+          value = unescape(input.group(1) != null ? input.group(1) : input.group(2));
+          edited.put(id(row, col), value);
+        }
+      }
+      cellEntry(xml, feed, row, col, value, batchid, type, "200 Success");
+    }
+    xml.append("</feed>");
+  }
+
+  /**
+   * @param status batch status of the entry, code and reason, e.g. "200 Success".
+   */
+  private void cellEntry(StringBuilder xml, String feed, int row, int col, String value, String batchid,
+      String operation, String status) {
+    String self = feed + "/" + id(row, col);
+    xml.append("<entry gd:etag='").append(cellEtag(value)).append("'>");
+    if (batchid != null) {
+      xml.append("<batch:id>");
+      escape(xml, batchid);
+      int space = status.indexOf(' ');
+      xml.append("</batch:id><batch:status code='").append(status.substring(0, space))
+          .append("' reason='").append(status.substring(space + 1)).append("'/><batch:operation type='")
+          .append(operation).append("'/>");
+    }
+    element(xml, "id", self);
+    element(xml, "updated", updated(System.currentTimeMillis()));
+    category(xml, "cell");
+    element(xml, "title", columnName(col) + row);
+    xml.append("<content type='text'>");
+    escape(xml, value);
+    xml.append("</content>");
+    link(xml, "self", self);
+    link(xml, "edit", self + "/1");
+    xml.append("<gs:cell row='").append(row).append("' col='").append(col).append("' inputValue='");
+    escape(xml, value);
+    xml.append("'");
+    Double number = numericValue(value);
+    if (number != null) {
+      xml.append(" numericValue='").append(number).append("'");
+    }
+    xml.append(">");
+    escape(xml, value);
+    xml.append("</gs:cell></entry>");
+  }
+
+  private void feedStart(StringBuilder xml, String feed, String kind, String title) {
+    xml.append("<?xml version='1.0' encoding='UTF-8'?><feed");
+    namespaces(xml);
+    xml.append(">");
+    element(xml, "id", feed);
+    element(xml, "updated", updated(System.currentTimeMillis()));
+    category(xml, kind);
+    xml.append("<title type='text'>");
+    escape(xml, title);
+    xml.append("</title>");
+    link(xml, "http://schemas.google.com/g/2005#feed", feed);
+    link(xml, "self", feed);
+    xml.append("<openSearch:startIndex>1</openSearch:startIndex>");
+  }
+
+  private static void namespaces(StringBuilder xml) {
+    xml.append(" xmlns='").append(ATOM).append("' xmlns:openSearch='").append(OPENSEARCH)
+        .append("' xmlns:gs='").append(GS).append("' xmlns:gd='").append(GD)
+        .append("' xmlns:batch='").append(BATCH).append("'");
+  }
+
+  private static void category(StringBuilder xml, String kind) {
+    xml.append("<category scheme='http://schemas.google.com/spreadsheets/2006' term='")
+        .append(GS).append('#').append(kind).append("'/>");
+  }
+
+  private static void link(StringBuilder xml, String rel, String href) {
+    xml.append("<link rel='").append(rel).append("' type='application/atom+xml' href='");
+    escape(xml, href);
+    xml.append("'/>");
+  }
+
+  private static void element(StringBuilder xml, String name, String text) {
+    xml.append('<').append(name).append('>');
+    escape(xml, text);
+    xml.append("</").append(name).append('>');
+  }
+
+  private static void escape(StringBuilder xml, String text) {
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      switch (c) {
+        case '&': xml.append("&amp;"); break;
+        case '<': xml.append("&lt;"); break;
+        case '>': xml.append("&gt;"); break;
+        case '"': xml.append("&quot;"); break;
+        case '\'': xml.append("&apos;"); break;
+        default: xml.append(c);
+      }
+    }
+  }
+
+  private static String unescape(String text) {
+    return text.replace("&lt;", "<").replace("&gt;", ">").replace("&quot;", "\"")
+        .replace("&apos;", "'").replace("&amp;", "&");
+  }
+
+  /**
+   * Returns the files of a fixture directory, sorted by name.
+   *
+   * @throws IOException if the directory cannot be listed, e.g. it was removed.
+   */
+  private static File[] listFiles(File directory) throws IOException {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      throw new IOException("Could not list fixture directory " + directory);
+    }
+    Arrays.sort(files);
+    return files;
+  }
+
+  private List<File> worksheetFiles(File spreadsheet) throws IOException {
+    List<File> worksheets = new ArrayList<File>();
+    for (File file : listFiles(spreadsheet)) {
+      String name = file.getName().toLowerCase();
+      if (file.isFile() && (name.endsWith(".csv") || name.endsWith(".tsv"))) {
+        worksheets.add(file);
+      }
+    }
+    return worksheets;
+  }
+
+  private File worksheetFile(File spreadsheet, String name) throws IOException {
+    for (File worksheet : worksheetFiles(spreadsheet)) {
+      if (baseName(worksheet).equals(name)) {
+        return worksheet;
+      }
+    }
+    return null;
+  }
+
+  /** The rows of a fixture worksheet, every column of every line kept. */
+  private static class Worksheet {
+    final long lastModified;
+    final List<String[]> rows;
+    final int colCount;
+
+    Worksheet(long lastModified, List<String[]> rows, int colCount) {
+      this.lastModified = lastModified;
+      this.rows = rows;
+      this.colCount = colCount;
+    }
+  }
+
+  /** Worksheets already read, by path; re-read when the file changes. */
+  private final Map<String, Worksheet> worksheets = new ConcurrentHashMap<String, Worksheet>();
+
+  private Worksheet readWorksheet(File worksheet) {
+    Worksheet cached = worksheets.get(worksheet.getPath());
+    if (cached != null && cached.lastModified == worksheet.lastModified()) {
+      return cached;
+    }
+    long lastModified = worksheet.lastModified();
+    List<String[]> rows = new ArrayList<String[]>();
+    int colCount = MIN_COL_COUNT;
+    char delimiter = worksheet.getName().toLowerCase().endsWith(".tsv") ? '\t' : ',';
+    try {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(worksheet), "UTF-8"));
+      try {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          String[] values = new String[count(line, delimiter) + 1];
+          LocalRentRollSource.splitLine(line, delimiter, values);
+          rows.add(values);
+          colCount = Math.max(colCount, values.length);
+        }
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      // served as an empty worksheet
+    }
+    Worksheet sheet = new Worksheet(lastModified, rows, colCount);
+    worksheets.put(worksheet.getPath(), sheet);
+    return sheet;
+  }
+
+  /** Returns the number of delimiters of a line, one less than its most columns. */
+  private static int count(String line, char delimiter) {
+    int count = 0;
+    for (int i = 0; i < line.length(); i++) {
+      if (line.charAt(i) == delimiter) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static String readBody(HttpServletRequest request) throws IOException {
+    StringBuilder body = new StringBuilder();
+    BufferedReader reader = request.getReader();
+    char[] buffer = new char[8192];
+    int n;
+    while ((n = reader.read(buffer)) > 0) {
+      body.append(buffer, 0, n);
+    }
+    return body.toString();
+  }
+
+  private static Double numericValue(String value) {
+    String number = value.replace("$", "").replace(",", "").trim();
+    if (number.length() == 0) {
+      return null;
+    }
+    try {
+      return Double.valueOf(number);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  private static int intParameter(HttpServletRequest request, String name, int defaultValue) {
+    String value = request.getParameter(name);
+    return (value == null) ? defaultValue : Integer.parseInt(value);
+  }
+
+  private String etag(File file) {
+    return "\"" + Long.toHexString(file.lastModified()) + "\"";
+  }
+
+  /** Changes whenever the file changes or one of its cells is updated. */
+  private String etag(File file, String key) {
+    Map<String, String> edited = edits.get(key);
+    int version = (edited == null) ? 0 : edited.hashCode();
+    return "\"" + Long.toHexString(file.lastModified()) + "." + Integer.toHexString(version) + "\"";
+  }
+
+  private static String updated(long millis) {
+    SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format.format(new Date(millis));
+  }
+
+  /** Changes whenever the value of the cell changes. */
+  private static String cellEtag(String value) {
+    return "\"c" + (value.hashCode() & 0x7fffffff) + "\"";
+  }
+
+  private static String id(int row, int col) {
+    return "R" + row + "C" + col;
+  }
+
+  private static String columnName(int col) {
+    String name = "";
+    for (int c = col; c > 0; c = (c - 1) / 26) {
+      name = (char) ('A' + (c - 1) % 26) + name;
+    }
+    return name;
+  }
+
+  private static String baseName(File file) {
+    String name = file.getName();
+    return name.substring(0, name.lastIndexOf('.'));
+  }
+
+  /** Spreadsheet keys and worksheet ids are the hex of their names. */
+  private static String encode(String name) {
+    StringBuilder hex = new StringBuilder();
+    try {
+      for (byte b : name.getBytes("UTF-8")) {
+        hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return hex.toString();
+  }
+
+  private static String decode(String hex) {
+    byte[] bytes = new byte[hex.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+    }
+    try {
+      return new String(bytes, "UTF-8");
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Runs the server until it is killed.
+   *
+   * <pre>
+   * java gdrive.api.docs.FakeFeedServer --fixtures <dir> [--port 8080]
+   *     [--latency <ms>] [--jitter <ms>] [--errors <0..1>] [--seed <n>]
+   * </pre>
+   */
+  public static void main(String[] args) throws Exception {
+    SimpleCommandLineParser parser = new SimpleCommandLineParser(args);
+    String fixtures = parser.getValue("fixtures");
+    if (fixtures == null) {
+      System.out.println("Usage: java FakeFeedServer --fixtures <dir> [--port 8080] [--latency <ms>]"
+          + " [--jitter <ms>] [--errors <0..1>] [--seed <n>]");
+      System.exit(1);
+    }
+    String port = parser.getValue("port");
+    FakeFeedServer server = new FakeFeedServer(new File(fixtures),
+        (port == null) ? 8080 : Integer.parseInt(port));
+    configure(server, parser);
+    server.start();
+    System.out.println("Serving " + fixtures + " at " + server.getBaseUrl());
+  }
+
+  /**
+   * Applies the --latency, --jitter, --errors and --seed options.
+   */
+  static void configure(FakeFeedServer server, SimpleCommandLineParser parser) {
+    if (parser.getValue("latency") != null) {
+      server.setLatency(Long.parseLong(parser.getValue("latency")));
+    }
+    if (parser.getValue("jitter") != null) {
+      server.setJitter(Long.parseLong(parser.getValue("jitter")));
+    }
+    if (parser.getValue("errors") != null) {
+      server.setErrorRate(Double.parseDouble(parser.getValue("errors")));
+    }
+    if (parser.getValue("seed") != null) {
+      server.setSeed(Long.parseLong(parser.getValue("seed")));
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Remembers where spreadsheets and worksheets live so they can be fetched
+ * directly instead of scanning the account's spreadsheet feed and the
+ * spreadsheet's worksheet feed on every run. Maps spreadsheet titles to
+ * worksheet feed URLs and (spreadsheet title, worksheet name) pairs to
+ * worksheet entry URLs. The index is kept in a properties file and updated
+ * lazily: an entry is only replaced when fetching it fails.
+ */
+public class FeedIndex {
+  public static final String DEFAULT_FILE = WorksheetCache.DEFAULT_DIRECTORY + "/feeds.properties";
+
+  private static final String SPREADSHEET_PREFIX = "spreadsheet.";
+  private static final String WORKSHEET_PREFIX = "worksheet.";
+
+  private final File file;
+  private final Properties urls = new Properties();
+  private boolean dirty = false;
+
+  /**
+   * Constructor. Loads the index from the file if it exists.
+   *
+   * @param file the properties file holding the index.
+   *
+   * @throws IOException if the file exists but cannot be read.
+   */
+  public FeedIndex(File file) throws IOException {
+    this.file = file;
+    if (file.isFile()) {
+      InputStream in = new FileInputStream(file);
+      try {
+        urls.load(in);
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the worksheet feed URL of the spreadsheet with the given title,
+   * or null if it is not known.
+   */
+  public synchronized String getWorksheetFeedUrl(String title) {
+    return urls.getProperty(SPREADSHEET_PREFIX + title.toLowerCase());
+  }
+
+  public synchronized void putWorksheetFeedUrl(String title, String url) {
+    put(SPREADSHEET_PREFIX + title.toLowerCase(), url);
+  }
+
+  /**
+   * Forgets a spreadsheet and all of its worksheets.
+   */
+  public synchronized void removeSpreadsheet(String title) {
+    String worksheets = WORKSHEET_PREFIX + title.toLowerCase() + "/";
+    for (String key : urls.stringPropertyNames()) {
+      if (key.startsWith(worksheets)) {
+        urls.remove(key);
+      }
+    }
+    urls.remove(SPREADSHEET_PREFIX + title.toLowerCase());
+    dirty = true;
+  }
+
+  /**
+   * Returns the entry URL of a worksheet, or null if it is not known.
+   */
+  public synchronized String getWorksheetUrl(String title, String worksheetname) {
+    return urls.getProperty(WORKSHEET_PREFIX + title.toLowerCase() + "/" + worksheetname);
+  }
+
+  public synchronized void putWorksheetUrl(String title, String worksheetname, String url) {
+    put(WORKSHEET_PREFIX + title.toLowerCase() + "/" + worksheetname, url);
+  }
+
+  public synchronized void removeWorksheet(String title, String worksheetname) {
+    if (urls.remove(WORKSHEET_PREFIX + title.toLowerCase() + "/" + worksheetname) != null) {
+      dirty = true;
+    }
+  }
+
+  private void put(String key, String url) {
+    if (!url.equals(urls.put(key, url))) {
+      dirty = true;
+    }
+  }
+
+  /**
+   * Writes the index back to its file if it changed since it was loaded.
+   *
+   * @throws IOException if the file cannot be written.
+   */
+  public synchronized void save() throws IOException {
+    if (!dirty) {
+      return;
+    }
+    File directory = file.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    OutputStream out = new FileOutputStream(file);
+    try {
+      urls.store(out, "Rent Roll spreadsheet and worksheet locations");
+    } finally {
+      out.close();
+    }
+    dirty = false;
+  }
+}
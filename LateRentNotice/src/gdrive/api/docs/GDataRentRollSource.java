@@ -0,0 +1,61 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import com.google.gdata.util.ServiceException;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.NoticeRecorder;
+import mobilehome.info.RentRollSource;
+
+/**
+ * Reads the Rent Roll from the "Rent Roll" Google spreadsheet through an
+ * authenticated DocumentList, and records issued notices back on it.
+ */
+public class GDataRentRollSource implements RentRollSource, NoticeRecorder {
+  private final DocumentList documentList;
+
+  /**
+   * Constructor.
+   *
+   * @param documentList the logged in DocumentList used to fetch the feeds.
+   */
+  public GDataRentRollSource(DocumentList documentList) {
+    this.documentList = documentList;
+  }
+
+  public List<MobileHomeInfo> load(int mobilepark, String worksheetname) throws IOException {
+    try {
+      return documentList.loadRentRoll(mobilepark, worksheetname);
+    } catch (ServiceException e) {
+      throw new IOException("Could not load Worksheet: " + worksheetname, e);
+    }
+  }
+
+  public void record(int mobilepark, String worksheetname, List<MobileHomeInfo> mobilehomeinfo,
+      Date noticedate) throws IOException {
+    try {
+      documentList.recordNotices(mobilepark, worksheetname, mobilehomeinfo, noticedate);
+    } catch (ServiceException e) {
+      throw new IOException("Could not record notices on Worksheet: " + worksheetname, e);
+    }
+  }
+}
@@ -0,0 +1,279 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import java.io.PrintStream;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import mobilehome.info.InvoiceWriter;
+import mobilehome.info.LateNoticeTemplate;
+import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.NoticeMailer;
+import mobilehome.info.NoticeRecorder;
+import mobilehome.info.NoticeStore;
+import mobilehome.info.ParallelNoticeRenderer;
+import mobilehome.info.RentRollSource;
+import mobilehome.info.TenantNoticeWriter;
+
+/**
+ * Generates late notices for several (park, worksheet) jobs in one JVM.
+ * The jobs share a single RentRollSource, and therefore a single
+ * authenticated DocumentList, and run on a bounded thread pool so that
+ * their feed requests and file writes overlap. Every job writes its own
+ * output file, and a failing job does not stop the others.
+ */
+public class NoticeBatch {
+  /** Default number of jobs run at the same time. */
+  public static final int DEFAULT_THREADS = 4;
+
+  private final RentRollSource source;
+  private final int threads;
+  private final PrintStream out;
+  private ParallelNoticeRenderer renderer;
+  private NoticeStore store;
+  private NoticeRecorder recorder;
+  private TenantNoticeWriter tenantWriter;
+  private NoticeMailer mailer;
+  private InvoiceWriter invoiceWriter;
+
+  /**
+   * A single park and month to generate notices for.
+   */
+  public static class Job {
+    private final int mobilepark;
+    private final String worksheetname;
+    private final String outputfile;
+    private volatile Throwable error;
+    private volatile long elapsedMillis;
+
+    /**
+     * Constructor.
+     *
+     * @param mobilepark MobileHomeInfo.CT or MobileHomeInfo.MESA.
+     * @param worksheetname the worksheet to read.
+     * @param outputfile the file the notices are written to.
+     */
+    public Job(int mobilepark, String worksheetname, String outputfile) {
+      this.mobilepark = mobilepark;
+      this.worksheetname = worksheetname;
+      this.outputfile = outputfile;
+    }
+
+    public int getPark() { return mobilepark; }
+    public String getWorksheetName() { return worksheetname; }
+    public String getOutputFile() { return outputfile; }
+    /** The failure of the job, or null if it succeeded or has not run. */
+    public Throwable getError() { return error; }
+    public long getElapsedMillis() { return elapsedMillis; }
+
+    public String toString() {
+      return parkName(mobilepark) + " " + worksheetname;
+    }
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param source where the worksheets are loaded from.
+   * @param threads maximum number of jobs run at the same time.
+   * @param out stream progress and errors are reported to.
+   */
+  public NoticeBatch(RentRollSource source, int threads, PrintStream out) {
+    if (threads < 1) {
+      throw new IllegalArgumentException("threads must be at least 1");
+    }
+    this.source = source;
+    this.threads = threads;
+    this.out = out;
+  }
+
+  /**
+   * Renders each job's notices on the given renderer's pool instead of on
+   * the job's own thread.
+   *
+   * @param renderer the renderer shared by all jobs, or null.
+   */
+  public void setRenderer(ParallelNoticeRenderer renderer) {
+    this.renderer = renderer;
+  }
+
+  /**
+   * Reuses the notices of lots whose row did not change since the last run
+   * of the same park and worksheet.
+   *
+   * @param store the store shared by all jobs, or null to render every notice.
+   */
+  public void setNoticeStore(NoticeStore store) {
+    this.store = store;
+  }
+
+  /**
+   * Records each job's notices back on its worksheet once they are written.
+   *
+   * @param recorder the recorder shared by all jobs, or null to only write the files.
+   */
+  public void setNoticeRecorder(NoticeRecorder recorder) {
+    this.recorder = recorder;
+  }
+
+  /**
+   * Also writes each delinquent lot's notice to its own file, in a directory
+   * named after the job's output file.
+   *
+   * @param tenantWriter the writer shared by all jobs, or null.
+   */
+  public void setTenantNoticeWriter(TenantNoticeWriter tenantWriter) {
+    this.tenantWriter = tenantWriter;
+  }
+
+  /**
+   * Mails each job's per lot notice files to the tenants while they are written.
+   * Needs a TenantNoticeWriter.
+   *
+   * @param mailer the started mailer, or null.
+   */
+  public void setNoticeMailer(NoticeMailer mailer) {
+    this.mailer = mailer;
+  }
+
+  /**
+   * Also writes every lot's rent invoice for each job's month, in
+   * InvoiceWriter.directoryFor(park, worksheet).
+   *
+   * @param invoiceWriter the writer shared by all jobs, or null.
+   */
+  public void setInvoiceWriter(InvoiceWriter invoiceWriter) {
+    this.invoiceWriter = invoiceWriter;
+  }
+
+  /**
+   * Parses a job list of the form "CT:May 2014;MESA:May 2014;CT:April 2014".
+   * Each job gets its own output file under resources/.
+   *
+   * @param spec the semicolon separated list of park:worksheet pairs.
+   *
+   * @throws DocumentListException if an entry is not of the form park:worksheet.
+   */
+  public static List<Job> parseJobs(String spec) throws DocumentListException {
+    if (spec == null) {
+      throw new DocumentListException("null job list");
+    }
+
+    String date = new SimpleDateFormat("yyyyMMdd").format(new Date());
+    List<Job> jobs = new ArrayList<Job>();
+    for (String entry : spec.split(";")) {
+      if (entry.trim().length() == 0) {
+        continue;
+      }
+      int index = entry.indexOf(':');
+      if (index == -1) {
+        throw new DocumentListException("invalid job: " + entry + " (expected park:worksheet)");
+      }
+      int mobilepark = parsePark(entry.substring(0, index).trim());
+      String worksheetname = entry.substring(index + 1).trim();
+      String outputfile = "resources/" + date + "_" + parkName(mobilepark) + "_"
+          + worksheetname.replace(' ', '_') + "-LateNotice.docx";
+      jobs.add(new Job(mobilepark, worksheetname, outputfile));
+    }
+    return jobs;
+  }
+
+  /**
+   * Returns MobileHomeInfo.CT for "ct" (any case) and MobileHomeInfo.MESA
+   * otherwise, the same rule DocumentListDemo uses for --park.
+   */
+  public static int parsePark(String park) {
+    return park.toLowerCase().equals("ct") ? MobileHomeInfo.CT : MobileHomeInfo.MESA;
+  }
+
+  private static String parkName(int mobilepark) {
+    return (mobilepark == MobileHomeInfo.CT) ? "CT" : "Mesa";
+  }
+
+  /**
+   * Runs every job and waits for all of them to finish.
+   *
+   * @param jobs the jobs to run.
+   * @return the number of jobs that failed.
+   *
+   * @throws InterruptedException if interrupted while waiting for the jobs.
+   */
+  public int run(List<Job> jobs) throws InterruptedException {
+    final int total = jobs.size();
+    final AtomicInteger done = new AtomicInteger();
+    final AtomicInteger failed = new AtomicInteger();
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(total, 1)));
+    try {
+      for (final Job job : jobs) {
+        executor.execute(new Runnable() {
+          public void run() {
+            long start = System.currentTimeMillis();
+            try {
+              Date issued = new Date();
+              List<MobileHomeInfo> mobilehomeinfo = MobileHomeInfo.GenerateLateNotices(source,
+                  job.mobilepark, job.worksheetname, job.outputfile, renderer, store);
+              if (recorder != null) {
+                recorder.record(job.mobilepark, job.worksheetname, mobilehomeinfo, issued);
+              }
+              if (tenantWriter != null) {
+                tenantWriter.write(mobilehomeinfo, LateNoticeTemplate.forPark(job.mobilepark, issued),
+                    TenantNoticeWriter.directoryFor(job.outputfile),
+                    (mailer == null) ? null : mailer.forWorksheet(job.mobilepark, job.worksheetname, issued));
+              }
+              if (invoiceWriter != null) {
+                invoiceWriter.write(mobilehomeinfo, job.mobilepark, job.worksheetname, issued,
+                    InvoiceWriter.directoryFor(job.mobilepark, job.worksheetname));
+              }
+            } catch (Throwable e) {
+              job.error = e;
+              failed.incrementAndGet();
+            }
+            job.elapsedMillis = System.currentTimeMillis() - start;
+            report(job, done.incrementAndGet(), total);
+          }
+        });
+      }
+    } finally {
+      executor.shutdown();
+    }
+    while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+      out.println("Waiting for " + (total - done.get()) + " of " + total + " jobs");
+    }
+    out.println("Batch completed: " + (total - failed.get()) + " succeeded, "
+        + failed.get() + " failed");
+    return failed.get();
+  }
+
+  private void report(Job job, int done, int total) {
+    synchronized (out) {
+      if (job.error == null) {
+        out.println("[" + done + "/" + total + "] " + job + ": wrote " + job.outputfile
+            + " in " + job.elapsedMillis + " ms");
+      } else {
+        out.println("[" + done + "/" + total + "] " + job + ": FAILED after "
+            + job.elapsedMillis + " ms: " + job.error);
+      }
+    }
+  }
+}
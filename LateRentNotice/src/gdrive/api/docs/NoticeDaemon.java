@@ -0,0 +1,316 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import mobilehome.info.RunMetrics;
+
+import org.mortbay.jetty.Request;
+import org.mortbay.jetty.Server;
+import org.mortbay.jetty.bio.SocketConnector;
+import org.mortbay.jetty.handler.AbstractHandler;
+
+/**
+ * Keeps a logged in DocumentListDemo, with its feed index, caches, thread
+ * pools and loaded classes, running between jobs and generates notices
+ * when asked over HTTP on the loopback interface, so a run costs the work
+ * itself instead of a JVM start, class loading, JIT warm-up and a login.
+ *
+ * <p>Since a run can mail tenants and write to the Rent Roll, every request
+ * must carry the token the daemon writes, readable by its owner only, to
+ * the token file when it starts, in an X-Notice-Token header. Requests
+ * naming a Host other than the loopback interface, or carrying an Origin
+ * header, are refused, so neither a web page open in a local browser nor
+ * a DNS rebinding attack can reach the daemon, and /generate and /stop
+ * only accept POST.
+ *
+ * <pre>
+ * TOKEN="X-Notice-Token: $(cat resources/cache/daemon.token)"
+ * curl -H "$TOKEN" -d park=MESA -d 'worksheet=May 2014' http://localhost:8765/generate
+ * curl -H "$TOKEN" -d 'jobs=CT:May 2014;MESA:May 2014' http://localhost:8765/generate
+ * curl -H "$TOKEN" http://localhost:8765/status
+ * curl -H "$TOKEN" -X POST http://localhost:8765/stop
+ * </pre>
+ *
+ * A generate request streams back the progress of its jobs as plain text,
+ * then one tab separated line per job, "OK", the absolute path of the file
+ * written and the milliseconds taken, or "FAILED", the job and the error,
+ * and then the per-stage metrics if they are on. Generate requests are run
+ * one at a time, since two runs of the same job write the same file.
+ */
+public class NoticeDaemon {
+  public static final int DEFAULT_PORT = 8765;
+  public static final String DEFAULT_TOKEN_FILE =
+      WorksheetCache.DEFAULT_DIRECTORY + "/daemon.token";
+  /** Request header carrying the token. */
+  public static final String TOKEN_HEADER = "X-Notice-Token";
+
+  private final DocumentListDemo demo;
+  private final int threads;
+  private final File metricsDirectory;
+  private final File tokenFile;
+  private final String token;
+  private final Server server;
+  private final long started = System.currentTimeMillis();
+  private final Object generating = new Object();
+  private volatile int runs;
+  private volatile long lastMillis;
+
+  /**
+   * Constructor.
+   *
+   * @param demo the configured, logged in demo the jobs are run on.
+   * @param threads maximum number of jobs of a request run at the same time.
+   * @param port port to listen on, 0 for any free port.
+   * @param metricsDirectory where the metrics of each request are saved,
+   *    or null to not record them.
+   * @param tokenFile where the token requests must carry is written.
+   */
+  public NoticeDaemon(DocumentListDemo demo, int threads, int port, File metricsDirectory,
+      File tokenFile) {
+    this.demo = demo;
+    this.threads = threads;
+    this.metricsDirectory = metricsDirectory;
+    this.tokenFile = tokenFile;
+    byte[] random = new byte[32];
+    new SecureRandom().nextBytes(random);
+    StringBuilder hex = new StringBuilder(random.length * 2);
+    for (byte b : random) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    token = hex.toString();
+    server = new Server();
+    SocketConnector connector = new SocketConnector();
+    connector.setHost("127.0.0.1");
+    connector.setPort(port);
+    server.addConnector(connector);
+    server.setHandler(new AbstractHandler() {
+      public void handle(String target, HttpServletRequest request, HttpServletResponse response,
+          int dispatch) throws IOException, ServletException {
+        ((Request) request).setHandled(true);
+        serve(target, request, response);
+      }
+    });
+  }
+
+  /**
+   * Writes the token file and starts listening.
+   *
+   * @throws IOException if the token file cannot be written or the server
+   *    cannot be started.
+   */
+  public NoticeDaemon start() throws IOException {
+    writeToken();
+    try {
+      server.start();
+    } catch (Exception e) {
+      tokenFile.delete();
+      throw new IOException("Could not start the notice daemon", e);
+    }
+    System.out.println("Waiting for jobs at " + getBaseUrl() + "/generate, token in " + tokenFile);
+    return this;
+  }
+
+  /** Returns the token requests must carry in the TOKEN_HEADER header. */
+  public String getToken() {
+    return token;
+  }
+
+  /**
+   * Writes the token to a file only its owner can read, created that way
+   * and renamed into place.
+   */
+  private void writeToken() throws IOException {
+    File directory = tokenFile.getAbsoluteFile().getParentFile();
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create directory " + directory);
+    }
+    Path temporary = AuthTokenStore.createPrivateFile(directory.toPath(), tokenFile.getName());
+    try {
+      OutputStream out = Files.newOutputStream(temporary);
+      try {
+        out.write((token + "\n").getBytes("UTF-8"));
+      } finally {
+        out.close();
+      }
+      try {
+        Files.move(temporary, tokenFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (AtomicMoveNotSupportedException e) {
+        Files.move(temporary, tokenFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } finally {
+      Files.deleteIfExists(temporary);
+    }
+  }
+
+  /**
+   * Waits until the daemon is stopped through /stop or stop().
+   */
+  public void join() throws InterruptedException {
+    server.join();
+  }
+
+  /**
+   * Stops listening and removes the token file. A request being served is
+   * let finish.
+   */
+  public void stop() {
+    try {
+      server.stop();
+    } catch (Exception e) {
+      // nothing left to clean up
+    }
+    tokenFile.delete();
+  }
+
+  public String getBaseUrl() {
+    return "http://localhost:" + server.getConnectors()[0].getLocalPort();
+  }
+
+  /**
+   * Refuses a request that names a Host other than the loopback interface,
+   * carries an Origin header (only browsers send one) or lacks the token.
+   */
+  private boolean isAllowed(HttpServletRequest request) throws IOException {
+    if (request.getHeader("Origin") != null || !isLoopback(request.getHeader("Host"))) {
+      return false;
+    }
+    String sent = request.getHeader(TOKEN_HEADER);
+    return sent != null
+        && MessageDigest.isEqual(sent.trim().getBytes("UTF-8"), token.getBytes("UTF-8"));
+  }
+
+  /** Whether a Host header names the loopback interface, with any port. */
+  static boolean isLoopback(String host) {
+    if (host == null) {
+      return false;
+    }
+    String name = host.trim().toLowerCase();
+    if (name.startsWith("[")) {
+      int end = name.indexOf(']');
+      name = (end == -1) ? name : name.substring(1, end);
+    } else if (name.indexOf(':') != -1) {
+      name = name.substring(0, name.indexOf(':'));
+    }
+    return name.equals("localhost") || name.equals("127.0.0.1") || name.equals("::1");
+  }
+
+  private void serve(String target, HttpServletRequest request, HttpServletResponse response)
+      throws IOException {
+    if (!isAllowed(request)) {
+      response.sendError(HttpServletResponse.SC_FORBIDDEN);
+      return;
+    }
+    if ((target.equals("/generate") || target.equals("/stop"))
+        && !request.getMethod().equals("POST")) {
+      response.setHeader("Allow", "POST");
+      response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED);
+      return;
+    }
+    if (target.equals("/generate")) {
+      String jobs = request.getParameter("jobs");
+      if (jobs == null && request.getParameter("park") != null
+          && request.getParameter("worksheet") != null) {
+        jobs = request.getParameter("park") + ":" + request.getParameter("worksheet");
+      }
+      List<NoticeBatch.Job> parsed;
+      try {
+        parsed = NoticeBatch.parseJobs(jobs);
+      } catch (DocumentListException e) {
+        parsed = null;
+      }
+      if (parsed == null || parsed.isEmpty()) {
+        response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+            "Expected jobs=park:worksheet;... or park=...&worksheet=...");
+        return;
+      }
+      response.setContentType("text/plain; charset=UTF-8");
+      PrintStream out = new PrintStream(response.getOutputStream(), true, "UTF-8");
+      generate(parsed, out);
+      out.flush();
+    } else if (target.equals("/status")) {
+      response.setContentType("text/plain; charset=UTF-8");
+      PrintStream out = new PrintStream(response.getOutputStream(), true, "UTF-8");
+      out.println("up since " + new Date(started) + ", " + runs + " runs, last took "
+          + lastMillis + " ms");
+      out.flush();
+    } else if (target.equals("/stop")) {
+      response.setContentType("text/plain; charset=UTF-8");
+      response.getOutputStream().write("stopping\n".getBytes("UTF-8"));
+      response.flushBuffer();
+      new Thread("notice-daemon-stop") {
+        public void run() {
+          NoticeDaemon.this.stop();
+        }
+      }.start();
+    } else {
+      response.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+  }
+
+  private void generate(List<NoticeBatch.Job> jobs, PrintStream out) {
+    synchronized (generating) {
+      long start = System.currentTimeMillis();
+      run(jobs, out);
+      lastMillis = System.currentTimeMillis() - start;
+      runs++;
+    }
+  }
+
+  private void run(List<NoticeBatch.Job> jobs, PrintStream out) {
+    RunMetrics metrics = (metricsDirectory == null) ? null : RunMetrics.enable();
+    try {
+      demo.newBatch(Math.min(threads, jobs.size()), out).run(jobs);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      out.println("Interrupted");
+    }
+    for (NoticeBatch.Job job : jobs) {
+      if (job.getError() == null) {
+        out.println("OK\t" + new File(job.getOutputFile()).getAbsolutePath() + "\t"
+            + job.getElapsedMillis());
+      } else {
+        out.println("FAILED\t" + job + "\t" + job.getError());
+      }
+    }
+    if (metrics != null) {
+      metrics.print(out);
+      try {
+        metrics.writeJson(new File(metricsDirectory, "latenotice.json"));
+        metrics.writePrometheus(new File(metricsDirectory, "latenotice.prom"));
+      } catch (IOException e) {
+        out.println("Could not save the metrics: " + e.getMessage());
+      }
+    }
+  }
+}
@@ -0,0 +1,482 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import com.google.gdata.client.AuthTokenFactory.AuthToken;
+import com.google.gdata.client.Query;
+import com.google.gdata.client.Service.GDataRequest;
+import com.google.gdata.client.Service.GDataRequest.RequestType;
+import com.google.gdata.client.Service.GDataRequestFactory;
+import com.google.gdata.client.http.HttpAuthToken;
+import com.google.gdata.data.DateTime;
+import com.google.gdata.data.ParseSource;
+import com.google.gdata.util.AuthenticationException;
+import com.google.gdata.util.ContentType;
+import com.google.gdata.util.EntityTooLargeException;
+import com.google.gdata.util.InvalidEntryException;
+import com.google.gdata.util.NoLongerAvailableException;
+import com.google.gdata.util.NotAcceptableException;
+import com.google.gdata.util.NotImplementedException;
+import com.google.gdata.util.NotModifiedException;
+import com.google.gdata.util.ParseException;
+import com.google.gdata.util.PreconditionFailedException;
+import com.google.gdata.util.ResourceNotFoundException;
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceForbiddenException;
+import com.google.gdata.util.ServiceUnavailableException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * A GData transport on a pool of keep-alive connections, in place of the
+ * default transport, which opens a new HttpURLConnection (and TLS session)
+ * for most requests. Responses are requested gzip-compressed. The pool is
+ * thread-safe and shared by all requests of the services using it, so
+ * several worksheets can be fetched at once over the same connections.
+ *
+ * <p>Install it with DocumentList.setRequestFactory before logging in, and
+ * close it when done. Every request is timed, from sending it to the end of
+ * its response, and reported to the timing listener if one is set.
+ */
+public class PooledRequestFactory implements GDataRequestFactory {
+  /** Connections kept open to each host by default. */
+  public static final int DEFAULT_MAX_PER_HOST = 4;
+
+  /**
+   * Told about every request once its response has been read.
+   */
+  public interface TimingListener {
+    /**
+     * @param method HTTP method.
+     * @param url request URL.
+     * @param status HTTP status code, or 0 if no response was received.
+     * @param bytes response bytes read, after decompression.
+     * @param responseNanos time until the response headers arrived.
+     * @param totalNanos time until the response was read and the
+     *    connection returned to the pool.
+     */
+    void requestCompleted(String method, URL url, int status, long bytes, long responseNanos,
+        long totalNanos);
+  }
+
+  private final ThreadSafeClientConnManager connectionManager;
+  private final DefaultHttpClient client;
+  private final Map<String, String> headers = new ConcurrentHashMap<String, String>();
+  private final Map<String, String> privateHeaders = new ConcurrentHashMap<String, String>();
+  private volatile HttpAuthToken authToken;
+  private volatile TimingListener timingListener;
+
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong failures = new AtomicLong();
+  private final AtomicLong bytes = new AtomicLong();
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Constructor.
+   *
+   * @param maxPerHost connections kept open to each host.
+   */
+  public PooledRequestFactory(int maxPerHost) {
+    HttpParams params = new BasicHttpParams();
+    ConnManagerParams.setMaxTotalConnections(params, Math.max(maxPerHost * 2, 20));
+    ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxPerHost));
+    HttpConnectionParams.setStaleCheckingEnabled(params, true);
+    HttpConnectionParams.setTcpNoDelay(params, true);
+    HttpProtocolParams.setUseExpectContinue(params, false);
+
+    SchemeRegistry schemes = new SchemeRegistry();
+    schemes.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+    schemes.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+    connectionManager = new ThreadSafeClientConnManager(params, schemes);
+    client = new DefaultHttpClient(connectionManager, params);
+    headers.put("Accept-Encoding", "gzip");
+  }
+
+  /**
+   * Sets the listener told about every request, null for none.
+   */
+  public void setTimingListener(TimingListener listener) {
+    timingListener = listener;
+  }
+
+  public void setHeader(String header, String value) {
+    if (value == null) {
+      headers.remove(header);
+    } else {
+      headers.put(header, value);
+    }
+  }
+
+  public void setPrivateHeader(String header, String value) {
+    if (value == null) {
+      privateHeaders.remove(header);
+    } else {
+      privateHeaders.put(header, value);
+    }
+  }
+
+  public void setAuthToken(AuthToken token) {
+    if (token != null && !(token instanceof HttpAuthToken)) {
+      throw new IllegalArgumentException("Unsupported token type: " + token.getClass().getName());
+    }
+    authToken = (HttpAuthToken) token;
+  }
+
+  public GDataRequest getRequest(RequestType type, URL requestUrl, ContentType contentType)
+      throws IOException, ServiceException {
+    return new PooledRequest(type, requestUrl, contentType);
+  }
+
+  public GDataRequest getRequest(Query query, ContentType contentType)
+      throws IOException, ServiceException {
+    return getRequest(RequestType.QUERY, query.getUrl(), contentType);
+  }
+
+  /** Returns the number of requests sent so far. */
+  public long getRequestCount() {
+    return requests.get();
+  }
+
+  /**
+   * Prints the number of requests, their failures, mean and longest time
+   * and the bytes received.
+   */
+  public void printStatistics(PrintStream out) {
+    long n = requests.get();
+    out.println(String.format("%d feed requests, %d failed, %.1f ms mean, %.1f ms max, %d KB received",
+        n, failures.get(), (n == 0) ? 0.0 : totalNanos.get() / 1e6 / n, maxNanos.get() / 1e6,
+        bytes.get() / 1024));
+  }
+
+  /**
+   * Closes every pooled connection.
+   */
+  public void close() {
+    connectionManager.shutdown();
+  }
+
+  private void completed(String method, URL url, int status, long received, long responseNanos,
+      long nanos) {
+    requests.incrementAndGet();
+    if (status == 0 || status >= 300) {
+      failures.incrementAndGet();
+    }
+    bytes.addAndGet(received);
+    totalNanos.addAndGet(nanos);
+    long max;
+    while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+    }
+    TimingListener listener = timingListener;
+    if (listener != null) {
+      listener.requestCompleted(method, url, status, received, responseNanos, nanos);
+    }
+  }
+
+  /**
+   * One request. The body is buffered and sent by execute; the response is
+   * read through getResponseStream or getParseSource, and end() hands the
+   * connection back to the pool.
+   */
+  private class PooledRequest implements GDataRequest {
+    private final RequestType type;
+    private final URL requestUrl;
+    private final ContentType contentType;
+    private final HttpRequestBase request;
+    private ByteArrayOutputStream body;
+    private HttpResponse response;
+    private CountingInputStream responseStream;
+    private long start;
+    private long responseNanos;
+    private boolean ended;
+
+    PooledRequest(RequestType type, URL requestUrl, ContentType contentType) throws IOException {
+      this.type = type;
+      this.requestUrl = requestUrl;
+      this.contentType = contentType;
+      try {
+        switch (type) {
+          case QUERY:
+            request = new HttpGet(requestUrl.toURI());
+            break;
+          case INSERT:
+          case BATCH:
+            request = new HttpPost(requestUrl.toURI());
+            break;
+          case UPDATE:
+            request = new HttpPut(requestUrl.toURI());
+            break;
+          case PATCH:
+            request = new HttpPost(requestUrl.toURI());
+            request.setHeader("X-HTTP-Method-Override", "PATCH");
+            break;
+          case DELETE:
+            request = new HttpDelete(requestUrl.toURI());
+            break;
+          default:
+            throw new UnsupportedOperationException("Unknown request type: " + type);
+        }
+      } catch (URISyntaxException e) {
+        throw new IOException("Invalid request URL " + requestUrl, e);
+      }
+    }
+
+    public void setConnectTimeout(int timeout) {
+      HttpConnectionParams.setConnectionTimeout(request.getParams(), timeout);
+    }
+
+    public void setReadTimeout(int timeout) {
+      HttpConnectionParams.setSoTimeout(request.getParams(), timeout);
+    }
+
+    public void setEtag(String etag) {
+      if (etag != null) {
+        request.setHeader(type == RequestType.QUERY ? "If-None-Match" : "If-Match", etag);
+      }
+    }
+
+    public void setIfModifiedSince(DateTime conditionDate) {
+      if (conditionDate != null) {
+        request.setHeader("If-Modified-Since", conditionDate.toStringRfc822());
+      }
+    }
+
+    public void setHeader(String name, String value) {
+      request.setHeader(name, value);
+    }
+
+    public void setPrivateHeader(String name, String value) {
+      request.setHeader(name, value);
+    }
+
+    public URL getRequestUrl() {
+      return requestUrl;
+    }
+
+    public ContentType getRequestContentType() {
+      return contentType;
+    }
+
+    public OutputStream getRequestStream() throws IOException {
+      if (!(request instanceof HttpEntityEnclosingRequestBase)) {
+        throw new IllegalStateException("Request doesn't accept input");
+      }
+      if (body == null) {
+        body = new ByteArrayOutputStream(8192);
+      }
+      return body;
+    }
+
+    public void execute() throws IOException, ServiceException {
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        if (!request.containsHeader(header.getKey())) {
+          request.setHeader(header.getKey(), header.getValue());
+        }
+      }
+      for (Map.Entry<String, String> header : privateHeaders.entrySet()) {
+        request.setHeader(header.getKey(), header.getValue());
+      }
+      HttpAuthToken token = authToken;
+      if (token != null) {
+        request.setHeader("Authorization", token.getAuthorizationHeader(requestUrl, request.getMethod()));
+      }
+      if (request instanceof HttpEntityEnclosingRequestBase) {
+        ByteArrayEntity entity = new ByteArrayEntity((body == null) ? new byte[0] : body.toByteArray());
+        entity.setContentType(contentType.toString());
+        ((HttpEntityEnclosingRequestBase) request).setEntity(entity);
+      }
+
+      start = System.nanoTime();
+      try {
+        response = client.execute(request);
+      } catch (IOException e) {
+        request.abort();
+        ended = true;
+        completed(request.getMethod(), requestUrl, 0, 0, 0, System.nanoTime() - start);
+        throw e;
+      }
+      responseNanos = System.nanoTime() - start;
+
+      int status = response.getStatusLine().getStatusCode();
+      if (status >= 300) {
+        HttpEntity entity = response.getEntity();
+        String message = (entity == null) ? "" : EntityUtils.toString(entity, "UTF-8");
+        end();
+        throw error(status, response.getStatusLine().getReasonPhrase(), message);
+      }
+    }
+
+    public ContentType getResponseContentType() throws IOException, ServiceException {
+      String value = getResponseHeader("Content-Type");
+      return (value == null) ? null : new ContentType(value);
+    }
+
+    public InputStream getResponseStream() throws IOException {
+      if (response == null) {
+        throw new IllegalStateException("Must call execute() before reading the response");
+      }
+      if (responseStream == null) {
+        HttpEntity entity = response.getEntity();
+        if (entity == null) {
+          return null;
+        }
+        InputStream in = entity.getContent();
+        Header encoding = entity.getContentEncoding();
+        if (encoding != null && encoding.getValue().equalsIgnoreCase("gzip")) {
+          in = new GZIPInputStream(in, 8192);
+        }
+        responseStream = new CountingInputStream(in);
+      }
+      return responseStream;
+    }
+
+    public String getResponseHeader(String headerName) {
+      Header header = (response == null) ? null : response.getFirstHeader(headerName);
+      return (header == null) ? null : header.getValue();
+    }
+
+    public DateTime getResponseDateHeader(String headerName) {
+      String value = getResponseHeader(headerName);
+      if (value == null) {
+        return null;
+      }
+      try {
+        return DateTime.parseRfc822(value);
+      } catch (ParseException e) {
+        return null;
+      }
+    }
+
+    public ParseSource getParseSource() throws IOException, ServiceException {
+      return new ParseSource(getResponseStream());
+    }
+
+    /**
+     * Reads what is left of the response, so the connection can be reused,
+     * and records the request's timing.
+     */
+    public void end() {
+      if (ended || response == null) {
+        return;
+      }
+      ended = true;
+      long received = 0;
+      try {
+        if (responseStream != null) {
+          received = responseStream.getCount();
+          if (!responseStream.isClosed()) {
+            byte[] rest = new byte[8192];
+            while (responseStream.read(rest) != -1) {
+            }
+            responseStream.close();
+            received = responseStream.getCount();
+          }
+        } else if (response.getEntity() != null) {
+          response.getEntity().consumeContent();
+          received = Math.max(response.getEntity().getContentLength(), 0);
+        }
+      } catch (IOException e) {
+        // the pool drops a connection it could not drain
+        request.abort();
+      }
+      completed(request.getMethod(), requestUrl, response.getStatusLine().getStatusCode(), received,
+          responseNanos, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Maps an HTTP error to the exception the default transport throws for it.
+   */
+  private static ServiceException error(int status, String reason, String message) {
+    String text = status + " " + reason;
+    ServiceException e;
+    switch (status) {
+      case 304:
+        e = new NotModifiedException(text);
+        break;
+      case 400:
+        e = new InvalidEntryException(text);
+        break;
+      case 401:
+        e = new AuthenticationException(text);
+        break;
+      case 403:
+        e = new ServiceForbiddenException(text);
+        break;
+      case 404:
+        e = new ResourceNotFoundException(text);
+        break;
+      case 406:
+        e = new NotAcceptableException(text);
+        break;
+      case 410:
+        e = new NoLongerAvailableException(text);
+        break;
+      case 412:
+        e = new PreconditionFailedException(text);
+        break;
+      case 413:
+        e = new EntityTooLargeException(text);
+        break;
+      case 501:
+        e = new NotImplementedException(text);
+        break;
+      case 503:
+        e = new ServiceUnavailableException(text);
+        break;
+      default:
+        e = new ServiceException(text);
+    }
+    e.setHttpErrorCodeOverride(status);
+    e.setResponse(ContentType.TEXT_PLAIN, message);
+    return e;
+  }
+}
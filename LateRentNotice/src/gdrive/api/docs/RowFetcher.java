@@ -0,0 +1,266 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import com.google.gdata.util.ServiceException;
+import com.google.gdata.util.ServiceUnavailableException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fetches the rows of a worksheet in ranges of at most rowsPerFetch rows,
+ * up to concurrency ranges at a time, and returns the ranges in row order.
+ * Requests are spaced by a token bucket so a run stays under the API quota,
+ * and a range that fails with a network error or a 5xx response is fetched
+ * again after a jittered, exponentially growing delay, up to maxAttempts
+ * times. Errors that another attempt cannot fix, such as 404 or 401, fail
+ * the fetch right away.
+ *
+ * <p>With a concurrency of 1 the ranges are fetched on the calling thread
+ * and no thread pool is created. Otherwise the pool threads are daemon
+ * threads, shared by every fetch, and stopped by shutdown().
+ */
+public class RowFetcher {
+  public static final int DEFAULT_CONCURRENCY = 4;
+  public static final int DEFAULT_MAX_ATTEMPTS = 5;
+  private static final long FIRST_RETRY_MILLIS = 500;
+  private static final long MAX_RETRY_MILLIS = 30000;
+
+  /**
+   * Fetches one range of rows.
+   */
+  public interface RangeLoader<T> {
+    /**
+     * @param minrow first row, 1-based.
+     * @param maxrow last row, inclusive.
+     */
+    T load(int minrow, int maxrow) throws IOException, ServiceException;
+  }
+
+  private final int rowsPerFetch;
+  private final TokenBucket limiter;
+  private final ExecutorService pool;
+  private final Random jitter = new Random();
+  private final AtomicInteger retries = new AtomicInteger();
+  private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+  /**
+   * Constructor.
+   *
+   * @param concurrency ranges fetched at the same time.
+   * @param rowsPerFetch rows per request; 1 fetches row by row.
+   * @param requestsPerSecond request rate limit, 0 for none.
+   */
+  public RowFetcher(int concurrency, int rowsPerFetch, double requestsPerSecond) {
+    if (concurrency < 1 || rowsPerFetch < 1) {
+      throw new IllegalArgumentException("concurrency and rowsPerFetch must be at least 1");
+    }
+    this.rowsPerFetch = rowsPerFetch;
+    limiter = (requestsPerSecond > 0) ? new TokenBucket(requestsPerSecond, concurrency) : null;
+    pool = (concurrency == 1) ? null : Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+      private final AtomicInteger threads = new AtomicInteger();
+
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "row-fetcher-" + threads.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+  }
+
+  /**
+   * Sets how many times a range is tried before the fetch fails.
+   */
+  public void setMaxAttempts(int attempts) {
+    maxAttempts = Math.max(attempts, 1);
+  }
+
+  /** Returns the number of retried requests so far. */
+  public int getRetryCount() {
+    return retries.get();
+  }
+
+  /**
+   * Fetches rows minrow through maxrow.
+   *
+   * @return what loader returned for each range, in row order.
+   * @throws IOException if a range still fails with a network error after
+   *    the last attempt, or if interrupted.
+   * @throws ServiceException if a range fails with an error response.
+   */
+  public <T> List<T> fetch(int minrow, int maxrow, final RangeLoader<T> loader)
+      throws IOException, ServiceException {
+    List<T> ranges = new ArrayList<T>();
+    if (pool == null) {
+      for (int first = minrow; first <= maxrow; first += rowsPerFetch) {
+        ranges.add(load(loader, first, Math.min(first + rowsPerFetch - 1, maxrow)));
+      }
+      return ranges;
+    }
+
+    List<Future<T>> results = new ArrayList<Future<T>>();
+    for (int first = minrow; first <= maxrow; first += rowsPerFetch) {
+      final int from = first;
+      final int to = Math.min(first + rowsPerFetch - 1, maxrow);
+      results.add(pool.submit(new Callable<T>() {
+        public T call() throws Exception {
+          return load(loader, from, to);
+        }
+      }));
+    }
+    try {
+      for (Future<T> result : results) {
+        ranges.add(result.get());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while fetching rows " + minrow + "-" + maxrow, e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof ServiceException) {
+        throw (ServiceException) cause;
+      } else if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException("Could not fetch rows " + minrow + "-" + maxrow, cause);
+    } finally {
+      for (Future<T> result : results) {
+        result.cancel(true);
+      }
+    }
+    return ranges;
+  }
+
+  /**
+   * Stops the pool threads once the fetches already started are done.
+   */
+  public void shutdown() {
+    if (pool != null) {
+      pool.shutdown();
+    }
+  }
+
+  private <T> T load(RangeLoader<T> loader, int minrow, int maxrow)
+      throws IOException, ServiceException {
+    for (int attempt = 1;; attempt++) {
+      acquire();
+      try {
+        return loader.load(minrow, maxrow);
+      } catch (IOException e) {
+        if (attempt >= maxAttempts) {
+          throw e;
+        }
+        backoff(minrow, maxrow, attempt, e);
+      } catch (ServiceException e) {
+        if (attempt >= maxAttempts || !isRetryable(e)) {
+          throw e;
+        }
+        backoff(minrow, maxrow, attempt, e);
+      }
+    }
+  }
+
+  /**
+   * The default transport leaves the status code out and throws a plain
+   * ServiceException for 5xx; the client errors have their own subclasses.
+   */
+  private static boolean isRetryable(ServiceException e) {
+    int code = e.getHttpErrorCodeOverride();
+    if (code > 0) {
+      return code >= 500 || code == 429;
+    }
+    return e instanceof ServiceUnavailableException || e.getClass() == ServiceException.class;
+  }
+
+  private void acquire() throws IOException {
+    if (limiter == null) {
+      return;
+    }
+    try {
+      limiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to send a request", e);
+    }
+  }
+
+  private void backoff(int minrow, int maxrow, int attempt, Exception cause) throws IOException {
+    long delay = Math.min(FIRST_RETRY_MILLIS << (attempt - 1), MAX_RETRY_MILLIS);
+    synchronized (jitter) {
+      delay += jitter.nextInt((int) (delay / 2) + 1);
+    }
+    retries.incrementAndGet();
+    String message = String.valueOf(cause.getMessage());
+    if (message.indexOf('\n') != -1) {
+      // leave out the response body
+      message = message.substring(0, message.indexOf('\n'));
+    }
+    System.out.println("Retrying rows " + minrow + "-" + maxrow + " in " + delay + " ms after "
+        + cause.getClass().getSimpleName() + ": " + message);
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting to retry rows " + minrow + "-" + maxrow, e);
+    }
+  }
+
+  /**
+   * Hands out one permit per request at a fixed rate, allowing bursts of
+   * up to capacity requests after an idle period. A caller takes its permit
+   * at once and then sleeps until the permit is due, so callers are served
+   * in the order they asked.
+   */
+  static class TokenBucket {
+    private final double nanosPerToken;
+    private final double capacity;
+    private double tokens;
+    private long refilled = System.nanoTime();
+
+    TokenBucket(double tokensPerSecond, int capacity) {
+      nanosPerToken = 1e9 / tokensPerSecond;
+      this.capacity = capacity;
+      tokens = capacity;
+    }
+
+    void acquire() throws InterruptedException {
+      long wait;
+      synchronized (this) {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilled) / nanosPerToken);
+        refilled = now;
+        tokens -= 1;
+        wait = (tokens >= 0) ? 0 : (long) (-tokens * nanosPerToken);
+      }
+      if (wait > 0) {
+        Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+      }
+    }
+  }
+}
@@ -0,0 +1,152 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import mobilehome.info.MobileHomeInfo;
+
+/**
+ * On-disk cache of the lots parsed from Rent Roll worksheets. Every entry
+ * records the worksheet's ETag and updated timestamp as returned in the
+ * worksheet feed; a cached entry is only used while both still match, so an
+ * unchanged worksheet is served without any cell-feed request.
+ *
+ * <p>Entries are kept as small tab separated text files, one per worksheet,
+ * under the cache directory (resources/cache by default).
+ */
+public class WorksheetCache {
+  public static final String DEFAULT_DIRECTORY = "resources/cache";
+
+  private static final String HEADER = "#worksheet-cache\t2";
+
+  private final File directory;
+
+  /**
+   * Constructor.
+   *
+   * @param directory directory holding the cache files, created on first write.
+   */
+  public WorksheetCache(File directory) {
+    this.directory = directory;
+  }
+
+  /**
+   * Returns the cached lots of a worksheet if the cache was written for the
+   * same ETag and updated timestamp, null otherwise.
+   *
+   * @param key identifies the worksheet and the rows read from it.
+   * @param etag the worksheet's current ETag, may be null.
+   * @param updated the worksheet's current updated timestamp, may be null.
+   */
+  public List<MobileHomeInfo> get(String key, String etag, String updated) {
+    File file = fileFor(key);
+    if (!file.isFile()) {
+      return null;
+    }
+    try {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(new FileInputStream(file), "UTF-8"));
+      try {
+        if (!HEADER.equals(reader.readLine())
+            || !key.equals(reader.readLine())
+            || !String.valueOf(etag).equals(reader.readLine())
+            || !String.valueOf(updated).equals(reader.readLine())) {
+          return null;
+        }
+        List<MobileHomeInfo> mobilehomeinfo = new ArrayList<MobileHomeInfo>();
+        String line;
+        while ((line = reader.readLine()) != null) {
+          mobilehomeinfo.add(parseLot(line));
+        }
+        return mobilehomeinfo;
+      } finally {
+        reader.close();
+      }
+    } catch (IOException e) {
+      return null;
+    } catch (RuntimeException e) {
+      // A damaged cache file is treated as a miss and rewritten on the next put.
+      return null;
+    }
+  }
+
+  /**
+   * Stores the lots read from a worksheet.
+   *
+   * @param key identifies the worksheet and the rows read from it.
+   * @param etag the worksheet's ETag, may be null.
+   * @param updated the worksheet's updated timestamp, may be null.
+   * @param mobilehomeinfo the lots to store.
+   *
+   * @throws IOException if the cache file cannot be written.
+   */
+  public void put(String key, String etag, String updated, List<MobileHomeInfo> mobilehomeinfo)
+      throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Could not create cache directory " + directory);
+    }
+    File file = fileFor(key);
+    File temp = new File(directory, file.getName() + ".tmp");
+    Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), "UTF-8"));
+    try {
+      writer.write(HEADER + "\n");
+      writer.write(key + "\n");
+      writer.write(etag + "\n");
+      writer.write(updated + "\n");
+      for (MobileHomeInfo mh : mobilehomeinfo) {
+        writer.write(formatLot(mh));
+        writer.write('\n');
+      }
+    } finally {
+      writer.close();
+    }
+    if (file.exists() && !file.delete() || !temp.renameTo(file)) {
+      throw new IOException("Could not replace cache file " + file);
+    }
+  }
+
+  private File fileFor(String key) {
+    return new File(directory, Integer.toHexString(key.hashCode()) + ".tsv");
+  }
+
+  /** Amounts are stored in cents. */
+  private static String formatLot(MobileHomeInfo mh) {
+    return mh.getLotNumber() + "\t" + mh.getExpectedMonthlyRent() + "\t" + mh.getPreviousBalance()
+        + "\t" + mh.getLateFee() + "\t" + mh.getCredit() + "\t" + mh.getReceivedBefore5th();
+  }
+
+  private static MobileHomeInfo parseLot(String line) {
+    String[] values = line.split("\t");
+    return new MobileHomeInfo(Long.parseLong(values[1]),
+                              Long.parseLong(values[2]),
+                              Long.parseLong(values[3]),
+                              Long.parseLong(values[4]),
+                              Integer.parseInt(values[0]),
+                              Long.parseLong(values[5]));
+  }
+}
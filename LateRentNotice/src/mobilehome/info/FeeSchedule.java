@@ -0,0 +1,246 @@
+package mobilehome.info;
+
+import java.util.Arrays;
+
+/**
+ * The late fee policy of a park compiled into a day-of-month table: FeeByDay[d]
+ * is the late fee in cents owed by a lot that still has an unpaid balance
+ * on day d of the month. The rules (grace day, tiered fees, daily accrual
+ * and a cap) are only looked at when the table is compiled, so the amount
+ * due on any day is one array load and one add, and whole rolls are
+ * evaluated in a single loop over their balances.
+ */
+public final class FeeSchedule {
+	public final static int DAYS = 31;
+
+	/**
+	 * $50 from the 6th and $100 in all from the 11th, with 5 days to pay
+	 * after a notice.
+	 */
+	public final static FeeSchedule STANDARD = new Rules(5)
+			.tier(6, Money.ofDollars(50))
+			.tier(11, Money.ofDollars(100))
+			.noticeDays(5)
+			.compile();
+
+	private final int GraceDay;
+	private final int NoticeDays;
+	private final int SecondTierDay;
+	private final long[] FeeByDay;
+
+	private FeeSchedule(int graceday, int noticedays, int secondtierday, long[] feebyday){
+		GraceDay = graceday;
+		NoticeDays = noticedays;
+		SecondTierDay = secondtierday;
+		FeeByDay = feebyday;
+	}
+
+	/**
+	 * Returns the schedule of MobileHomeInfo.CT or MobileHomeInfo.MESA; both
+	 * parks are on the STANDARD schedule.
+	 */
+	public static FeeSchedule forPark(int mobilepark){
+		return STANDARD;
+	}
+
+	/**
+	 * The rules of a schedule, compiled by compile(). Days are days of the
+	 * month, 1 to 31.
+	 */
+	public final static class Rules {
+		private final int GraceDay;
+		private int NoticeDays;
+		private final long[] TierFee = new long[DAYS + 1];
+		private final boolean[] HasTier = new boolean[DAYS + 1];
+		private int AccrualFrom = DAYS + 1;
+		private long DailyAccrual;
+		private long Cap = Long.MAX_VALUE;
+
+		/**
+		 * @param graceday the last day rent can be paid without a late fee
+		 */
+		public Rules(int graceday){
+			GraceDay = checkDay(graceday, 0);
+		}
+
+		/**
+		 * Charges a flat fee of cents in all from day on, replacing the fee
+		 * of any earlier tier.
+		 */
+		public Rules tier(int day, long cents){
+			checkDay(day, GraceDay + 1);
+			TierFee[day] = cents;
+			HasTier[day] = true;
+			return this;
+		}
+
+		/**
+		 * Adds cents for every day from day on, including day, on top of the
+		 * tier fee.
+		 */
+		public Rules accrue(int day, long cents){
+			AccrualFrom = checkDay(day, GraceDay + 1);
+			DailyAccrual = cents;
+			return this;
+		}
+
+		/**
+		 * Limits the late fee of a month to cents.
+		 */
+		public Rules cap(long cents){
+			Cap = cents;
+			return this;
+		}
+
+		/**
+		 * Sets the days a notice gives to pay before its deadline.
+		 */
+		public Rules noticeDays(int days){
+			NoticeDays = days;
+			return this;
+		}
+
+		public FeeSchedule compile(){
+			long[] feebyday = new long[DAYS + 1];
+			long tier = 0;
+			//the day of the second tier, or of the only one, or the first late day
+			int secondtierday = GraceDay + 1;
+			int tiers = 0;
+			for(int day = GraceDay + 1; day <= DAYS; day++){
+				if(HasTier[day]){
+					tier = TierFee[day];
+					if(tiers++ < 2){
+						secondtierday = day;
+					}
+				}
+				long fee = tier;
+				if(day >= AccrualFrom){
+					fee += DailyAccrual * (day - AccrualFrom + 1);
+				}
+				feebyday[day] = Math.min(fee, Cap);
+			}
+			return new FeeSchedule(GraceDay, NoticeDays, secondtierday, feebyday);
+		}
+
+		private static int checkDay(int day, int min){
+			if(day < min || day > DAYS){
+				throw new IllegalArgumentException("Day " + day + " is not between " + min + " and " + DAYS);
+			}
+			return day;
+		}
+	}
+
+	/**
+	 * Returns the last day rent can be paid without a late fee.
+	 */
+	public int graceDay(){
+		return GraceDay;
+	}
+
+	/**
+	 * Returns the first day a late fee is charged, the day notices quote
+	 * the unpaid balance for.
+	 */
+	public int firstLateDay(){
+		return GraceDay + 1;
+	}
+
+	/**
+	 * Returns the days a notice gives to pay before its deadline.
+	 */
+	public int noticeDays(){
+		return NoticeDays;
+	}
+
+	/**
+	 * Returns the day a notice's deadline falls on if it is issued on
+	 * firstLateDay(), noticeDays() later.
+	 */
+	public int deadlineDay(){
+		return Math.min(GraceDay + 1 + NoticeDays, DAYS);
+	}
+
+	/**
+	 * Returns the first day of the second fee tier, the day notices quote
+	 * the amount due after the 10th for. Schedules with a single tier give
+	 * its day, and schedules without tiers firstLateDay().
+	 */
+	public int secondTierDay(){
+		return SecondTierDay;
+	}
+
+	/**
+	 * Returns the late fee in cents owed on a day of the month by a lot with
+	 * an unpaid balance.
+	 */
+	public long feeOn(int day){
+		return FeeByDay[day];
+	}
+
+	/**
+	 * Returns a hash of the compiled table, which changes with any rule that
+	 * changes an amount due.
+	 */
+	public long fingerprint(){
+		long hash = (GraceDay * 31 + NoticeDays) * 31 + SecondTierDay;
+		for(int day = 1; day <= DAYS; day++){
+			hash = hash * 1000003 + FeeByDay[day];
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns the amount due in cents on a day of the month by a lot that
+	 * owes totaldue and paid received before the 5th. Lots that owe nothing
+	 * are not charged a fee.
+	 */
+	public long amountDueOn(long totaldue, long received, int day){
+		long balance = totaldue - received;
+		return (balance > 0) ? balance + FeeByDay[day] : balance;
+	}
+
+	/**
+	 * Writes the amount due in cents on a day of the month by every lot of a
+	 * roll to out, in roll order.
+	 */
+	public void amountsDueOn(RentRoll roll, int day, long[] out){
+		int size = roll.unpaidBalances(out);
+		long fee = FeeByDay[day];
+		for(int i = 0; i < size; i++){
+			long balance = out[i];
+			out[i] = (balance > 0) ? balance + fee : balance;
+		}
+	}
+
+	/**
+	 * Returns the amount due in cents by every lot of a roll on every day of
+	 * the month, for payment plan quotes: the amount due by lot i on day d
+	 * is at [i * DAYS + d - 1].
+	 */
+	public long[] quote(RentRoll roll){
+		long[] quote = new long[roll.size() * DAYS];
+		quote(roll, quote);
+		return quote;
+	}
+
+	/**
+	 * Writes the amounts of quote(roll) to out, which holds at least
+	 * roll.size() * DAYS values, so repeated quotes allocate nothing.
+	 */
+	public void quote(RentRoll roll, long[] out){
+		int size = roll.unpaidBalances(out);
+		//the balances sit in out[0, size); rows are filled last to first, so
+		//row i only overwrites balances at or after i, which are done with
+		for(int i = size - 1; i >= 0; i--){
+			long balance = out[i];
+			int row = i * DAYS - 1;
+			if(balance > 0){
+				for(int day = DAYS; day >= 1; day--){
+					out[row + day] = balance + FeeByDay[day];
+				}
+			}else{
+				Arrays.fill(out, row + 1, row + 1 + DAYS, balance);
+			}
+		}
+	}
+}
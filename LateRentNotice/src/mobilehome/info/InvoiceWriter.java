@@ -0,0 +1,330 @@
+package mobilehome.info;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import jxl.CellType;
+import jxl.Workbook;
+import jxl.WorkbookSettings;
+import jxl.read.biff.BiffException;
+import jxl.write.Formula;
+import jxl.write.Label;
+import jxl.write.WritableCell;
+import jxl.write.WritableSheet;
+import jxl.write.WritableWorkbook;
+import jxl.write.WriteException;
+
+/**
+ * Fills a park's rent invoice workbook for every lot of a worksheet, at the
+ * cells named in RentInvoiceTemplate, and writes one .xls per lot. The
+ * template file is read once per park, and each pool thread parses it once
+ * and copies its parsed workbook for every lot it fills: jxl shares the
+ * template's formatting records with each copy and renumbers them while
+ * writing, so a parsed template must not be copied by two threads at once.
+ * The lots are filled concurrently on a bounded pool, shared by all
+ * worksheets of a run, and written through file channels.
+ */
+public class InvoiceWriter {
+	public final static String CT_TEMPLATE = "resources/temp/invoice.xls";
+	public final static String MESA_TEMPLATE = "resources/temp/Mesa_Rent_Invoice.xls";
+	public final static String DEFAULT_DIRECTORY = "resources/invoices";
+
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final ExecutorService Pool;
+	private final Map<Integer, File> TemplateFiles = new HashMap<Integer, File>();
+	/** Template file contents by park, read on first use. */
+	private final Map<Integer, byte[]> Templates = new HashMap<Integer, byte[]>();
+	/** Each pool thread's parsed templates by park. */
+	private final ThreadLocal<Map<Integer, Workbook>> Parsed = new ThreadLocal<Map<Integer, Workbook>>(){
+		protected Map<Integer, Workbook> initialValue(){
+			return new HashMap<Integer, Workbook>();
+		}
+	};
+
+	/**
+	 * Uses CT_TEMPLATE and MESA_TEMPLATE.
+	 *
+	 * @param threads maximum number of invoices filled at the same time
+	 */
+	public InvoiceWriter(int threads){
+		Pool = Executors.newFixedThreadPool(threads);
+		TemplateFiles.put(MobileHomeInfo.CT, new File(CT_TEMPLATE));
+		TemplateFiles.put(MobileHomeInfo.MESA, new File(MESA_TEMPLATE));
+	}
+
+	/**
+	 * Uses the first sheet of the given workbook as the park's invoice.
+	 */
+	public synchronized void setTemplate(int mobilepark, File template){
+		TemplateFiles.put(mobilepark, template);
+		Templates.remove(mobilepark);
+	}
+
+	/**
+	 * Returns the directory the invoices of a worksheet go to, e.g.
+	 * resources/invoices/CT_May_2014/.
+	 */
+	public static File directoryFor(int mobilepark, String worksheetname){
+		return new File(DEFAULT_DIRECTORY, ((mobilepark == MobileHomeInfo.CT) ? "CT" : "Mesa") + "_"
+				+ worksheetname.replace(' ', '_'));
+	}
+
+	/**
+	 * Writes an invoice for every lot of a worksheet to directory, as
+	 * Lot&lt;n&gt;.xls. Rows without a lot number are skipped.
+	 *
+	 * @param worksheetname the month billed, e.g. "May 2014"
+	 * @param issued the invoice date
+	 * @return the files written, in lot order
+	 */
+	public List<File> write(List<MobileHomeInfo> mobilehomeinfo, final int mobilepark, String worksheetname,
+			final Date issued, File directory) throws IOException{
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Could not create directory " + directory);
+		}
+		final byte[] template = template(mobilepark);
+		final Date billed = monthOf(worksheetname, issued);
+		List<Future<File>> results = new ArrayList<Future<File>>();
+		for(final MobileHomeInfo mh : mobilehomeinfo){
+			if(mh.getLotNumber() == 0){
+				continue;
+			}
+			final File file = new File(directory, "Lot" + mh.getLotNumber() + ".xls");
+			results.add(Pool.submit(new Callable<File>() {
+				public File call() throws Exception {
+					writeLot(mh, mobilepark, template, billed, issued, file);
+					return file;
+				}
+			}));
+		}
+
+		List<File> files = new ArrayList<File>(results.size());
+		try{
+			for(Future<File> result : results){
+				files.add(result.get());
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing invoices to " + directory, e);
+		}catch(ExecutionException e){
+			throw new IOException("Could not write invoices to " + directory, e.getCause());
+		}
+		return files;
+	}
+
+	/**
+	 * Stops the pool once the invoices already submitted are written.
+	 */
+	public void shutdown(){
+		Pool.shutdown();
+	}
+
+	private synchronized byte[] template(int mobilepark) throws IOException{
+		byte[] template = Templates.get(mobilepark);
+		if(template == null){
+			File file = TemplateFiles.get(mobilepark);
+			if(file == null){
+				throw new IOException("No invoice template for park " + mobilepark);
+			}
+			template = firstSheet(Files.readAllBytes(file.toPath()));
+			Templates.put(mobilepark, template);
+		}
+		return template;
+	}
+
+	/**
+	 * jxl's defaults suit one large workbook: it calls System.gc() when a
+	 * workbook is closed and starts every file it writes with a 5MB buffer.
+	 */
+	private static WorkbookSettings settings(byte[] template){
+		WorkbookSettings settings = new WorkbookSettings();
+		settings.setGCDisabled(true);
+		settings.setInitialFileSize(template.length + BUFFER_SIZE);
+		settings.setArrayGrowSize(BUFFER_SIZE);
+		return settings;
+	}
+
+	/**
+	 * Drops every sheet but the first, e.g. the invoices of the other lots
+	 * in a workbook filled by hand, so they are not copied for every lot.
+	 */
+	private static byte[] firstSheet(byte[] template) throws IOException{
+		try{
+			Workbook workbook = Workbook.getWorkbook(new ByteArrayInputStream(template), settings(template));
+			try{
+				if(workbook.getNumberOfSheets() == 1){
+					return template;
+				}
+				ByteArrayOutputStream out = new ByteArrayOutputStream(template.length);
+				WritableWorkbook copy = Workbook.createWorkbook(out, workbook, settings(template));
+				while(copy.getNumberOfSheets() > 1){
+					copy.removeSheet(copy.getNumberOfSheets() - 1);
+				}
+				copy.write();
+				copy.close();
+				return out.toByteArray();
+			}finally{
+				workbook.close();
+			}
+		}catch(BiffException e){
+			throw new IOException("Could not read the invoice template: " + e.getMessage(), e);
+		}catch(WriteException e){
+			throw new IOException("Could not read the invoice template: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Returns the month billed by a worksheet named like "May 2014", or
+	 * issued if the name is not a month.
+	 */
+	private static Date monthOf(String worksheetname, Date issued){
+		try{
+			return new SimpleDateFormat("MMMM yyyy", Locale.US).parse(worksheetname.trim());
+		}catch(ParseException e){
+			return issued;
+		}
+	}
+
+	private void writeLot(MobileHomeInfo mh, int mobilepark, byte[] template, Date billed, Date issued, File file)
+			throws IOException, BiffException, WriteException{
+		RunMetrics.Span render = RunMetrics.start(RunMetrics.RENDER);
+		Map<Integer, Workbook> parsed = Parsed.get();
+		Workbook workbook = parsed.get(mobilepark);
+		if(workbook == null){
+			workbook = Workbook.getWorkbook(new ByteArrayInputStream(template), settings(template));
+			parsed.put(mobilepark, workbook);
+		}
+
+		RunMetrics.Span write = RunMetrics.start(RunMetrics.WRITE);
+		write.pause();
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+		try{
+			WritableWorkbook invoice = Workbook.createWorkbook(out, workbook, settings(template));
+			WritableSheet sheet = invoice.getSheet(0);
+			sheet.setName("Lot " + mh.getLotNumber());
+			fill(sheet, mh, mobilepark, billed, issued);
+			render.stop();
+			write.resume();
+			invoice.write();
+			invoice.close();
+			write.stop(file.length());
+		}finally{
+			out.close();
+			render.fail();
+			write.fail();
+		}
+	}
+
+	private static void fill(WritableSheet sheet, MobileHomeInfo mh, int mobilepark, Date billed, Date issued)
+			throws WriteException{
+		int lot = mh.getLotNumber();
+		String month = new SimpleDateFormat("MMMM", Locale.US).format(billed);
+		String MONTH = month.toUpperCase(Locale.US);
+		setLabel(sheet, RentInvoiceTemplate.INVOICE_NO_COL, RentInvoiceTemplate.INVOICE_NO_ROW,
+				new SimpleDateFormat("yyyyMMdd").format(issued) + String.format("%04d", lot));
+		setLabel(sheet, RentInvoiceTemplate.INVOICE_DATE_COL, RentInvoiceTemplate.INVOICE_DATE_ROW,
+				new SimpleDateFormat("MMMM d, yyyy", Locale.US).format(issued));
+		if(mobilepark == MobileHomeInfo.CT){
+			setLabel(sheet, RentInvoiceTemplate.INVOICE_CUST_ID_COL, RentInvoiceTemplate.INVOICE_CUST_ID_ROW, "CT LOT# " + lot);
+			setLabel(sheet, RentInvoiceTemplate.INVOICE_TO_COL, RentInvoiceTemplate.INVOICE_TO_ROW, "Lot# " + lot + " Cross Timbers");
+		}else{
+			setLabel(sheet, RentInvoiceTemplate.INVOICE_CUST_ID_COL, RentInvoiceTemplate.INVOICE_CUST_ID_ROW, "Mesa Lot " + lot);
+			setLabel(sheet, RentInvoiceTemplate.INVOICE_TO_COL, RentInvoiceTemplate.INVOICE_TO_ROW, "Lot #" + lot + " Mesa");
+		}
+
+		setAmount(sheet, RentInvoiceTemplate.INVOICE_PREVIOUS_AMOUNT_DUE_COL, RentInvoiceTemplate.INVOICE_PREVIOUS_AMOUNT_DUE_ROW,
+				mh.getPreviousBalance());
+		setAmount(sheet, RentInvoiceTemplate.INVOICE_PREVIOUS_LATE_FEE_COL, RentInvoiceTemplate.INVOICE_PREVIOUS_LATE_FEE_ROW,
+				mh.getLateFee());
+		setAmount(sheet, RentInvoiceTemplate.INVOICE_CREDIT_COL, RentInvoiceTemplate.INVOICE_CREDIT_ROW, mh.getCredit());
+		setLabel(sheet, RentInvoiceTemplate.INVOICE_RENT_LABEL_COL, RentInvoiceTemplate.INVOICE_RENT_LABEL_ROW,
+				new SimpleDateFormat("MMMM yyyy", Locale.US).format(billed) + " Rent");
+		setAmount(sheet, RentInvoiceTemplate.INVOICE_RENT_COL, RentInvoiceTemplate.INVOICE_RENT_ROW,
+				mh.getExpectedMonthlyRent());
+
+		setLabel(sheet, RentInvoiceTemplate.INVOICE_DUE_BEFORE_MONTH_5TH_COL, RentInvoiceTemplate.INVOICE_DUE_BEFORE_MONTH_5TH_ROW,
+				"DUE BEFORE " + MONTH + " 5th");
+		setLabel(sheet, RentInvoiceTemplate.INVOICE_5TH_LATE_FEE_COL, RentInvoiceTemplate.INVOICE_5TH_LATE_FEE_ROW,
+				"Late Fee After " + month + " 5th 2:00PM");
+		setLabel(sheet, RentInvoiceTemplate.INVOICE_DUE_AFTER_MONTH_5TH_COL, RentInvoiceTemplate.INVOICE_DUE_AFTER_MONTH_5TH_ROW,
+				"DUE AFTER " + MONTH + " 5th");
+		setLabel(sheet, RentInvoiceTemplate.INVOICE_10TH_LATE_FEE_COL, RentInvoiceTemplate.INVOICE_10TH_LATE_FEE_ROW,
+				"Late Fee After " + month + " 10th 2:00PM");
+		setLabel(sheet, RentInvoiceTemplate.INVOICE_DUE_AFTER_MONTH_10TH_COL, RentInvoiceTemplate.INVOICE_DUE_AFTER_MONTH_10TH_ROW,
+				"DUE AFTER " + MONTH + " 10th");
+
+		//the park's schedule charges fees in all; the invoice lists each step
+		FeeSchedule fees = FeeSchedule.forPark(mobilepark);
+		long after5th = fees.feeOn(fees.firstLateDay());
+		long after10th = fees.feeOn(fees.secondTierDay()) - after5th;
+		setAmount(sheet, RentInvoiceTemplate.INVOICE_5TH_LATE_FEE_AMOUNT_COL, RentInvoiceTemplate.INVOICE_5TH_LATE_FEE_AMOUNT_ROW,
+				after5th);
+		setAmount(sheet, RentInvoiceTemplate.INVOICE_5TH_LATE_FEE_TOTAL_COL, RentInvoiceTemplate.INVOICE_5TH_LATE_FEE_TOTAL_ROW,
+				after5th);
+		setAmount(sheet, RentInvoiceTemplate.INVOICE_10TH_LATE_FEE_AMOUNT_COL, RentInvoiceTemplate.INVOICE_10TH_LATE_FEE_AMOUNT_ROW,
+				after10th);
+		setAmount(sheet, RentInvoiceTemplate.INVOICE_10TH_LATE_FEE_TOTAL_COL, RentInvoiceTemplate.INVOICE_10TH_LATE_FEE_TOTAL_ROW,
+				after10th);
+		//the templates add the 5th's fee line again here instead of the 10th's
+		setFormula(sheet, RentInvoiceTemplate.INVOICE_TOTAL_AFTER_MONTH_10TH_COL,
+				RentInvoiceTemplate.INVOICE_TOTAL_AFTER_MONTH_10TH_ROW, "SUM(G21,G23)");
+	}
+
+	/** Replaces a cell's contents with text, keeping its format. */
+	private static void setLabel(WritableSheet sheet, int col, int row, String text) throws WriteException{
+		WritableCell cell = sheet.getWritableCell(col, row);
+		if(cell.getType() == CellType.LABEL){
+			((Label) cell).setString(text);
+		}else if(cell.getCellFormat() == null){
+			sheet.addCell(new Label(col, row, text));
+		}else{
+			sheet.addCell(new Label(col, row, text, cell.getCellFormat()));
+		}
+	}
+
+	/** Replaces a cell's contents with a formula, keeping its format. */
+	private static void setFormula(WritableSheet sheet, int col, int row, String formula) throws WriteException{
+		WritableCell cell = sheet.getWritableCell(col, row);
+		if(cell.getCellFormat() == null){
+			sheet.addCell(new Formula(col, row, formula));
+		}else{
+			sheet.addCell(new Formula(col, row, formula, cell.getCellFormat()));
+		}
+	}
+
+	/** Replaces a cell's contents with an amount in dollars, keeping its format. */
+	private static void setAmount(WritableSheet sheet, int col, int row, long cents) throws WriteException{
+		WritableCell cell = sheet.getWritableCell(col, row);
+		if(cell.getType() == CellType.NUMBER){
+			((jxl.write.Number) cell).setValue(cents / 100.0);
+		}else if(cell.getCellFormat() == null){
+			sheet.addCell(new jxl.write.Number(col, row, cents / 100.0));
+		}else{
+			sheet.addCell(new jxl.write.Number(col, row, cents / 100.0, cell.getCellFormat()));
+		}
+	}
+}
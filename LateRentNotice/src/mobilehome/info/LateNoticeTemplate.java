@@ -0,0 +1,219 @@
+package mobilehome.info;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The late notice of one park, rendered once per run. The park header,
+ * both dates and the boilerplate paragraphs are turned into WordprocessingML
+ * up front; rendering a lot only stamps its lot number, balance and amount
+ * due after the 10th between the precompiled pieces. Both amounts and the
+ * deadline come from the park's FeeSchedule.
+ */
+public class LateNoticeTemplate {
+	private final static String LOT = "{lot}";
+	private final static String BALANCE = "{balance}";
+	private final static String AMOUNT_AFTER_10TH = "{amountafter10th}";
+	private final static String CITY_ZIP = "Palestine, Texas 75801";
+	private final static String MGR_CONTACT = "Park Manager Phone: (903)600­0647";
+
+	private final String BeforeLot;
+	private final String BeforeBalance;
+	private final String BeforeAmountAfter10th;
+	private final String AfterAmountAfter10th;
+	private final List<Paragraph> Paragraphs;
+	private final FeeSchedule Fees;
+
+	/**
+	 * Compiles the notice for a park.
+	 *
+	 * @param park name of the park
+	 * @param address street address of the park
+	 * @param citystatezip city, state and zip of the park
+	 * @param mgrcontact park manager contact line
+	 * @param email park email address
+	 * @param now the date the notices are issued on
+	 */
+	public LateNoticeTemplate(String park, String address, String citystatezip, String mgrcontact,
+			String email, Date now){
+		this(park, address, citystatezip, mgrcontact, email, now, FeeSchedule.STANDARD);
+	}
+
+	/**
+	 * Compiles the notice for a park charging late fees by fees.
+	 */
+	public LateNoticeTemplate(String park, String address, String citystatezip, String mgrcontact,
+			String email, Date now, FeeSchedule fees){
+		Fees = fees;
+		Paragraphs = paragraphs(park, address, citystatezip, mgrcontact, email, now, fees.noticeDays());
+		StringBuilder xml = new StringBuilder(8192);
+		for(Paragraph paragraph : Paragraphs){
+			StreamingNoticeWriter.appendParagraph(xml, paragraph.Text, paragraph.Alignment, paragraph.PageBreak,
+					paragraph.FontFamily, paragraph.Bold);
+		}
+		String notice = xml.toString();
+		int lot = notice.indexOf(LOT);
+		int balance = notice.indexOf(BALANCE);
+		int amountafter10th = notice.indexOf(AMOUNT_AFTER_10TH);
+		BeforeLot = notice.substring(0, lot);
+		BeforeBalance = notice.substring(lot + LOT.length(), balance);
+		BeforeAmountAfter10th = notice.substring(balance + BALANCE.length(), amountafter10th);
+		AfterAmountAfter10th = notice.substring(amountafter10th + AMOUNT_AFTER_10TH.length());
+	}
+
+	/**
+	 * Compiles the notice for MobileHomeInfo.CT or MobileHomeInfo.MESA.
+	 */
+	public static LateNoticeTemplate forPark(int mobilepark, Date now){
+		FeeSchedule fees = FeeSchedule.forPark(mobilepark);
+		if(mobilepark == MobileHomeInfo.CT){
+			return new LateNoticeTemplate("Cross Timbers Mobile Home Park", "4507 West Oak Street",
+					CITY_ZIP, MGR_CONTACT, "crosstimbersmhp@yahoo.com", now, fees);
+		}
+		return new LateNoticeTemplate("Mesa Mobile Home Park", "1118 North Fort Street",
+				CITY_ZIP, MGR_CONTACT, "mesamhp@yahoo.com", now, fees);
+	}
+
+	/**
+	 * Appends the notice of a lot to xml if the lot owes more than it paid
+	 * before the 5th.
+	 *
+	 * @return true if a notice was appended
+	 */
+	public boolean render(MobileHomeInfo mh, StringBuilder xml){
+		if(mh.IsDelinquent()){
+			xml.append(BeforeLot).append(mh.getLotNumber()).append(BeforeBalance);
+			Money.append(xml, mh.AmountAfter5th(Fees)).append(BeforeAmountAfter10th);
+			Money.append(xml, mh.AmountAfter10th(Fees)).append(AfterAmountAfter10th);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the paragraphs of the notice of a lot as plain text, e.g. for
+	 * writing it in another format than WordprocessingML. Alignment, page
+	 * break and font of each paragraph are the same as in the .docx notice.
+	 */
+	List<Paragraph> paragraphs(MobileHomeInfo mh){
+		String lot = String.valueOf(mh.getLotNumber());
+		String balance = Money.format(mh.AmountAfter5th(Fees));
+		String amountafter10th = Money.format(mh.AmountAfter10th(Fees));
+		List<Paragraph> paragraphs = new ArrayList<Paragraph>(Paragraphs.size());
+		for(Paragraph paragraph : Paragraphs){
+			String text = paragraph.Text.replace(LOT, lot).replace(BALANCE, balance)
+					.replace(AMOUNT_AFTER_10TH, amountafter10th);
+			paragraphs.add(new Paragraph(text, paragraph.Alignment, paragraph.PageBreak, paragraph.FontFamily,
+					paragraph.Bold));
+		}
+		return paragraphs;
+	}
+
+	/**
+	 * Returns the fee schedule the notice quotes its amounts by.
+	 */
+	public FeeSchedule getFees(){
+		return Fees;
+	}
+
+	/**
+	 * Returns a hash of the compiled notice, which changes with the park, the
+	 * issue date or the fee schedule; notices rendered from templates with
+	 * different fingerprints are not interchangeable.
+	 */
+	public long fingerprint(){
+		long hash = 17;
+		hash = hash * 1000003 + Fees.fingerprint();
+		hash = hash * 1000003 + BeforeLot.hashCode();
+		hash = hash * 1000003 + BeforeBalance.hashCode();
+		hash = hash * 1000003 + BeforeAmountAfter10th.hashCode();
+		return hash * 1000003 + AfterAmountAfter10th.hashCode();
+	}
+
+	private static List<Paragraph> paragraphs(String park, String address, String citystatezip,
+			String mgrcontact, String email, Date now, int noticedays){
+		List<Paragraph> paragraphs = new ArrayList<Paragraph>(20);
+		String font = StreamingNoticeWriter.TIMES_NEW_ROMAN;
+		String center = StreamingNoticeWriter.CENTER;
+		SimpleDateFormat sdf = new SimpleDateFormat("dd MMMM yyyy");
+		Calendar c = Calendar.getInstance();
+		c.setTime(now);
+		c.add(Calendar.DATE, noticedays);
+
+		//Line 1
+		paragraphs.add(new Paragraph(park, center, true, font, false));
+		//Line 2
+		paragraphs.add(new Paragraph(address, center, false, font, false));
+		//Line 3
+		paragraphs.add(new Paragraph(citystatezip, center, false, font, false));
+		//Line 4
+		paragraphs.add(new Paragraph(mgrcontact, center, false, font, false));
+		//Line 5
+		paragraphs.add(new Paragraph(email, center, false, font, false));
+		//Line 6
+		paragraphs.add(new Paragraph("", center, false, font, false));
+		//Line 7
+		paragraphs.add(new Paragraph("", center, false, font, false));
+		//Line 8
+		paragraphs.add(new Paragraph("Date: " + sdf.format(now), StreamingNoticeWriter.LEFT,
+				false, font, false));
+		//Line 9
+		paragraphs.add(new Paragraph("", null, false, null, false));
+		//Line 10
+		paragraphs.add(new Paragraph("Lot# " + LOT, null, false, font, false));
+		//Line 11
+		paragraphs.add(new Paragraph("", null, false, null, false));
+		//Line 12
+		paragraphs.add(new Paragraph("You have an unpaid balance of: " + BALANCE + "$",
+				null, false, font, false));
+		//Line 13
+		paragraphs.add(new Paragraph("", null, false, null, false));
+		//Line 14
+		paragraphs.add(new Paragraph("This letter will be your final warning before you are turned over " +
+				"to the attorney’s office in 36 hours for an eviction to be filed. " +
+				"You were given a notice to pay the amount due in full. Rent is due on " +
+				"the 1st and considered late if paid after the 5th of each month. Rent " +
+				"amount due after " + sdf.format(c.getTime()) + " will be " + AMOUNT_AFTER_10TH,
+				null, false, font, false));
+		//Line 15
+		paragraphs.add(new Paragraph("", null, false, null, false));
+		//Line 16
+		paragraphs.add(new Paragraph("We have given all tenants a grace period of 5 days to pay the amount owed " +
+				"in full and expect tenants not to take advantage of our policy.  We will " +
+				"begin evicting those that are continually receiving this letter for nonpayment " +
+				"and paying late. I am willing to discuss your account and take full payment only. ",
+				null, false, font, false));
+		//Line 17
+		paragraphs.add(new Paragraph("", null, false, null, false));
+		//Line 18
+		paragraphs.add(new Paragraph("", null, false, null, false));
+		//Line 19
+		paragraphs.add(new Paragraph("", null, false, null, false));
+		//Line 20
+		paragraphs.add(new Paragraph(park + " Management", null, false, font, true));
+		return paragraphs;
+	}
+
+	/**
+	 * One paragraph of the notice; the text may hold the {lot}, {balance} and
+	 * {amountafter10th} markers.
+	 */
+	static class Paragraph {
+		final String Text;
+		final String Alignment;
+		final boolean PageBreak;
+		final String FontFamily;
+		final boolean Bold;
+
+		Paragraph(String text, String alignment, boolean pagebreak, String fontfamily, boolean bold){
+			Text = text;
+			Alignment = alignment;
+			PageBreak = pagebreak;
+			FontFamily = fontfamily;
+			Bold = bold;
+		}
+	}
+}
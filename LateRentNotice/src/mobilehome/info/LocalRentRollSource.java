@@ -0,0 +1,188 @@
+package mobilehome.info;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import jxl.Cell;
+import jxl.CellType;
+import jxl.NumberCell;
+import jxl.Sheet;
+import jxl.Workbook;
+import jxl.read.biff.BiffException;
+
+/**
+ * Reads the Rent Roll from local files instead of Google Spreadsheets.
+ * Supported inputs are an Excel workbook (.xls) holding one sheet per month,
+ * or a CSV/TSV export of a single month. When a directory is given, the file
+ * named after the worksheet ("May 2014.xls", "May 2014.csv" or
+ * "May 2014.tsv") is read from it.
+ */
+public class LocalRentRollSource implements RentRollSource {
+	private final static String[] EXTENSIONS = {".xls", ".csv", ".tsv"};
+
+	private File RentRollFile;
+
+	public LocalRentRollSource(File rentrollfile){
+		RentRollFile = rentrollfile;
+	}
+
+	public LocalRentRollSource(String rentrollfile){
+		this(new File(rentrollfile));
+	}
+
+	public List<MobileHomeInfo> load(int mobilepark, String worksheetname) throws IOException {
+		File file = RentRollFile;
+		if(file.isDirectory()){
+			file = null;
+			for(String extension : EXTENSIONS){
+				File candidate = new File(RentRollFile, worksheetname + extension);
+				if(candidate.isFile()){
+					file = candidate;
+					break;
+				}
+			}
+			if(file == null){
+				throw new IOException("Could not find Worksheet: " + worksheetname + " in " + RentRollFile);
+			}
+		}
+
+		int maxlots = MobileHomeInfo.MaxLots(mobilepark);
+		String name = file.getName().toLowerCase();
+		RunMetrics.Span span = RunMetrics.start(RunMetrics.DECODE);
+		try{
+			List<MobileHomeInfo> mobilehomeinfo;
+			if(name.endsWith(".xls")){
+				mobilehomeinfo = loadWorkbook(file, worksheetname, maxlots);
+			}else{
+				mobilehomeinfo = loadDelimited(file, name.endsWith(".tsv") ? '\t' : ',', maxlots);
+			}
+			span.stop(file.length());
+			return mobilehomeinfo;
+		}finally{
+			span.fail();
+		}
+	}
+
+	private List<MobileHomeInfo> loadWorkbook(File file, String worksheetname, int maxlots) throws IOException {
+		Workbook workbook;
+		try {
+			workbook = Workbook.getWorkbook(file);
+		} catch (BiffException e) {
+			throw new IOException("Could not read " + file + ": " + e.getMessage(), e);
+		}
+		try {
+			Sheet sheet = workbook.getSheet(worksheetname);
+			if(sheet == null){
+				throw new IOException("Could not find Worksheet: " + worksheetname + " in " + file);
+			}
+			List<MobileHomeInfo> mobilehomeinfo = new ArrayList<MobileHomeInfo>(maxlots);
+			String[] header = new String[sheet.getColumns()];
+			for(int col = 0; col < header.length && sheet.getRows() > 0; col++){
+				header[col] = sheet.getCell(col, 0).getContents();
+			}
+			RentRollDecoder decoder = decoder(file, header);
+			int width = Math.min(sheet.getColumns(), decoder.getWidth());
+			//row 0 is the header row, same as row 1 on the spreadsheet
+			for(int row = 1; row < maxlots - 1; row++){
+				decoder.beginRow();
+				for(int col = 0; col < width && row < sheet.getRows(); col++){
+					if(!decoder.isUsed(col)){
+						continue;
+					}
+					Cell cell = sheet.getCell(col, row);
+					if(cell.getType() == CellType.NUMBER || cell.getType() == CellType.NUMBER_FORMULA){
+						decoder.cell(col, ((NumberCell) cell).getValue());
+					}else{
+						decoder.cell(col, cell.getContents());
+					}
+				}
+				mobilehomeinfo.add(decoder.endRow());
+			}
+			return mobilehomeinfo;
+		} finally {
+			workbook.close();
+		}
+	}
+
+	private List<MobileHomeInfo> loadDelimited(File file, char delimiter, int maxlots) throws IOException {
+		List<MobileHomeInfo> mobilehomeinfo = new ArrayList<MobileHomeInfo>(maxlots);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line = reader.readLine();
+			String[] header = new String[Math.max(MobileHomeInfo.RENT_ROLL_COLUMNS, count(line, delimiter) + 1)];
+			splitLine(line, delimiter, header);
+			RentRollDecoder decoder = decoder(file, header);
+			String[] values = new String[decoder.getWidth()];
+			for(int row = 1; row < maxlots - 1; row++){
+				line = (line == null) ? null : reader.readLine();
+				splitLine(line, delimiter, values);
+				mobilehomeinfo.add(decoder.decode(values));
+			}
+		} finally {
+			reader.close();
+		}
+		return mobilehomeinfo;
+	}
+
+	private static RentRollDecoder decoder(File file, String[] header) throws IOException {
+		try {
+			return RentRollDecoder.fromHeader(header);
+		} catch (IllegalArgumentException e) {
+			throw new IOException("Could not read " + file + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Splits one CSV/TSV line into values, honouring double-quoted fields.
+	 * Columns missing from the line are set to null.
+	 */
+	public static void splitLine(String line, char delimiter, String[] values){
+		for(int col = 0; col < values.length; col++){
+			values[col] = null;
+		}
+		if(line == null){
+			return;
+		}
+		StringBuilder field = new StringBuilder();
+		boolean quoted = false;
+		int col = 0;
+		for(int i = 0; i < line.length() && col < values.length; i++){
+			char c = line.charAt(i);
+			if(quoted){
+				if(c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"'){
+					field.append('"');
+					i++;
+				}else if(c == '"'){
+					quoted = false;
+				}else{
+					field.append(c);
+				}
+			}else if(c == '"'){
+				quoted = true;
+			}else if(c == delimiter){
+				values[col++] = field.toString();
+				field.setLength(0);
+			}else{
+				field.append(c);
+			}
+		}
+		if(col < values.length){
+			values[col] = field.toString();
+		}
+	}
+
+	private static int count(String line, char delimiter){
+		int count = 0;
+		for(int i = 0; line != null && i < line.length(); i++){
+			if(line.charAt(i) == delimiter){
+				count++;
+			}
+		}
+		return count;
+	}
+}
@@ -1,18 +1,13 @@
 package mobilehome.info;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
 
-import org.apache.poi.xwpf.usermodel.ParagraphAlignment;
-import org.apache.poi.xwpf.usermodel.XWPFDocument;
-import org.apache.poi.xwpf.usermodel.XWPFParagraph;
-import org.apache.poi.xwpf.usermodel.XWPFRun;
-
 import jxl.read.biff.BiffException;
 import jxl.write.WriteException;
 import jxl.write.biff.RowsExceededException;
@@ -21,25 +16,43 @@ public class MobileHomeInfo {
 	
 	public final static int CT = 1;
 	public final static int MESA = 2;
-	private float ExpectedMonthlyRent;
-	private float PreviousBalance;
-	private float LateFee;
-	private float Credit;
-	private float ReceivedBefore5th;
+	//amounts are in cents, see Money
+	private long ExpectedMonthlyRent;
+	private long PreviousBalance;
+	private long LateFee;
+	private long Credit;
+	private long ReceivedBefore5th;
 	private int LotNumber;
 	public final static int CT_MAX_LOTS=27; //25 is max but excel has header row
 	public final static int MESA_MAX_LOTS=31; //25 is max but excel has header row
-	public final static int LATEFEE_BEFORE_5TH = 50; //late fee before 5th of the month
+
+	//Rent Roll columns (0 based)
+	public final static int COL_LOT_NUMBER = 0; //Column 'A'
+	public final static int COL_LOT_RENT = 6; //Column 'G'
+	public final static int COL_MHP_RENT = 7; //Column 'H'
+	public final static int COL_TAXES_INSURANCE = 8; //Column 'I'
+	public final static int COL_PREVIOUS_BALANCE = 9; //Column 'J'
+	public final static int COL_LATE_FEE = 10; //Column 'K'
+	public final static int COL_CREDIT = 11; //Column 'L'
+	public final static int COL_RECEIVED_BEFORE_5TH = 13; //Column 'N'
+	public final static int RENT_ROLL_COLUMNS = 17; //Columns 'A' to 'Q'
 	
 	public int getLotNumber(){return LotNumber;}
-	public float getCredit(){return Credit;}
-	public float getLateFee(){return LateFee;}
-	public float getPreviousBalance(){return PreviousBalance;}
-	public float getExpectedMonthlyRent(){return ExpectedMonthlyRent;}
-	public float getReceivedBefore5th(){return ReceivedBefore5th;}
+	public long getCredit(){return Credit;}
+	public long getLateFee(){return LateFee;}
+	public long getPreviousBalance(){return PreviousBalance;}
+	public long getExpectedMonthlyRent(){return ExpectedMonthlyRent;}
+	public long getReceivedBefore5th(){return ReceivedBefore5th;}
 
 	public final static int LISTALLHOMES=100;
 	
+	/**
+	 * Returns one past the last Rent Roll row holding a lot for the park.
+	 */
+	public static int MaxLots(int mobilepark){
+		return (mobilepark == MobileHomeInfo.CT) ? MobileHomeInfo.CT_MAX_LOTS : MobileHomeInfo.MESA_MAX_LOTS;
+	}
+	
 	public static String LotBalanceURL(int n){
 		int column = 17; //Column 'Q'
 		int minrow = 0;
@@ -54,12 +67,15 @@ public class MobileHomeInfo {
 		return "?min-row="+minrow+"&min-col="+column+"&max-row="+maxrow+"&max-col="+column;
 	}
 	
-	public MobileHomeInfo(float expectedmonthlyrent, 
-						float previousbalance,
-						float latefee,
-						float credit,
+	/**
+	 * All amounts are in cents.
+	 */
+	public MobileHomeInfo(long expectedmonthlyrent, 
+						long previousbalance,
+						long latefee,
+						long credit,
 						int lotnumber,
-						float receivedbefore5th){
+						long receivedbefore5th){
 		ExpectedMonthlyRent = expectedmonthlyrent;
 		PreviousBalance = previousbalance;
 		LateFee = latefee;
@@ -69,151 +85,172 @@ public class MobileHomeInfo {
 	}
 	
 	public String toString(){
-		return "LotNum: " + LotNumber + ": ExpectedMonthlyRent: " + ExpectedMonthlyRent + ", PreviousBalance: " + PreviousBalance
-				+ ", LateFee: " + LateFee
-				+ ", Credit: " + Credit;
+		return "LotNum: " + LotNumber + ": ExpectedMonthlyRent: " + Money.format(ExpectedMonthlyRent)
+				+ ", PreviousBalance: " + Money.format(PreviousBalance)
+				+ ", LateFee: " + Money.format(LateFee)
+				+ ", Credit: " + Money.format(Credit);
 	}
 	
-	public float TotalDue(){
+	/**
+	 * Returns the amount due in cents.
+	 */
+	public long TotalDue(){
 		return ExpectedMonthlyRent + PreviousBalance + LateFee + Credit;
 	}
 	
-	public static void GenerateLateNotices(List<MobileHomeInfo> mobilehomeinfo, int mobilepark) 
-			throws BiffException, IOException, RowsExceededException, WriteException, ParseException{
-		FileOutputStream fout = null;
-		String park = null;
-		String address = null;
-		String city_zip = "Palestine, Texas 75801";
-		String mgrcontact = "Park Manager Phone: (903)600­0647";
-		String email = null;
-		Date dt = new Date();
+	/**
+	 * Returns true if the lot owes more than it paid before the 5th and gets
+	 * a late notice.
+	 */
+	public boolean IsDelinquent(){
+		return TotalDue() > ReceivedBefore5th;
+	}
+	
+	/**
+	 * Returns the unpaid balance plus the late fee charged after the 5th, in
+	 * cents, as set by the park's FeeSchedule.
+	 */
+	public long AmountAfter5th(int mobilepark){
+		return AmountAfter5th(FeeSchedule.forPark(mobilepark));
+	}
+	
+	public long AmountAfter5th(FeeSchedule fees){
+		return fees.amountDueOn(TotalDue(), ReceivedBefore5th, fees.firstLateDay());
+	}
+	
+	/**
+	 * Returns the unpaid balance plus the late fee charged from the second
+	 * fee tier on, in cents, as set by the park's FeeSchedule.
+	 */
+	public long AmountAfter10th(int mobilepark){
+		return AmountAfter10th(FeeSchedule.forPark(mobilepark));
+	}
+	
+	public long AmountAfter10th(FeeSchedule fees){
+		return fees.amountDueOn(TotalDue(), ReceivedBefore5th, fees.secondTierDay());
+	}
+	
+	/**
+	 * Returns the default late notice file for the park, e.g.
+	 * resources/20145209_CT-LateNotice.docx
+	 */
+	public static String LateNoticeFile(int mobilepark){
 		SimpleDateFormat filenameformat = new SimpleDateFormat("yyyymmdd");
-		
-		if(mobilepark == MobileHomeInfo.CT){
-			fout = new FileOutputStream("resources/" + filenameformat.format(dt) + "_CT-LateNotice.docx");
-			park = "Cross Timbers Mobile Home Park";
-			address = "4507 West Oak Street";
-			email = "crosstimbersmhp@yahoo.com";
+		String suffix = (mobilepark == MobileHomeInfo.CT) ? "_CT-LateNotice.docx" : "_Mesa-LateNotice.docx";
+		return "resources/" + filenameformat.format(new Date()) + suffix;
+	}
+	
+	/**
+	 * Loads a park's worksheet from the given source, prints the total rent
+	 * due and writes the late notices.
+	 *
+	 * @return the lots loaded from the worksheet
+	 */
+	public static List<MobileHomeInfo> GenerateLateNotices(RentRollSource source, int mobilepark, String worksheetname) 
+			throws BiffException, IOException, RowsExceededException, WriteException, ParseException{
+		return GenerateLateNotices(source, mobilepark, worksheetname, LateNoticeFile(mobilepark));
+	}
+	
+	/**
+	 * Loads a park's worksheet from the given source, prints the total rent
+	 * due and writes the late notices to outputfile.
+	 */
+	public static List<MobileHomeInfo> GenerateLateNotices(RentRollSource source, int mobilepark, String worksheetname,
+			String outputfile) 
+			throws BiffException, IOException, RowsExceededException, WriteException, ParseException{
+		return GenerateLateNotices(source, mobilepark, worksheetname, outputfile, null);
+	}
+	
+	/**
+	 * Loads a park's worksheet from the given source, prints the total rent
+	 * due and writes the late notices to outputfile, rendering them on the
+	 * given renderer's pool. A null renderer renders them one after another.
+	 */
+	public static List<MobileHomeInfo> GenerateLateNotices(RentRollSource source, int mobilepark, String worksheetname,
+			String outputfile, ParallelNoticeRenderer renderer) 
+			throws BiffException, IOException, RowsExceededException, WriteException, ParseException{
+		return GenerateLateNotices(source, mobilepark, worksheetname, outputfile, renderer, null);
+	}
+	
+	/**
+	 * Same as above, but only renders the notices of lots whose row changed
+	 * since the last run of the same park and worksheet; the others are
+	 * taken from the store. A null store renders every notice.
+	 */
+	public static List<MobileHomeInfo> GenerateLateNotices(RentRollSource source, int mobilepark, String worksheetname,
+			String outputfile, ParallelNoticeRenderer renderer, NoticeStore store) 
+			throws BiffException, IOException, RowsExceededException, WriteException, ParseException{
+		List<MobileHomeInfo> mobilehomeinfo = source.load(mobilepark, worksheetname);
+		RentRoll rentroll = RentRoll.of(mobilehomeinfo);
+		System.out.println(worksheetname + " Total Rent Due: " + Money.format(rentroll.totalDue())
+				+ ", " + rentroll.countDelinquent() + " of " + rentroll.size() + " lots delinquent");
+		if(renderer == null && store == null){
+			GenerateLateNotices(mobilehomeinfo, mobilepark, outputfile);
+			return mobilehomeinfo;
 		}
-		else{
-			fout = new FileOutputStream("resources/" + filenameformat.format(dt) + "_Mesa-LateNotice.docx");
-			park = "Mesa Mobile Home Park";
-			address = "1118 North Fort Street";
-			email = "mesamhp@yahoo.com";
-}
-		
-		XWPFDocument doc = new XWPFDocument();
-
-		for(MobileHomeInfo mh : mobilehomeinfo){
-			float amountdue = mh.getExpectedMonthlyRent()+mh.getLateFee()+mh.getPreviousBalance()+mh.getCredit();
-			if(amountdue > mh.getReceivedBefore5th()){
-				float amountafter5th  = amountdue-mh.getReceivedBefore5th()+50;
-				float amountafter10th = amountdue-mh.getReceivedBefore5th()+100;
-
-				//Line 1
-				XWPFParagraph p1 = doc.createParagraph();
-				p1.setPageBreak(true);
-				p1.setAlignment(ParagraphAlignment.CENTER);
-				XWPFRun p1run = p1.createRun();
-				p1run.setFontFamily("Times New Roman");
-				p1run.setText(park);
-				//Line 2
-				XWPFParagraph p2 = doc.createParagraph();
-				p2.setAlignment(ParagraphAlignment.CENTER);
-				XWPFRun p2run = p2.createRun();
-				p2run.setFontFamily("Times New Roman");
-				p2run.setText(address);
-				//Line 3
-				XWPFParagraph p3 = doc.createParagraph();
-				p3.setAlignment(ParagraphAlignment.CENTER);
-				XWPFRun p3run = p3.createRun();
-				p3run.setFontFamily("Times New Roman");
-				p3run.setText(city_zip);
-				//Line 4
-				XWPFParagraph p4 = doc.createParagraph();
-				p4.setAlignment(ParagraphAlignment.CENTER);
-				XWPFRun p4run = p4.createRun();
-				p4run.setFontFamily("Times New Roman");
-				p4run.setText(mgrcontact);
-				//Line 5
-				XWPFParagraph p5 = doc.createParagraph();
-				p5.setAlignment(ParagraphAlignment.CENTER);
-				XWPFRun p5run = p5.createRun();
-				p5run.setFontFamily("Times New Roman");
-				p5run.setText(email);
-				//Line 6
-				XWPFParagraph p6 = doc.createParagraph();
-				p6.setAlignment(ParagraphAlignment.CENTER);
-				XWPFRun p6run = p6.createRun();
-				p6run.setFontFamily("Times New Roman");
-				p6run.setText("");
-				//Line 7
-				XWPFParagraph p7 = doc.createParagraph();
-				p7.setAlignment(ParagraphAlignment.CENTER);
-				XWPFRun p7run = p7.createRun();
-				p7run.setFontFamily("Times New Roman");
-				p7run.setText("");
-				//Line 8
-				XWPFParagraph p8 = doc.createParagraph();
-				p8.setAlignment(ParagraphAlignment.LEFT);
-				XWPFRun p8run = p8.createRun();
-			    SimpleDateFormat sdf = new SimpleDateFormat("dd MMMM yyyy");
-			    Date now = new Date();
-			    p8run.setFontFamily("Times New Roman");
-				p8run.setText("Date: " + sdf.format(now));
-				//Line 9
-				XWPFRun p9run = doc.createParagraph().createRun();
-				p9run.setText("");
-				//Line 10
-				XWPFRun p10run = doc.createParagraph().createRun();
-				p10run.setFontFamily("Times New Roman");
-				p10run.setText("Lot# " + mh.getLotNumber());
-				//Line 11
-				XWPFRun p11run = doc.createParagraph().createRun();
-				p11run.setText("");
-				//Line 12
-				XWPFRun p12run = doc.createParagraph().createRun();
-				p12run.setFontFamily("Times New Roman");
-				p12run.setText("You have an unpaid balance of: " + amountafter5th + "$");
-				//Line 13
-				doc.createParagraph().createRun().setText("");
-				//Line 14
-				XWPFRun p14run = doc.createParagraph().createRun();
-				p14run.setFontFamily("Times New Roman");
-				Calendar c = Calendar.getInstance();
-				c.add(Calendar.DATE, 5);
-				SimpleDateFormat sdf2 = new SimpleDateFormat("dd MMMM yyyy");
-				p14run.setText("This letter will be your final warning before you are turned over " + 
-				               "to the attorney’s office in 36 hours for an eviction to be filed. " + 
-						       "You were given a notice to pay the amount due in full. Rent is due on " + 
-				               "the 1st and considered late if paid after the 5th of each month. Rent " + 
-						       "amount due after " + sdf2.format(c.getTime()) + " will be " + amountafter10th);
-				//Line 15
-				doc.createParagraph().createRun().setText("");
-				//Line 16
-				XWPFRun p16run = doc.createParagraph().createRun();
-				p16run.setFontFamily("Times New Roman");
-				p16run.setText("We have given all tenants a grace period of 5 days to pay the amount owed " + 
-				               "in full and expect tenants not to take advantage of our policy.  We will " + 
-						       "begin evicting those that are continually receiving this letter for nonpayment " + 
-				               "and paying late. I am willing to discuss your account and take full payment only. "); 
-
-				//Line 17
-				doc.createParagraph().createRun().setText("");
-				//Line 18
-				doc.createParagraph().createRun().setText("");
-				//Line 19
-				doc.createParagraph().createRun().setText("");
-				//Line 20
-				XWPFRun p20run = doc.createParagraph().createRun();
-				p20run.setFontFamily("Times New Roman");
-				p20run.setBold(true);
-				p20run.setText(park + " Management");
+		LateNoticeTemplate template = LateNoticeTemplate.forPark(mobilepark, new Date());
+		if(store != null){
+			store.write(mobilepark + "/" + worksheetname, mobilehomeinfo, template, renderer, outputfile);
+			System.out.println("Job completed");
+			return mobilehomeinfo;
+		}
+		String[] notices;
+		RunMetrics.Span span = RunMetrics.start(RunMetrics.RENDER);
+		try{
+			notices = renderer.render(mobilehomeinfo, template);
+			span.stop();
+		}finally{
+			span.fail();
+		}
+		ParallelNoticeRenderer.write(notices, outputfile);
+		System.out.println("Job completed");
+		return mobilehomeinfo;
+	}
+	
+	public static void GenerateLateNotices(List<MobileHomeInfo> mobilehomeinfo, int mobilepark) 
+			throws BiffException, IOException, RowsExceededException, WriteException, ParseException{
+		GenerateLateNotices(mobilehomeinfo, mobilepark, LateNoticeFile(mobilepark));
+	}
 	
+	public static void GenerateLateNotices(List<MobileHomeInfo> mobilehomeinfo, int mobilepark, String outputfile) 
+			throws BiffException, IOException, RowsExceededException, WriteException, ParseException{
+		GenerateLateNotices(mobilehomeinfo, LateNoticeTemplate.forPark(mobilepark, new Date()), outputfile);
+	}
+	
+	/**
+	 * Writes a notice for every lot that owes more than it paid before the
+	 * 5th, using a template compiled once for the park and run.
+	 */
+	public static void GenerateLateNotices(List<MobileHomeInfo> mobilehomeinfo, LateNoticeTemplate template,
+			String outputfile) throws IOException{
+		// render and write take turns, so each keeps its own clock paused while the other runs
+		RunMetrics.Span render = RunMetrics.start(RunMetrics.RENDER);
+		render.pause();
+		RunMetrics.Span write = RunMetrics.start(RunMetrics.WRITE);
+		StreamingNoticeWriter writer = new StreamingNoticeWriter(new FileOutputStream(outputfile));
+		StringBuilder xml = new StringBuilder(8192);
+		try{
+			try{
+				for(MobileHomeInfo mh : mobilehomeinfo){
+					xml.setLength(0);
+					write.pause();
+					render.resume();
+					boolean late = template.render(mh, xml);
+					render.pause();
+					write.resume();
+					if(late){
+						writer.write(xml);
+					}
+				}
+			}finally{
+				writer.close();
 			}
-		}//for
-	    doc.write(fout);
-	    fout.close();
-	    System.out.println("Job completed");
+			render.stop();
+			write.stop(new File(outputfile).length());
+		}finally{
+			render.fail();
+			write.fail();
+		}
+		System.out.println("Job completed");
 	}
 }
@@ -0,0 +1,144 @@
+package mobilehome.info;
+
+/**
+ * Fixed-point money: amounts are plain longs holding whole cents, so sums
+ * are exact and adding or comparing them never allocates. This class only
+ * holds the conversions to and from text and floating point.
+ */
+public final class Money {
+	public final static long ZERO = 0;
+
+	private Money(){}
+
+	/**
+	 * Returns a whole dollar amount in cents.
+	 */
+	public static long ofDollars(long dollars){
+		return dollars * 100;
+	}
+
+	/**
+	 * Rounds a floating point dollar amount, e.g. a numeric spreadsheet
+	 * cell, to cents.
+	 */
+	public static long fromDouble(double dollars){
+		return Math.round(dollars * 100);
+	}
+
+	/**
+	 * Returns the amount in dollars, for display or legacy callers only.
+	 */
+	public static double toDouble(long cents){
+		return cents / 100.0;
+	}
+
+	/**
+	 * Parses a dollar amount such as "1,234.5", "$637.07", "-10" or the
+	 * accounting form "(10.00)" straight to cents, rounding half away from
+	 * zero past the second decimal, so "0.005" is 1 and "-0.005" is -1.
+	 * Blank text is 0.
+	 *
+	 * @throws NumberFormatException if the text is not an amount, or the
+	 *    amount does not fit in a long of cents
+	 */
+	public static long parse(CharSequence text){
+		int length = text.length();
+		int i = 0;
+		while(i < length && Character.isWhitespace(text.charAt(i))){
+			i++;
+		}
+		while(length > i && Character.isWhitespace(text.charAt(length - 1))){
+			length--;
+		}
+		if(i == length){
+			return 0;
+		}
+
+		boolean negative = false;
+		if(text.charAt(i) == '(' && text.charAt(length - 1) == ')'){
+			negative = true;
+			i++;
+			length--;
+		}
+		if(i < length && text.charAt(i) == '-'){
+			negative = !negative;
+			i++;
+		}else if(i < length && text.charAt(i) == '+'){
+			i++;
+		}
+
+		long cents = 0;
+		int decimals = -1;
+		boolean digits = false;
+		boolean roundup = false;
+		for(; i < length; i++){
+			char c = text.charAt(i);
+			if(c >= '0' && c <= '9'){
+				digits = true;
+				if(decimals < 0){
+					cents = shift(cents, c - '0', text);
+				}else if(decimals < 2){
+					cents = shift(cents, c - '0', text);
+					decimals++;
+				}else if(decimals == 2){
+					roundup = c >= '5';
+					decimals++;
+				}
+			}else if(c == '.' && decimals < 0){
+				decimals = 0;
+			}else if(c != ',' && c != '$'){
+				throw new NumberFormatException("Not an amount: \"" + text + "\"");
+			}
+		}
+		if(!digits){
+			throw new NumberFormatException("Not an amount: \"" + text + "\"");
+		}
+		for(int d = Math.max(decimals, 0); d < 2; d++){
+			cents = shift(cents, 0, text);
+		}
+		if(roundup){
+			if(cents == Long.MAX_VALUE){
+				throw tooLarge(text);
+			}
+			cents++;
+		}
+		return negative ? -cents : cents;
+	}
+
+	/**
+	 * Returns cents * 10 + digit, or throws if that overflows.
+	 */
+	private static long shift(long cents, int digit, CharSequence text){
+		if(cents > (Long.MAX_VALUE - digit) / 10){
+			throw tooLarge(text);
+		}
+		return cents * 10 + digit;
+	}
+
+	private static NumberFormatException tooLarge(CharSequence text){
+		return new NumberFormatException("Amount out of range: \"" + text + "\"");
+	}
+
+	/**
+	 * Appends the amount as dollars with two decimals, e.g. 637.07 or -10.00
+	 */
+	public static StringBuilder append(StringBuilder text, long cents){
+		long abs = Math.abs(cents);
+		if(cents < 0){
+			text.append('-');
+		}
+		long fraction = abs % 100;
+		text.append(abs / 100).append('.');
+		if(fraction < 10){
+			text.append('0');
+		}
+		return text.append(fraction);
+	}
+
+	/**
+	 * Formats the amount as dollars with two decimals, e.g. 637.07 or -10.00
+	 */
+	public static String format(long cents){
+		return append(new StringBuilder(24), cents).toString();
+	}
+}
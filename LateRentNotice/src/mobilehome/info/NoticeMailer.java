@@ -0,0 +1,459 @@
+package mobilehome.info;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+/**
+ * Mails the per lot notice files to the tenants in the background.
+ *
+ * <p>Every notice is first written to the outbox directory as a .pending
+ * file and handed to a bounded queue; enqueue() blocks while the queue is
+ * full, so rendering slows down to the rate mail can be sent. A fixed
+ * number of sender threads take messages off the queue, each over its own
+ * SMTP connection that stays open between messages, so one slow server
+ * response only holds up one sender. A message that fails is retried with
+ * exponential backoff from a timer instead of on the sender thread, and is
+ * moved to .failed after MAX_ATTEMPTS.
+ *
+ * <p>A sender renames a message's file to .sending before handing it to the
+ * server and back to .pending only if the server did not take it, so once
+ * the server has accepted a message nothing but a rename to .sent is left
+ * to do, and nothing that fails from then on can send it again. Either
+ * file keeps the same notice from being queued again.
+ *
+ * <p>Pending files left by a crash are queued again by start(). A .sending
+ * file left by a crash may or may not have reached the server; it is never
+ * sent again, only reported, and can be renamed to .pending by hand to send
+ * it. Its Message-ID is derived from the notice, so a copy sent that way
+ * can be recognised as the same mail.
+ */
+public class NoticeMailer {
+	public final static String DEFAULT_OUTBOX = "resources/outbox";
+	public final static String DEFAULT_TENANTS = "resources/tenants.properties";
+	public final static int DEFAULT_SENDERS = 4;
+	public final static int DEFAULT_QUEUE_SIZE = 64;
+	public final static int MAX_ATTEMPTS = 5;
+
+	private final static String PENDING = ".pending";
+	private final static String SENDING = ".sending";
+	private final static String SENT = ".sent";
+	private final static String FAILED = ".failed";
+	private final static long FIRST_RETRY_MILLIS = 1000;
+	private final static long MAX_RETRY_MILLIS = 60000;
+	/** Socket timeouts for the SMTP connections, in milliseconds. */
+	private final static String TIMEOUT = "30000";
+
+	private final Session MailSession;
+	private final String User;
+	private final String Password;
+	private final InternetAddress From;
+	private final File Outbox;
+	private final Properties Tenants;
+	private final BlockingQueue<File> Queue;
+	private final Thread[] Senders;
+	private final ScheduledExecutorService Retries;
+	private final Random Jitter = new Random();
+	/** Messages queued or waiting for a retry, not yet sent or failed. */
+	private final AtomicInteger Outstanding = new AtomicInteger();
+	private final AtomicInteger Sent = new AtomicInteger();
+	private final AtomicInteger Failed = new AtomicInteger();
+	private volatile boolean Stopping = false;
+
+	/**
+	 * @param host SMTP server
+	 * @param port SMTP port
+	 * @param user SMTP user, or null to send without authentication
+	 * @param password SMTP password
+	 * @param from sender address of the notices
+	 * @param outbox directory holding the pending, sent and failed messages
+	 * @param tenants maps "CT.12" or "MESA.3" (park and lot number) to the
+	 * tenant's email address
+	 * @param senders number of SMTP connections
+	 * @param queuesize number of messages queued before enqueue() blocks
+	 */
+	public NoticeMailer(String host, int port, String user, String password, String from, File outbox,
+			Properties tenants, int senders, int queuesize) throws IOException{
+		Properties props = new Properties();
+		props.setProperty("mail.smtp.host", host);
+		props.setProperty("mail.smtp.port", String.valueOf(port));
+		props.setProperty("mail.smtp.connectiontimeout", TIMEOUT);
+		props.setProperty("mail.smtp.timeout", TIMEOUT);
+		props.setProperty("mail.smtp.writetimeout", TIMEOUT);
+		if(user != null){
+			props.setProperty("mail.smtp.auth", "true");
+			props.setProperty("mail.smtp.starttls.enable", "true");
+		}
+		MailSession = Session.getInstance(props);
+		User = user;
+		Password = password;
+		try{
+			From = new InternetAddress(from);
+		}catch(MessagingException e){
+			throw new IOException("Invalid sender address: " + from, e);
+		}
+		Outbox = outbox;
+		Tenants = tenants;
+		Queue = new ArrayBlockingQueue<File>(queuesize);
+		Senders = new Thread[senders];
+		Retries = Executors.newSingleThreadScheduledExecutor();
+		if(!Outbox.isDirectory() && !Outbox.mkdirs()){
+			throw new IOException("Could not create outbox " + Outbox);
+		}
+	}
+
+	/**
+	 * Loads the tenants' email addresses, see the constructor.
+	 */
+	public static Properties loadTenants(File file) throws IOException{
+		Properties tenants = new Properties();
+		InputStream in = new FileInputStream(file);
+		try{
+			tenants.load(in);
+		}finally{
+			in.close();
+		}
+		return tenants;
+	}
+
+	/**
+	 * Starts the sender threads and queues the messages left pending by an
+	 * earlier run. Messages an earlier run was sending when it stopped are
+	 * reported and left alone.
+	 */
+	public void start() throws InterruptedException{
+		for(int i = 0; i < Senders.length; i++){
+			Senders[i] = new Thread(new Runnable(){
+				public void run(){
+					send();
+				}
+			}, "notice-mailer-" + i);
+			Senders[i].setDaemon(true);
+			Senders[i].start();
+		}
+		File[] pending = Outbox.listFiles();
+		for(int i = 0; pending != null && i < pending.length; i++){
+			if(pending[i].getName().endsWith(PENDING)){
+				Outstanding.incrementAndGet();
+				Queue.put(pending[i]);
+			}else if(pending[i].getName().endsWith(SENDING)){
+				System.out.println(pending[i].getName() + " was being sent when the last run stopped and may have"
+						+ " reached the tenant; not sent again. Rename it to " + PENDING + " to send it.");
+			}
+		}
+	}
+
+	/**
+	 * Returns a listener that mails the files of each lot of a worksheet as
+	 * TenantNoticeWriter writes them.
+	 */
+	public TenantNoticeWriter.Listener forWorksheet(final int mobilepark, final String worksheetname, final Date issued){
+		return new TenantNoticeWriter.Listener(){
+			public void written(MobileHomeInfo mh, List<File> files) throws IOException{
+				try{
+					enqueue(mobilepark, worksheetname, issued, mh, files);
+				}catch(InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while queueing the notice of Lot# " + mh.getLotNumber(), e);
+				}
+			}
+		};
+	}
+
+	/**
+	 * Writes the notice of a lot to the outbox and queues it, blocking while
+	 * the queue is full. Lots without an address in the tenants file and
+	 * notices that were already sent or queued are skipped.
+	 *
+	 * @return true if the notice was queued
+	 */
+	public boolean enqueue(int mobilepark, String worksheetname, Date issued, MobileHomeInfo mh, List<File> files)
+			throws IOException, InterruptedException{
+		String park = (mobilepark == MobileHomeInfo.CT) ? "CT" : "MESA";
+		String to = Tenants.getProperty(park + "." + mh.getLotNumber());
+		if(to == null){
+			System.out.println("No email address for " + park + " Lot# " + mh.getLotNumber() + ", not mailed");
+			return false;
+		}
+		String id = park + "_" + worksheetname.replace(' ', '_') + "_Lot" + mh.getLotNumber() + "_"
+				+ new SimpleDateFormat("yyyyMMdd").format(issued);
+		if(new File(Outbox, id + SENT).exists() || new File(Outbox, id + SENDING).exists()
+				|| new File(Outbox, id + PENDING).exists()){
+			//already sent or being sent, or queued by this run or by start()
+			return false;
+		}
+
+		Properties message = new Properties();
+		message.setProperty("id", id);
+		message.setProperty("to", to);
+		message.setProperty("subject", "Late rent notice for " + worksheetname + " - Lot# " + mh.getLotNumber());
+		message.setProperty("body", "Attached is your late rent notice for Lot# " + mh.getLotNumber() + ". "
+				+ "The amount due is " + Money.format(mh.AmountAfter5th(mobilepark)) + "$.");
+		StringBuilder attachments = new StringBuilder();
+		for(File file : files){
+			attachments.append(attachments.length() == 0 ? "" : File.pathSeparator).append(file.getAbsolutePath());
+		}
+		message.setProperty("attachments", attachments.toString());
+		message.setProperty("attempts", "0");
+		File pending = new File(Outbox, id + PENDING);
+		store(pending, message);
+
+		Outstanding.incrementAndGet();
+		Queue.put(pending);
+		return true;
+	}
+
+	/**
+	 * Waits until every queued message is sent or has failed for good, then
+	 * stops the senders.
+	 *
+	 * @return the number of messages that failed
+	 */
+	public int close() throws InterruptedException{
+		synchronized(Outstanding){
+			while(Outstanding.get() > 0){
+				Outstanding.wait(1000);
+			}
+		}
+		Stopping = true;
+		for(Thread sender : Senders){
+			if(sender != null){
+				sender.interrupt();
+				sender.join();
+			}
+		}
+		Retries.shutdownNow();
+		System.out.println("Mail completed: " + Sent.get() + " sent, " + Failed.get() + " failed");
+		return Failed.get();
+	}
+
+	private void send(){
+		Transport transport = null;
+		try{
+			while(!Stopping){
+				File pending;
+				try{
+					pending = Queue.take();
+				}catch(InterruptedException e){
+					break;
+				}
+				Properties message = null;
+				File sending;
+				try{
+					message = load(pending);
+					sending = rename(pending, SENDING);
+				}catch(IOException e){
+					retry(pending, message, e);
+					continue;
+				}
+				try{
+					if(transport == null || !transport.isConnected()){
+						transport = MailSession.getTransport("smtp");
+						transport.connect(User, Password);
+					}
+					MimeMessage mime = compose(message);
+					transport.sendMessage(mime, mime.getAllRecipients());
+				}catch(MessagingException e){
+					close(transport);
+					transport = null;
+					unsent(sending, message, e);
+					continue;
+				}catch(IOException e){
+					unsent(sending, message, e);
+					continue;
+				}
+				sent(sending);
+			}
+		}finally{
+			close(transport);
+		}
+	}
+
+	/**
+	 * Counts a message the server accepted and marks its file .sent. A file
+	 * that cannot be renamed stays .sending, which is never sent again.
+	 */
+	private void sent(File sending){
+		Sent.incrementAndGet();
+		done();
+		try{
+			rename(sending, SENT);
+		}catch(IOException e){
+			System.out.println("Sent " + sending.getName() + " but could not mark it sent: " + e);
+		}
+	}
+
+	/**
+	 * Puts back a message the server did not take and retries it.
+	 */
+	private void unsent(File sending, Properties message, Exception cause){
+		File pending;
+		try{
+			pending = rename(sending, PENDING);
+		}catch(IOException e){
+			System.out.println("Could not retry " + sending.getName() + ": " + e);
+			fail();
+			return;
+		}
+		retry(pending, message, cause);
+	}
+
+	/**
+	 * Schedules another attempt of a failed message, or moves it to .failed
+	 * once it failed MAX_ATTEMPTS times.
+	 */
+	private void retry(final File pending, Properties message, Exception cause){
+		try{
+			if(message == null){
+				throw new IOException("Could not read " + pending, cause);
+			}
+			int attempts = Integer.parseInt(message.getProperty("attempts", "0")) + 1;
+			if(attempts >= MAX_ATTEMPTS){
+				System.out.println("Giving up on " + pending.getName() + " after " + attempts + " attempts: " + cause);
+				rename(pending, FAILED);
+				fail();
+				return;
+			}
+			message.setProperty("attempts", String.valueOf(attempts));
+			message.setProperty("error", String.valueOf(cause));
+			store(pending, message);
+			long delay = Math.min(FIRST_RETRY_MILLIS << (attempts - 1), MAX_RETRY_MILLIS);
+			delay += Jitter.nextInt((int) (delay / 2) + 1);
+			Retries.schedule(new Runnable(){
+				public void run(){
+					requeue(pending);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}catch(IOException e){
+			System.out.println("Could not retry " + pending.getName() + ": " + e);
+			fail();
+		}
+	}
+
+	/** Puts a message back on the queue without blocking the timer thread. */
+	private void requeue(final File pending){
+		if(!Queue.offer(pending)){
+			Retries.schedule(new Runnable(){
+				public void run(){
+					requeue(pending);
+				}
+			}, FIRST_RETRY_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void fail(){
+		Failed.incrementAndGet();
+		done();
+	}
+
+	private void done(){
+		if(Outstanding.decrementAndGet() == 0){
+			synchronized(Outstanding){
+				Outstanding.notifyAll();
+			}
+		}
+	}
+
+	private MimeMessage compose(Properties message) throws MessagingException, IOException{
+		final String id = message.getProperty("id");
+		MimeMessage mime = new MimeMessage(MailSession){
+			protected void updateMessageID() throws MessagingException{
+				setHeader("Message-ID", "<" + id + "@latenotices>");
+			}
+		};
+		mime.setFrom(From);
+		mime.setRecipients(Message.RecipientType.TO, InternetAddress.parse(message.getProperty("to")));
+		mime.setSubject(message.getProperty("subject"), "UTF-8");
+		Multipart multipart = new MimeMultipart();
+		MimeBodyPart body = new MimeBodyPart();
+		body.setText(message.getProperty("body"), "UTF-8");
+		multipart.addBodyPart(body);
+		for(String path : message.getProperty("attachments").split(File.pathSeparator)){
+			File file = new File(path);
+			if(!file.isFile()){
+				throw new IOException("Missing attachment " + file);
+			}
+			MimeBodyPart attachment = new MimeBodyPart();
+			attachment.setDataHandler(new DataHandler(new FileDataSource(file)));
+			attachment.setFileName(file.getName());
+			multipart.addBodyPart(attachment);
+		}
+		mime.setContent(multipart);
+		mime.setSentDate(new Date());
+		return mime;
+	}
+
+	private static void close(Transport transport){
+		if(transport != null){
+			try{
+				transport.close();
+			}catch(MessagingException e){
+				//the connection is dropped either way
+			}
+		}
+	}
+
+	private static Properties load(File file) throws IOException{
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream(file);
+		try{
+			properties.load(in);
+		}finally{
+			in.close();
+		}
+		return properties;
+	}
+
+	/** Writes the message through a temporary file so a crash never leaves half a message. */
+	private static void store(File file, Properties message) throws IOException{
+		File temp = new File(file.getPath() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		try{
+			message.store(out, null);
+			out.getFD().sync();
+		}finally{
+			out.close();
+		}
+		if(file.exists() && !file.delete() || !temp.renameTo(file)){
+			throw new IOException("Could not replace " + file);
+		}
+	}
+
+	/**
+	 * Replaces the suffix of a message file, e.g. .pending by .sent, and
+	 * returns the renamed file.
+	 */
+	private static File rename(File file, String suffix) throws IOException{
+		String name = file.getName();
+		File target = new File(file.getParentFile(), name.substring(0, name.lastIndexOf('.')) + suffix);
+		if(target.exists() && !target.delete() || !file.renameTo(target)){
+			throw new IOException("Could not rename " + file + " to " + target);
+		}
+		return target;
+	}
+}
@@ -0,0 +1,170 @@
+package mobilehome.info;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes a late notice as a single page PDF without any office suite. The
+ * notice is set in the standard Times-Roman and Times-Bold fonts, which
+ * every PDF viewer has built in, so nothing is embedded and a notice is a
+ * few kilobytes. Paragraphs are wrapped to the page width using the
+ * fonts' metrics and keep their centered or left alignment.
+ */
+public class NoticePdfWriter {
+	private final static int PAGE_WIDTH = 612; //US Letter, in points
+	private final static int PAGE_HEIGHT = 792;
+	private final static int MARGIN = 72;
+	private final static int FONT_SIZE = 12;
+	private final static int LEADING = 14;
+
+	/** Times-Roman advance widths of the characters ' ' to '~', per 1000 units of font size. */
+	private final static int[] TIMES_WIDTHS = {
+		250, 333, 408, 500, 500, 833, 778, 180, 333, 333, 500, 564, 250, 333, 250, 278,
+		500, 500, 500, 500, 500, 500, 500, 500, 500, 500, 278, 278, 564, 564, 564, 444,
+		921, 722, 667, 667, 722, 611, 556, 722, 722, 333, 389, 722, 611, 889, 722, 722,
+		556, 722, 667, 556, 611, 722, 722, 944, 722, 722, 611, 333, 278, 333, 469, 500,
+		333, 444, 500, 444, 500, 444, 333, 500, 500, 278, 278, 500, 278, 778, 500, 500,
+		500, 500, 333, 389, 278, 500, 500, 722, 500, 500, 444, 480, 200, 480, 541
+	};
+
+	private NoticePdfWriter(){}
+
+	/**
+	 * Returns the PDF file holding the given paragraphs on one page.
+	 */
+	static byte[] render(List<LateNoticeTemplate.Paragraph> paragraphs){
+		StringBuilder content = new StringBuilder(4096);
+		int y = PAGE_HEIGHT - MARGIN;
+		for(LateNoticeTemplate.Paragraph paragraph : paragraphs){
+			String font = paragraph.Bold ? "/F2" : "/F1";
+			boolean center = StreamingNoticeWriter.CENTER.equals(paragraph.Alignment);
+			for(String line : wrap(paragraph.Text, PAGE_WIDTH - 2 * MARGIN)){
+				int x = center ? (PAGE_WIDTH - width(line)) / 2 : MARGIN;
+				content.append("BT ").append(font).append(' ').append(FONT_SIZE).append(" Tf ")
+						.append(x).append(' ').append(y).append(" Td (");
+				appendPdfString(content, line);
+				content.append(") Tj ET\n");
+				y -= LEADING;
+			}
+		}
+
+		PdfBuffer pdf = new PdfBuffer();
+		pdf.ascii("%PDF-1.4\n");
+		pdf.object(1, "<< /Type /Catalog /Pages 2 0 R >>");
+		pdf.object(2, "<< /Type /Pages /Kids [3 0 R] /Count 1 >>");
+		pdf.object(3, "<< /Type /Page /Parent 2 0 R /MediaBox [0 0 " + PAGE_WIDTH + " " + PAGE_HEIGHT + "]"
+				+ " /Resources << /Font << /F1 5 0 R /F2 6 0 R >> >> /Contents 4 0 R >>");
+		byte[] stream = latin1(content);
+		pdf.offset(4);
+		pdf.ascii("4 0 obj\n<< /Length " + stream.length + " >>\nstream\n");
+		pdf.write(stream, 0, stream.length);
+		pdf.ascii("endstream\nendobj\n");
+		pdf.object(5, "<< /Type /Font /Subtype /Type1 /BaseFont /Times-Roman /Encoding /WinAnsiEncoding >>");
+		pdf.object(6, "<< /Type /Font /Subtype /Type1 /BaseFont /Times-Bold /Encoding /WinAnsiEncoding >>");
+		pdf.trailer(7, 1);
+		return pdf.toByteArray();
+	}
+
+	/**
+	 * Splits text into lines no wider than width points, breaking at spaces.
+	 * Empty text is a single empty line.
+	 */
+	private static List<String> wrap(String text, int width){
+		List<String> lines = new ArrayList<String>();
+		String[] words = text.split(" ");
+		StringBuilder line = new StringBuilder();
+		for(String word : words){
+			if(line.length() > 0 && width(line + " " + word) > width){
+				lines.add(line.toString());
+				line.setLength(0);
+			}
+			if(line.length() > 0){
+				line.append(' ');
+			}
+			line.append(word);
+		}
+		lines.add(line.toString());
+		return lines;
+	}
+
+	/** Returns the width of text in points at FONT_SIZE. */
+	private static int width(String text){
+		int width = 0;
+		for(int i = 0; i < text.length(); i++){
+			char c = text.charAt(i);
+			width += (c >= ' ' && c <= '~') ? TIMES_WIDTHS[c - ' '] : 500;
+		}
+		return width * FONT_SIZE / 1000;
+	}
+
+	/**
+	 * Appends text as the body of a PDF literal string in WinAnsiEncoding.
+	 */
+	private static void appendPdfString(StringBuilder pdf, String text){
+		for(int i = 0; i < text.length(); i++){
+			char c = text.charAt(i);
+			switch(c){
+			case '(': case ')': case '\\': pdf.append('\\').append(c); break;
+			case '\u2018': pdf.append('\u0091'); break;
+			case '\u2019': pdf.append('\u0092'); break;
+			case '\u201c': pdf.append('\u0093'); break;
+			case '\u201d': pdf.append('\u0094'); break;
+			case '\u2013': pdf.append('\u0096'); break;
+			case '\u2014': pdf.append('\u0097'); break;
+			case '\u00ad': pdf.append('-'); break; //soft hyphen
+			default: pdf.append((c < 0x100 && (c < 0x80 || c >= 0xA0)) ? c : '?');
+			}
+		}
+	}
+
+	private static byte[] latin1(CharSequence text){
+		byte[] bytes = new byte[text.length()];
+		for(int i = 0; i < bytes.length; i++){
+			bytes[i] = (byte) text.charAt(i);
+		}
+		return bytes;
+	}
+
+	/**
+	 * The PDF file being written, remembering where each object starts for
+	 * the cross-reference table.
+	 */
+	private static class PdfBuffer extends ByteArrayOutputStream {
+		private final int[] Offsets = new int[16];
+
+		PdfBuffer(){
+			super(8192);
+		}
+
+		void ascii(String text){
+			byte[] bytes = latin1(text);
+			write(bytes, 0, bytes.length);
+		}
+
+		void offset(int object){
+			Offsets[object] = count;
+		}
+
+		void object(int object, String dictionary){
+			offset(object);
+			ascii(object + " 0 obj\n" + dictionary + "\nendobj\n");
+		}
+
+		void trailer(int objects, int root){
+			int xref = count;
+			StringBuilder table = new StringBuilder();
+			table.append("xref\n0 ").append(objects).append("\n0000000000 65535 f \n");
+			for(int object = 1; object < objects; object++){
+				String offset = String.valueOf(Offsets[object]);
+				for(int i = offset.length(); i < 10; i++){
+					table.append('0');
+				}
+				table.append(offset).append(" 00000 n \n");
+			}
+			table.append("trailer\n<< /Size ").append(objects).append(" /Root ").append(root).append(" 0 R >>\n")
+					.append("startxref\n").append(xref).append("\n%%EOF\n");
+			ascii(table.toString());
+		}
+	}
+}
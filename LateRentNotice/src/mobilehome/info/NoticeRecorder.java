@@ -0,0 +1,20 @@
+package mobilehome.info;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Records the late notices issued for a month back on the Rent Roll, so
+ * the notice date and amounts owed after the 5th and the 10th no longer
+ * have to be typed in by hand.
+ */
+public interface NoticeRecorder {
+	/**
+	 * Records the notice date and the amounts due after the 5th and the 10th
+	 * of every delinquent lot of the worksheet. Lots are in worksheet order,
+	 * the first lot being on the row below the header row.
+	 */
+	void record(int mobilepark, String worksheetname, List<MobileHomeInfo> mobilehomeinfo, Date noticedate)
+			throws IOException;
+}
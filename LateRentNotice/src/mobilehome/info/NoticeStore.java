@@ -0,0 +1,244 @@
+package mobilehome.info;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the notices rendered for each park and worksheet together with a
+ * hash of the row each one was rendered from. When the same worksheet is run
+ * again, only the lots whose row hash changed are rendered; every other
+ * notice is reused as is. A new template (e.g. the next day's date) renders
+ * everything again.
+ *
+ * <p>Notices are streamed: the previous store file is read, and the new one
+ * and the .docx are written, one window of lots at a time, so a run holds
+ * at most WINDOW notices in memory however long the roll is.
+ *
+ * <p>Each park/worksheet is kept in its own file under the store directory
+ * (resources/cache/notices by default).
+ */
+public class NoticeStore {
+	public final static String DEFAULT_DIRECTORY = "resources/cache/notices";
+
+	/** Lots read, rendered and written together. */
+	final static int WINDOW = 256;
+
+	private final static int VERSION = 1;
+
+	private final File Directory;
+
+	public NoticeStore(File directory){
+		Directory = directory;
+	}
+
+	/**
+	 * Writes the notice of every lot of the roll that gets one to outputfile,
+	 * in roll order. Lots whose row and template are unchanged since the last
+	 * run with the same key are taken from the store, the rest are rendered
+	 * on the renderer's pool (sequentially if renderer is null), and the
+	 * store is updated.
+	 *
+	 * @param key identifies the park and worksheet, e.g. "2/May 2014"
+	 *
+	 * @return the number of lots rendered
+	 */
+	public int write(String key, List<MobileHomeInfo> mobilehomeinfo, LateNoticeTemplate template,
+			ParallelNoticeRenderer renderer, String outputfile) throws IOException{
+		RentRoll rentroll = RentRoll.of(mobilehomeinfo);
+		long templatehash = template.fingerprint();
+		int rows = rentroll.size();
+		if(!Directory.isDirectory() && !Directory.mkdirs()){
+			throw new IOException("Could not create notice store directory " + Directory);
+		}
+		File file = fileFor(key);
+		File temp = new File(Directory, file.getName() + ".tmp");
+
+		// render and write take turns, so each keeps its own clock paused while the other runs
+		RunMetrics.Span render = RunMetrics.start(RunMetrics.RENDER);
+		render.pause();
+		RunMetrics.Span write = RunMetrics.start(RunMetrics.WRITE);
+		int changed = 0;
+		try{
+			Previous previous = Previous.open(file, key, templatehash);
+			try{
+				DataOutputStream store = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+				try{
+					StreamingNoticeWriter writer = new StreamingNoticeWriter(new FileOutputStream(outputfile));
+					try{
+						store.writeInt(VERSION);
+						store.writeUTF(key);
+						store.writeLong(templatehash);
+						store.writeInt(rows);
+						String[] notices = new String[Math.min(WINDOW, rows)];
+						long[] rowhashes = new long[notices.length];
+						int[] staleslots = new int[notices.length];
+						List<MobileHomeInfo> stale = new ArrayList<MobileHomeInfo>(notices.length);
+						for(int start = 0; start < rows; start += WINDOW){
+							int size = Math.min(WINDOW, rows - start);
+							stale.clear();
+							for(int i = 0; i < size; i++){
+								rowhashes[i] = rentroll.rowHash(start + i);
+								if(previous != null && previous.next() && previous.RowHash == rowhashes[i]){
+									notices[i] = previous.Notice;
+								}else{
+									notices[i] = null;
+									staleslots[stale.size()] = i;
+									stale.add(mobilehomeinfo.get(start + i));
+								}
+							}
+
+							write.pause();
+							render.resume();
+							String[] rendered = render(stale, template, renderer);
+							render.pause();
+							write.resume();
+							for(int j = 0; j < rendered.length; j++){
+								notices[staleslots[j]] = rendered[j];
+							}
+							changed += rendered.length;
+
+							for(int i = 0; i < size; i++){
+								store.writeLong(rowhashes[i]);
+								if(notices[i] == null){
+									store.writeInt(-1);
+								}else{
+									byte[] bytes = notices[i].getBytes("UTF-8");
+									store.writeInt(bytes.length);
+									store.write(bytes);
+									writer.write(notices[i]);
+								}
+							}
+						}
+					}finally{
+						writer.close();
+					}
+				}finally{
+					store.close();
+				}
+			}finally{
+				if(previous != null){
+					previous.close();
+				}
+			}
+			if(file.exists() && !file.delete() || !temp.renameTo(file)){
+				throw new IOException("Could not replace notice store file " + file);
+			}
+			render.stop();
+			write.stop(new File(outputfile).length());
+		}finally{
+			render.fail();
+			write.fail();
+		}
+		System.out.println(key + ": " + changed + " of " + rows + " rows changed");
+		return changed;
+	}
+
+	private static String[] render(List<MobileHomeInfo> mobilehomeinfo, LateNoticeTemplate template,
+			ParallelNoticeRenderer renderer){
+		if(renderer != null){
+			return renderer.render(mobilehomeinfo, template);
+		}
+		String[] rendered = new String[mobilehomeinfo.size()];
+		StringBuilder xml = new StringBuilder(8192);
+		for(int i = 0; i < rendered.length; i++){
+			xml.setLength(0);
+			if(template.render(mobilehomeinfo.get(i), xml)){
+				rendered[i] = xml.toString();
+			}
+		}
+		return rendered;
+	}
+
+	private File fileFor(String key){
+		return new File(Directory, Integer.toHexString(key.hashCode()) + ".notices");
+	}
+
+	/**
+	 * Reads the rows of a stored entry one at a time.
+	 */
+	private static class Previous {
+		private final DataInputStream In;
+		private int Remaining;
+		long RowHash;
+		String Notice;
+
+		private Previous(DataInputStream in, int rows){
+			In = in;
+			Remaining = rows;
+		}
+
+		/**
+		 * Opens the stored entry of key if it was rendered from the same
+		 * template. Returns null if there is none or it cannot be read; an
+		 * unreadable file only means every notice is rendered again.
+		 */
+		static Previous open(File file, String key, long templatehash){
+			if(!file.isFile()){
+				return null;
+			}
+			DataInputStream in = null;
+			try{
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				if(in.readInt() == VERSION && key.equals(in.readUTF()) && in.readLong() == templatehash){
+					Previous previous = new Previous(in, in.readInt());
+					in = null;
+					return previous;
+				}
+				return null;
+			}catch(IOException e){
+				return null;
+			}finally{
+				close(in);
+			}
+		}
+
+		/**
+		 * Reads the next row into RowHash and Notice (null for lots without a
+		 * notice). Returns false past the last row, or if the rest of the file
+		 * cannot be read.
+		 */
+		boolean next(){
+			if(Remaining <= 0){
+				return false;
+			}
+			try{
+				RowHash = In.readLong();
+				int length = In.readInt();
+				if(length >= 0){
+					byte[] bytes = new byte[length];
+					In.readFully(bytes);
+					Notice = new String(bytes, "UTF-8");
+				}else{
+					Notice = null;
+				}
+				Remaining--;
+				return true;
+			}catch(IOException e){
+				Remaining = 0;
+				return false;
+			}
+		}
+
+		void close(){
+			close(In);
+		}
+
+		private static void close(DataInputStream in){
+			if(in != null){
+				try{
+					in.close();
+				}catch(IOException e){
+					// only read from
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,104 @@
+package mobilehome.info;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders the notices of a roll on a ForkJoinPool and writes them in lot
+ * order. Each lot's notice is rendered into its own slot, and the slots are
+ * written one after another, so the file is byte for byte the same as the
+ * one written by MobileHomeInfo.GenerateLateNotices.
+ */
+public class ParallelNoticeRenderer {
+	/** Lots rendered by one task before the pool stops splitting. */
+	private final static int LOTS_PER_TASK = 16;
+
+	private final ForkJoinPool Pool;
+
+	public ParallelNoticeRenderer(ForkJoinPool pool){
+		Pool = pool;
+	}
+
+	public ParallelNoticeRenderer(){
+		this(new ForkJoinPool());
+	}
+
+	/**
+	 * Renders the notice of every lot in parallel.
+	 *
+	 * @return the notice of each lot, in list order, or null for lots that
+	 * do not get a notice
+	 */
+	public String[] render(List<MobileHomeInfo> mobilehomeinfo, LateNoticeTemplate template){
+		String[] notices = new String[mobilehomeinfo.size()];
+		Pool.invoke(new RenderTask(mobilehomeinfo, template, notices, 0, notices.length));
+		return notices;
+	}
+
+	/**
+	 * Renders the notices in parallel and writes them to one file, in lot order.
+	 */
+	public void generateLateNotices(List<MobileHomeInfo> mobilehomeinfo, LateNoticeTemplate template,
+			String outputfile) throws IOException{
+		write(render(mobilehomeinfo, template), outputfile);
+	}
+
+	/**
+	 * Writes rendered notices to one file, skipping null entries.
+	 */
+	static void write(String[] notices, String outputfile) throws IOException{
+		RunMetrics.Span span = RunMetrics.start(RunMetrics.WRITE);
+		try{
+			StreamingNoticeWriter writer = new StreamingNoticeWriter(new FileOutputStream(outputfile));
+			try{
+				for(String notice : notices){
+					if(notice != null){
+						writer.write(notice);
+					}
+				}
+			}finally{
+				writer.close();
+			}
+			span.stop(new File(outputfile).length());
+		}finally{
+			span.fail();
+		}
+	}
+
+	private static class RenderTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		private final List<MobileHomeInfo> MobileHomes;
+		private final LateNoticeTemplate Template;
+		private final String[] Notices;
+		private final int From;
+		private final int To;
+
+		RenderTask(List<MobileHomeInfo> mobilehomes, LateNoticeTemplate template, String[] notices, int from, int to){
+			MobileHomes = mobilehomes;
+			Template = template;
+			Notices = notices;
+			From = from;
+			To = to;
+		}
+
+		protected void compute(){
+			if(To - From <= LOTS_PER_TASK){
+				StringBuilder xml = new StringBuilder(8192);
+				for(int i = From; i < To; i++){
+					xml.setLength(0);
+					if(Template.render(MobileHomes.get(i), xml)){
+						Notices[i] = xml.toString();
+					}
+				}
+				return;
+			}
+			int middle = (From + To) >>> 1;
+			invokeAll(new RenderTask(MobileHomes, Template, Notices, From, middle),
+					new RenderTask(MobileHomes, Template, Notices, middle, To));
+		}
+	}
+}
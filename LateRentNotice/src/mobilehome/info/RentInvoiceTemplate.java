@@ -23,6 +23,8 @@ public class RentInvoiceTemplate {
 	public final static int INVOICE_PREVIOUS_LATE_FEE_ROW=12;
 	public final static int INVOICE_CREDIT_COL=4;
 	public final static int INVOICE_CREDIT_ROW=13;
+	public final static int INVOICE_RENT_LABEL_COL=0;
+	public final static int INVOICE_RENT_LABEL_ROW=14;
 	public final static int INVOICE_RENT_COL=4;
 	public final static int INVOICE_RENT_ROW=14;
 	public final static int INVOICE_DUE_BEFORE_MONTH_5TH_COL=4;
@@ -36,6 +38,18 @@ public class RentInvoiceTemplate {
 	public final static int INVOICE_5TH_LATE_FEE_ROW=19;
 	public final static int INVOICE_10TH_LATE_FEE_COL=0;
 	public final static int INVOICE_10TH_LATE_FEE_ROW=22;
+
+	//Late Fee Amounts (unit price and line total)
+	public final static int INVOICE_5TH_LATE_FEE_AMOUNT_COL=4;
+	public final static int INVOICE_5TH_LATE_FEE_AMOUNT_ROW=19;
+	public final static int INVOICE_5TH_LATE_FEE_TOTAL_COL=6;
+	public final static int INVOICE_5TH_LATE_FEE_TOTAL_ROW=19;
+	public final static int INVOICE_10TH_LATE_FEE_AMOUNT_COL=4;
+	public final static int INVOICE_10TH_LATE_FEE_AMOUNT_ROW=22;
+	public final static int INVOICE_10TH_LATE_FEE_TOTAL_COL=6;
+	public final static int INVOICE_10TH_LATE_FEE_TOTAL_ROW=22;
+	public final static int INVOICE_TOTAL_AFTER_MONTH_10TH_COL=6;
+	public final static int INVOICE_TOTAL_AFTER_MONTH_10TH_ROW=23;
 	
 	//Special Announcement Section
 	public final static int INVOICE_ANNOUNCE_COL=0;
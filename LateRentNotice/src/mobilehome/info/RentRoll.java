@@ -0,0 +1,222 @@
+package mobilehome.info;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A Rent Roll held column by column: one primitive array per field, amounts
+ * in cents. Aggregates such as the total due or the delinquent lots are
+ * plain loops over the arrays, so rolling up many parks and months stays
+ * cheap. Rows can be converted back to MobileHomeInfo with get().
+ */
+public class RentRoll {
+	private int Size;
+	private int[] LotNumber;
+	private long[] Rent;
+	private long[] PreviousBalance;
+	private long[] LateFee;
+	private long[] Credit;
+	private long[] ReceivedBefore5th;
+
+	public RentRoll(int capacity){
+		LotNumber = new int[capacity];
+		Rent = new long[capacity];
+		PreviousBalance = new long[capacity];
+		LateFee = new long[capacity];
+		Credit = new long[capacity];
+		ReceivedBefore5th = new long[capacity];
+	}
+
+	public RentRoll(){
+		this(32);
+	}
+
+	/**
+	 * Builds a roll from MobileHomeInfo objects.
+	 */
+	public static RentRoll of(List<MobileHomeInfo> mobilehomeinfo){
+		RentRoll roll = new RentRoll(mobilehomeinfo.size());
+		for(MobileHomeInfo mh : mobilehomeinfo){
+			roll.add(mh.getLotNumber(),
+					mh.getExpectedMonthlyRent(),
+					mh.getPreviousBalance(),
+					mh.getLateFee(),
+					mh.getCredit(),
+					mh.getReceivedBefore5th());
+		}
+		return roll;
+	}
+
+	/**
+	 * Appends a lot; amounts are in cents.
+	 */
+	public void add(int lotnumber, long rent, long previousbalance, long latefee, long credit, long receivedbefore5th){
+		if(Size == LotNumber.length){
+			grow(Math.max(16, Size * 2));
+		}
+		LotNumber[Size] = lotnumber;
+		Rent[Size] = rent;
+		PreviousBalance[Size] = previousbalance;
+		LateFee[Size] = latefee;
+		Credit[Size] = credit;
+		ReceivedBefore5th[Size] = receivedbefore5th;
+		Size++;
+	}
+
+	/**
+	 * Appends every lot of another roll, e.g. to roll up several parks or months.
+	 */
+	public void addAll(RentRoll other){
+		if(Size + other.Size > LotNumber.length){
+			grow(Math.max(Size + other.Size, Size * 2));
+		}
+		System.arraycopy(other.LotNumber, 0, LotNumber, Size, other.Size);
+		System.arraycopy(other.Rent, 0, Rent, Size, other.Size);
+		System.arraycopy(other.PreviousBalance, 0, PreviousBalance, Size, other.Size);
+		System.arraycopy(other.LateFee, 0, LateFee, Size, other.Size);
+		System.arraycopy(other.Credit, 0, Credit, Size, other.Size);
+		System.arraycopy(other.ReceivedBefore5th, 0, ReceivedBefore5th, Size, other.Size);
+		Size += other.Size;
+	}
+
+	private void grow(int capacity){
+		LotNumber = Arrays.copyOf(LotNumber, capacity);
+		Rent = Arrays.copyOf(Rent, capacity);
+		PreviousBalance = Arrays.copyOf(PreviousBalance, capacity);
+		LateFee = Arrays.copyOf(LateFee, capacity);
+		Credit = Arrays.copyOf(Credit, capacity);
+		ReceivedBefore5th = Arrays.copyOf(ReceivedBefore5th, capacity);
+	}
+
+	public int size(){return Size;}
+	public int getLotNumber(int i){return LotNumber[i];}
+	public long getRent(int i){return Rent[i];}
+	public long getPreviousBalance(int i){return PreviousBalance[i];}
+	public long getLateFee(int i){return LateFee[i];}
+	public long getCredit(int i){return Credit[i];}
+	public long getReceivedBefore5th(int i){return ReceivedBefore5th[i];}
+
+	/**
+	 * Returns the amount due by lot i in cents, the same sum as MobileHomeInfo.TotalDue().
+	 */
+	public long amountDue(int i){
+		return Rent[i] + PreviousBalance[i] + LateFee[i] + Credit[i];
+	}
+
+	/**
+	 * Returns the amount due by all lots in cents.
+	 */
+	public long totalDue(){
+		long total = 0;
+		for(int i = 0; i < Size; i++){
+			total += Rent[i] + PreviousBalance[i] + LateFee[i] + Credit[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the amount received before the 5th by all lots in cents.
+	 */
+	public long totalReceivedBefore5th(){
+		long total = 0;
+		for(int i = 0; i < Size; i++){
+			total += ReceivedBefore5th[i];
+		}
+		return total;
+	}
+
+	/**
+	 * Returns the number of lots that owe more than they paid before the 5th.
+	 */
+	public int countDelinquent(){
+		int count = 0;
+		for(int i = 0; i < Size; i++){
+			long due = Rent[i] + PreviousBalance[i] + LateFee[i] + Credit[i];
+			count += (due > ReceivedBefore5th[i]) ? 1 : 0;
+		}
+		return count;
+	}
+
+	/**
+	 * Returns a bitmap of the lots that owe more than they paid before the
+	 * 5th: bit (i % 64) of word (i / 64) is set for delinquent lot i.
+	 */
+	public long[] delinquentBitmap(){
+		long[] bitmap = new long[(Size + 63) >>> 6];
+		for(int i = 0; i < Size; i++){
+			long due = Rent[i] + PreviousBalance[i] + LateFee[i] + Credit[i];
+			if(due > ReceivedBefore5th[i]){
+				bitmap[i >>> 6] |= 1L << i;
+			}
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Returns the unpaid balance (amount due less received before the 5th)
+	 * of the delinquent lots in cents.
+	 */
+	public long totalDelinquentBalance(){
+		long total = 0;
+		for(int i = 0; i < Size; i++){
+			long balance = Rent[i] + PreviousBalance[i] + LateFee[i] + Credit[i] - ReceivedBefore5th[i];
+			total += (balance > 0) ? balance : 0;
+		}
+		return total;
+	}
+
+	/**
+	 * Writes the balance of every lot (amount due less received before the
+	 * 5th, negative when overpaid) in cents to out, in roll order.
+	 *
+	 * @return the number of lots written
+	 */
+	public int unpaidBalances(long[] out){
+		for(int i = 0; i < Size; i++){
+			out[i] = Rent[i] + PreviousBalance[i] + LateFee[i] + Credit[i] - ReceivedBefore5th[i];
+		}
+		return Size;
+	}
+
+	/**
+	 * Returns a 64-bit FNV-1a hash of every field of lot i, used to tell
+	 * whether a row changed between two runs.
+	 */
+	public long rowHash(int i){
+		long hash = 0xcbf29ce484222325L;
+		hash = mix(hash, LotNumber[i]);
+		hash = mix(hash, Rent[i]);
+		hash = mix(hash, PreviousBalance[i]);
+		hash = mix(hash, LateFee[i]);
+		hash = mix(hash, Credit[i]);
+		return mix(hash, ReceivedBefore5th[i]);
+	}
+
+	private static long mix(long hash, long value){
+		for(int shift = 0; shift < 64; shift += 8){
+			hash ^= (value >>> shift) & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return hash;
+	}
+
+	/**
+	 * Returns lot i as a MobileHomeInfo.
+	 */
+	public MobileHomeInfo get(int i){
+		return new MobileHomeInfo(Rent[i], PreviousBalance[i], LateFee[i], Credit[i], LotNumber[i],
+				ReceivedBefore5th[i]);
+	}
+
+	/**
+	 * Returns every lot as a MobileHomeInfo, in roll order.
+	 */
+	public List<MobileHomeInfo> toList(){
+		List<MobileHomeInfo> mobilehomeinfo = new ArrayList<MobileHomeInfo>(Size);
+		for(int i = 0; i < Size; i++){
+			mobilehomeinfo.add(get(i));
+		}
+		return mobilehomeinfo;
+	}
+}
@@ -0,0 +1,219 @@
+package mobilehome.info;
+
+import java.util.Arrays;
+
+/**
+ * Turns Rent Roll rows into MobileHomeInfo objects. The column of every
+ * field is resolved once, from the header row when there is one, into a
+ * table indexed by column number; decoding a row is then a single pass over
+ * its cells that stores each value straight into a primitive slot. Column
+ * numbers are 0 based, so column 'A' is 0 and column 'AA' is 26.
+ *
+ * <p>A decoder keeps the values of the row being decoded, so each thread
+ * needs its own instance.
+ */
+public class RentRollDecoder {
+	private final static int LOT_NUMBER = 0;
+	private final static int LOT_RENT = 1;
+	private final static int MHP_RENT = 2;
+	private final static int TAXES_INSURANCE = 3;
+	private final static int PREVIOUS_BALANCE = 4;
+	private final static int LATE_FEE = 5;
+	private final static int CREDIT = 6;
+	private final static int RECEIVED_BEFORE_5TH = 7;
+	private final static int SLOTS = 8;
+
+	/** Column used for each slot when the header does not name it. */
+	private final static int[] DEFAULT_COLUMNS = {
+		MobileHomeInfo.COL_LOT_NUMBER,
+		MobileHomeInfo.COL_LOT_RENT,
+		MobileHomeInfo.COL_MHP_RENT,
+		MobileHomeInfo.COL_TAXES_INSURANCE,
+		MobileHomeInfo.COL_PREVIOUS_BALANCE,
+		MobileHomeInfo.COL_LATE_FEE,
+		MobileHomeInfo.COL_CREDIT,
+		MobileHomeInfo.COL_RECEIVED_BEFORE_5TH
+	};
+
+	/**
+	 * Header names recognised for each slot, lower case letters and digits
+	 * only. A header must equal one of them once normalized, so "Balance
+	 * Forward" or "Taxes Due" name no field.
+	 */
+	private final static String[][] HEADER_NAMES = {
+		{"lot", "lotnumber", "lotno"},
+		{"lotrent"},
+		{"mhprent", "mhrent", "homerent"},
+		{"taxesinsurance", "taxesandinsurance", "taxinsurance"},
+		{"previousbalance", "prevbalance"},
+		{"latefee", "latefees"},
+		{"credit", "credits"},
+		{"receivedbefore5th", "paidbefore5th"}
+	};
+	/** Name of each slot in error messages. */
+	private final static String[] SLOT_NAMES = {
+		"Lot", "Lot Rent", "MHP Rent", "Taxes Insurance", "Previous Balance", "Late Fee", "Credit",
+		"Received Before 5th"
+	};
+
+	private final int[] SlotOfColumn;
+	//amounts in cents, the lot number times 100
+	private final long[] Values = new long[SLOTS];
+
+	private RentRollDecoder(int[] columns){
+		int width = 0;
+		for(int column : columns){
+			width = Math.max(width, column + 1);
+		}
+		SlotOfColumn = new int[width];
+		Arrays.fill(SlotOfColumn, -1);
+		for(int slot = 0; slot < SLOTS; slot++){
+			if(columns[slot] >= 0){
+				SlotOfColumn[columns[slot]] = slot;
+			}
+		}
+	}
+
+	/**
+	 * Returns a decoder for the standard Rent Roll layout (the
+	 * MobileHomeInfo.COL_* constants).
+	 */
+	public static RentRollDecoder defaults(){
+		return new RentRollDecoder(DEFAULT_COLUMNS);
+	}
+
+	/**
+	 * Returns a decoder for the columns named in a header row. Once any
+	 * column names a field, every field must be named by exactly one
+	 * column; a header naming none of them, e.g. a row of column letters,
+	 * gets the standard layout.
+	 *
+	 * @param header the header text of each column, null entries allowed
+	 *
+	 * @throws IllegalArgumentException if a field is not named, or named by
+	 *     more than one column
+	 */
+	public static RentRollDecoder fromHeader(String[] header){
+		int[] columns = new int[SLOTS];
+		Arrays.fill(columns, -1);
+		StringBuilder errors = new StringBuilder();
+		boolean named = false;
+		for(int col = 0; col < header.length; col++){
+			if(header[col] == null){
+				continue;
+			}
+			int slot = slotOf(normalize(header[col]));
+			if(slot < 0){
+				continue;
+			}
+			named = true;
+			if(columns[slot] >= 0){
+				errors.append(errors.length() == 0 ? "" : ", ").append(SLOT_NAMES[slot]).append(" is named by columns ")
+						.append(columns[slot] + 1).append(" and ").append(col + 1);
+			}else{
+				columns[slot] = col;
+			}
+		}
+		if(!named){
+			return defaults();
+		}
+		for(int slot = 0; slot < SLOTS; slot++){
+			if(columns[slot] < 0){
+				errors.append(errors.length() == 0 ? "" : ", ").append(SLOT_NAMES[slot]).append(" is not named");
+			}
+		}
+		if(errors.length() > 0){
+			throw new IllegalArgumentException("Rent Roll header: " + errors);
+		}
+		return new RentRollDecoder(columns);
+	}
+
+	/** Returns the slot a normalized header names, or -1. */
+	private static int slotOf(String name){
+		for(int slot = 0; slot < SLOTS; slot++){
+			for(String slotname : HEADER_NAMES[slot]){
+				if(slotname.equals(name)){
+					return slot;
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static String normalize(String header){
+		StringBuilder name = new StringBuilder(header.length());
+		for(int i = 0; i < header.length(); i++){
+			char c = Character.toLowerCase(header.charAt(i));
+			if((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9')){
+				name.append(c);
+			}
+		}
+		return name.toString();
+	}
+
+	/**
+	 * Returns true if the column holds one of the fields.
+	 */
+	public boolean isUsed(int col){
+		return col >= 0 && col < SlotOfColumn.length && SlotOfColumn[col] >= 0;
+	}
+
+	/**
+	 * Returns one past the last column holding a field.
+	 */
+	public int getWidth(){
+		return SlotOfColumn.length;
+	}
+
+	/**
+	 * Starts a new row; fields without a cell decode as 0.
+	 */
+	public void beginRow(){
+		Arrays.fill(Values, 0);
+	}
+
+	/**
+	 * Stores a numeric cell of the current row. Columns without a field are ignored.
+	 */
+	public void cell(int col, double value){
+		if(isUsed(col)){
+			Values[SlotOfColumn[col]] = Money.fromDouble(value);
+		}
+	}
+
+	/**
+	 * Stores a text cell of the current row. Amounts may carry '$' and ','.
+	 * Columns without a field are ignored.
+	 */
+	public void cell(int col, String value){
+		if(isUsed(col)){
+			Values[SlotOfColumn[col]] = Money.parse(value);
+		}
+	}
+
+	/**
+	 * Returns the lot decoded from the cells stored since beginRow.
+	 */
+	public MobileHomeInfo endRow(){
+		return new MobileHomeInfo(Values[LOT_RENT] + Values[MHP_RENT] + Values[TAXES_INSURANCE],
+								Values[PREVIOUS_BALANCE],
+								Values[LATE_FEE],
+								Values[CREDIT],
+								(int) (Values[LOT_NUMBER] / 100),
+								Values[RECEIVED_BEFORE_5TH]);
+	}
+
+	/**
+	 * Decodes a row given as one value per column.
+	 */
+	public MobileHomeInfo decode(String[] values){
+		beginRow();
+		int width = Math.min(values.length, SlotOfColumn.length);
+		for(int col = 0; col < width; col++){
+			if(values[col] != null){
+				cell(col, values[col]);
+			}
+		}
+		return endRow();
+	}
+}
@@ -0,0 +1,22 @@
+package mobilehome.info;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Supplies the lots of one Rent Roll worksheet to the notice generator.
+ * Implementations read the same column layout as the "Rent Roll" spreadsheet
+ * (see the COL_* constants in MobileHomeInfo), one lot per row after the
+ * header row.
+ */
+public interface RentRollSource {
+
+	/**
+	 * Loads every lot of a park from the given worksheet, in row order.
+	 *
+	 * @param mobilepark MobileHomeInfo.CT or MobileHomeInfo.MESA
+	 * @param worksheetname name of the monthly worksheet, e.g. "May 2014"
+	 * @throws IOException if the worksheet cannot be found or read
+	 */
+	List<MobileHomeInfo> load(int mobilepark, String worksheetname) throws IOException;
+}
@@ -0,0 +1,369 @@
+package mobilehome.info;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Wall time, call count, errors, bytes and allocations of each stage of a
+ * notice run (auth, spreadsheet and worksheet lookup, cell fetch, decode,
+ * render, write), with a latency histogram per stage. Every feed call is
+ * one call of its stage, so the histograms of the feed stages are the
+ * latencies of those calls.
+ *
+ * <p>Stages are timed with spans, fail() in a finally block counting the
+ * calls that throw:
+ * <pre>
+ * RunMetrics.Span span = RunMetrics.start(RunMetrics.FETCH);
+ * try{
+ *     ... fetch ...
+ *     span.stop(bytes);
+ * }finally{
+ *     span.fail();
+ * }
+ * </pre>
+ * Until enable() is called start() returns a span that does nothing, so
+ * the instrumented code costs next to nothing when metrics are off.
+ * Allocations are those of the thread that ran the span, as reported by
+ * the JVM's per-thread allocation counter; work a stage hands to other
+ * threads is timed but its allocations are not counted.
+ *
+ * <p>At the end of a run, writeJson and writePrometheus save the figures,
+ * the latter in the Prometheus text format for the node exporter's
+ * textfile collector.
+ */
+public class RunMetrics {
+	public final static String AUTH = "auth";
+	public final static String SPREADSHEET = "spreadsheet";
+	public final static String WORKSHEET = "worksheet";
+	public final static String FETCH = "fetch";
+	public final static String DECODE = "decode";
+	public final static String RENDER = "render";
+	public final static String WRITE = "write";
+	private final static String[] STAGES = {AUTH, SPREADSHEET, WORKSHEET, FETCH, DECODE, RENDER, WRITE};
+
+	public final static String DEFAULT_DIRECTORY = "resources/metrics";
+	private final static String PREFIX = "latenotice";
+
+	/** Upper bounds of the latency buckets, in milliseconds; the last bucket is unbounded. */
+	private final static long[] BUCKETS_MILLIS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+	private static volatile RunMetrics Current;
+
+	private final long StartMillis = System.currentTimeMillis();
+	private final long StartNanos = System.nanoTime();
+	private final ConcurrentMap<String, Stage> Stages = new ConcurrentHashMap<String, Stage>();
+	private final com.sun.management.ThreadMXBean Threads;
+
+	private RunMetrics(){
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()){
+			Threads = (com.sun.management.ThreadMXBean) threads;
+			Threads.setThreadAllocatedMemoryEnabled(true);
+		}else{
+			Threads = null;
+		}
+		for(String stage : STAGES){
+			Stages.put(stage, new Stage());
+		}
+	}
+
+	/**
+	 * Starts recording, from now on, and returns the metrics of this run.
+	 */
+	public static RunMetrics enable(){
+		Current = new RunMetrics();
+		return Current;
+	}
+
+	/**
+	 * Returns the metrics being recorded, or null if not enabled.
+	 */
+	public static RunMetrics current(){
+		return Current;
+	}
+
+	/**
+	 * Starts timing one call of a stage on the current thread.
+	 */
+	public static Span start(String stage){
+		RunMetrics metrics = Current;
+		return (metrics == null) ? Span.NONE : new Span(metrics, stage);
+	}
+
+	/**
+	 * Times one call of a stage. A span can be paused and resumed to leave
+	 * out work that belongs to another stage.
+	 */
+	public static class Span {
+		final static Span NONE = new Span(null, null);
+
+		private final RunMetrics Metrics;
+		private final String Stage;
+		private long Nanos;
+		private long Allocated;
+		private long StartNanos;
+		private long StartAllocated;
+		private boolean Running;
+		private boolean Ended;
+
+		Span(RunMetrics metrics, String stage){
+			Metrics = metrics;
+			Stage = stage;
+			resume();
+		}
+
+		/** Stops the clock until resume(). */
+		public void pause(){
+			if(Metrics != null && Running){
+				Nanos += System.nanoTime() - StartNanos;
+				Allocated += Metrics.allocated() - StartAllocated;
+				Running = false;
+			}
+		}
+
+		/** Starts the clock again. */
+		public void resume(){
+			if(Metrics != null && !Running){
+				StartAllocated = Metrics.allocated();
+				StartNanos = System.nanoTime();
+				Running = true;
+			}
+		}
+
+		/** Records a successful call that moved no data worth counting. */
+		public void stop(){
+			stop(0);
+		}
+
+		/** Records a successful call that read or wrote the given number of bytes. */
+		public void stop(long bytes){
+			end(bytes, false);
+		}
+
+		/**
+		 * Records a failed call, unless the call was already recorded, so it
+		 * can go in a finally block after stop().
+		 */
+		public void fail(){
+			end(0, true);
+		}
+
+		private void end(long bytes, boolean failed){
+			if(Metrics != null && !Ended){
+				Ended = true;
+				pause();
+				Metrics.record(Stage, Nanos, bytes, Allocated, failed);
+			}
+		}
+	}
+
+	private long allocated(){
+		return (Threads == null) ? 0 : Threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	void record(String name, long nanos, long bytes, long allocated, boolean failed){
+		Stage stage = Stages.get(name);
+		if(stage == null){
+			//threads adding the same stage at once all record into the one that got in
+			Stage added = new Stage();
+			stage = Stages.putIfAbsent(name, added);
+			if(stage == null){
+				stage = added;
+			}
+		}
+		stage.Calls.incrementAndGet();
+		if(failed){
+			stage.Errors.incrementAndGet();
+		}
+		stage.Nanos.addAndGet(nanos);
+		stage.Bytes.addAndGet(bytes);
+		stage.Allocated.addAndGet(allocated);
+		long max;
+		while(nanos > (max = stage.MaxNanos.get()) && !stage.MaxNanos.compareAndSet(max, nanos)){
+		}
+		int bucket = 0;
+		while(bucket < BUCKETS_MILLIS.length && nanos > BUCKETS_MILLIS[bucket] * 1000000L){
+			bucket++;
+		}
+		stage.Buckets.incrementAndGet(bucket);
+	}
+
+	private static class Stage {
+		final AtomicLong Calls = new AtomicLong();
+		final AtomicLong Errors = new AtomicLong();
+		final AtomicLong Nanos = new AtomicLong();
+		final AtomicLong MaxNanos = new AtomicLong();
+		final AtomicLong Bytes = new AtomicLong();
+		final AtomicLong Allocated = new AtomicLong();
+		final AtomicLongArray Buckets = new AtomicLongArray(BUCKETS_MILLIS.length + 1);
+	}
+
+	/** Stage names, the known stages first in pipeline order. */
+	private List<String> names(){
+		List<String> names = new ArrayList<String>();
+		for(String stage : STAGES){
+			names.add(stage);
+		}
+		for(String stage : Stages.keySet()){
+			if(!names.contains(stage)){
+				names.add(stage);
+			}
+		}
+		return names;
+	}
+
+	private double runSeconds(){
+		return (System.nanoTime() - StartNanos) / 1e9;
+	}
+
+	/**
+	 * Prints one line per stage that ran: calls, errors, total and longest
+	 * time, bytes and allocations.
+	 */
+	public void print(PrintStream out){
+		out.println(String.format(Locale.US, "%-12s %7s %6s %10s %10s %12s %12s",
+				"stage", "calls", "errors", "total ms", "max ms", "bytes", "allocated"));
+		for(String name : names()){
+			Stage stage = Stages.get(name);
+			if(stage.Calls.get() == 0){
+				continue;
+			}
+			out.println(String.format(Locale.US, "%-12s %7d %6d %10.1f %10.1f %12d %12d",
+					name, stage.Calls.get(), stage.Errors.get(), stage.Nanos.get() / 1e6,
+					stage.MaxNanos.get() / 1e6, stage.Bytes.get(), stage.Allocated.get()));
+		}
+		out.println(String.format(Locale.US, "run %.1f ms", runSeconds() * 1000));
+	}
+
+	/**
+	 * Writes the figures as one JSON object: the run's start and length, and
+	 * for each stage its counters and latency histogram (bucket upper bounds
+	 * in milliseconds, non-cumulative counts, the last bucket unbounded).
+	 */
+	public void writeJson(File file) throws IOException{
+		StringBuilder json = new StringBuilder(4096);
+		json.append("{\n  \"start\": ").append(StartMillis);
+		json.append(",\n  \"seconds\": ").append(String.format(Locale.US, "%.6f", runSeconds()));
+		json.append(",\n  \"bucketsMillis\": [");
+		for(int i = 0; i < BUCKETS_MILLIS.length; i++){
+			json.append(i == 0 ? "" : ", ").append(BUCKETS_MILLIS[i]);
+		}
+		json.append("],\n  \"stages\": {");
+		boolean first = true;
+		for(String name : names()){
+			Stage stage = Stages.get(name);
+			json.append(first ? "\n" : ",\n").append("    \"").append(name).append("\": {");
+			json.append("\"calls\": ").append(stage.Calls.get());
+			json.append(", \"errors\": ").append(stage.Errors.get());
+			json.append(", \"seconds\": ").append(String.format(Locale.US, "%.6f", stage.Nanos.get() / 1e9));
+			json.append(", \"maxSeconds\": ").append(String.format(Locale.US, "%.6f", stage.MaxNanos.get() / 1e9));
+			json.append(", \"bytes\": ").append(stage.Bytes.get());
+			json.append(", \"allocatedBytes\": ").append(stage.Allocated.get());
+			json.append(", \"buckets\": [");
+			for(int i = 0; i < stage.Buckets.length(); i++){
+				json.append(i == 0 ? "" : ", ").append(stage.Buckets.get(i));
+			}
+			json.append("]}");
+			first = false;
+		}
+		json.append("\n  }\n}\n");
+		write(file, json);
+	}
+
+	/**
+	 * Writes the figures in the Prometheus text format: a latency histogram
+	 * and counters per stage, labelled with the stage name.
+	 */
+	public void writePrometheus(File file) throws IOException{
+		StringBuilder text = new StringBuilder(8192);
+		List<String> names = names();
+		text.append("# HELP ").append(PREFIX).append("_stage_seconds Time spent per call of each stage.\n");
+		text.append("# TYPE ").append(PREFIX).append("_stage_seconds histogram\n");
+		for(String name : names){
+			Stage stage = Stages.get(name);
+			long cumulative = 0;
+			for(int i = 0; i < stage.Buckets.length(); i++){
+				cumulative += stage.Buckets.get(i);
+				String le = (i < BUCKETS_MILLIS.length)
+						? String.format(Locale.US, "%s", BUCKETS_MILLIS[i] / 1000.0) : "+Inf";
+				text.append(PREFIX).append("_stage_seconds_bucket{stage=\"").append(name)
+						.append("\",le=\"").append(le).append("\"} ").append(cumulative).append('\n');
+			}
+			text.append(PREFIX).append("_stage_seconds_sum{stage=\"").append(name).append("\"} ")
+					.append(String.format(Locale.US, "%.6f", stage.Nanos.get() / 1e9)).append('\n');
+			text.append(PREFIX).append("_stage_seconds_count{stage=\"").append(name).append("\"} ")
+					.append(stage.Calls.get()).append('\n');
+		}
+		counter(text, names, "errors", "Failed calls of each stage.", new Counter(){
+			long get(Stage stage){
+				return stage.Errors.get();
+			}
+		});
+		counter(text, names, "bytes", "Bytes read or written by each stage.", new Counter(){
+			long get(Stage stage){
+				return stage.Bytes.get();
+			}
+		});
+		counter(text, names, "allocated_bytes", "Bytes allocated by each stage on its own thread.", new Counter(){
+			long get(Stage stage){
+				return stage.Allocated.get();
+			}
+		});
+		text.append("# HELP ").append(PREFIX).append("_run_seconds Length of the last run.\n");
+		text.append("# TYPE ").append(PREFIX).append("_run_seconds gauge\n");
+		text.append(PREFIX).append("_run_seconds ").append(String.format(Locale.US, "%.6f", runSeconds())).append('\n');
+		text.append("# HELP ").append(PREFIX).append("_run_start_timestamp_seconds Start of the last run.\n");
+		text.append("# TYPE ").append(PREFIX).append("_run_start_timestamp_seconds gauge\n");
+		text.append(PREFIX).append("_run_start_timestamp_seconds ").append(StartMillis / 1000).append('\n');
+		write(file, text);
+	}
+
+	private abstract static class Counter {
+		abstract long get(Stage stage);
+	}
+
+	private void counter(StringBuilder text, List<String> names, String metric, String help, Counter counter){
+		text.append("# HELP ").append(PREFIX).append("_stage_").append(metric).append("_total ").append(help).append('\n');
+		text.append("# TYPE ").append(PREFIX).append("_stage_").append(metric).append("_total counter\n");
+		for(String name : names){
+			text.append(PREFIX).append("_stage_").append(metric).append("_total{stage=\"").append(name).append("\"} ")
+					.append(counter.get(Stages.get(name))).append('\n');
+		}
+	}
+
+	/**
+	 * Writes to a temporary file first and renames it, so a collector never
+	 * reads half a file.
+	 */
+	private static void write(File file, CharSequence text) throws IOException{
+		File directory = file.getAbsoluteFile().getParentFile();
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Could not create directory " + directory);
+		}
+		File temporary = new File(directory, file.getName() + ".tmp");
+		OutputStream out = new FileOutputStream(temporary);
+		try{
+			out.write(text.toString().getBytes("UTF-8"));
+		}finally{
+			out.close();
+		}
+		if(!temporary.renameTo(file)){
+			file.delete();
+			if(!temporary.renameTo(file)){
+				throw new IOException("Could not rename " + temporary + " to " + file);
+			}
+		}
+	}
+}
@@ -0,0 +1,159 @@
+package mobilehome.info;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal in-process SMTP server for trying out NoticeMailer without a
+ * real mail server. It accepts every sender and recipient and saves each
+ * message it receives as a numbered .eml file. A response delay and a
+ * failure rate can be set to see how the mailer copes with a slow or
+ * flaky server.
+ */
+public class SmtpStub implements Runnable {
+	private final ServerSocket Server;
+	private final File Directory;
+	private final AtomicInteger Received = new AtomicInteger();
+	private volatile long ResponseDelayMillis = 0;
+	private volatile int FailEvery = 0;
+	private final AtomicInteger Messages = new AtomicInteger();
+
+	/**
+	 * Listens on the loopback interface.
+	 *
+	 * @param port the port to listen on, 0 for any free port
+	 * @param directory where received messages are saved
+	 */
+	public SmtpStub(int port, File directory) throws IOException{
+		Server = new ServerSocket(port, 50, InetAddress.getByName("127.0.0.1"));
+		Directory = directory;
+		if(!Directory.isDirectory() && !Directory.mkdirs()){
+			throw new IOException("Could not create directory " + Directory);
+		}
+	}
+
+	/** Returns the port the stub listens on. */
+	public int getPort(){
+		return Server.getLocalPort();
+	}
+
+	/** Returns the number of messages saved so far. */
+	public int getReceived(){
+		return Received.get();
+	}
+
+	/** Waits this long before every response. */
+	public void setResponseDelay(long millis){
+		ResponseDelayMillis = millis;
+	}
+
+	/** Rejects every n-th message with a temporary error; 0 accepts all. */
+	public void setFailEvery(int n){
+		FailEvery = n;
+	}
+
+	/**
+	 * Starts accepting connections on a daemon thread.
+	 */
+	public SmtpStub start(){
+		Thread thread = new Thread(this, "smtp-stub");
+		thread.setDaemon(true);
+		thread.start();
+		return this;
+	}
+
+	public void close() throws IOException{
+		Server.close();
+	}
+
+	public void run(){
+		while(!Server.isClosed()){
+			try{
+				final Socket socket = Server.accept();
+				Thread session = new Thread(new Runnable(){
+					public void run(){
+						try{
+							converse(socket);
+						}catch(IOException e){
+							//client went away
+						}finally{
+							try{
+								socket.close();
+							}catch(IOException e){
+								//already closed
+							}
+						}
+					}
+				}, "smtp-stub-session");
+				session.setDaemon(true);
+				session.start();
+			}catch(IOException e){
+				//closed
+			}
+		}
+	}
+
+	private void converse(Socket socket) throws IOException{
+		BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+		Writer out = new OutputStreamWriter(socket.getOutputStream(), "ISO-8859-1");
+		reply(out, "220 localhost SMTP stub");
+		String line;
+		while((line = in.readLine()) != null){
+			String command = line.length() < 4 ? line.toUpperCase() : line.substring(0, 4).toUpperCase();
+			if(command.equals("EHLO") || command.equals("HELO")){
+				reply(out, "250 localhost");
+			}else if(command.equals("DATA")){
+				reply(out, "354 End data with <CR><LF>.<CR><LF>");
+				StringBuilder message = new StringBuilder(8192);
+				while((line = in.readLine()) != null && !line.equals(".")){
+					message.append(line.startsWith("..") ? line.substring(1) : line).append("\r\n");
+				}
+				int n = Messages.incrementAndGet();
+				if(FailEvery > 0 && n % FailEvery == 0){
+					reply(out, "451 Try again later");
+				}else{
+					save(message);
+					reply(out, "250 OK");
+				}
+			}else if(command.equals("QUIT")){
+				reply(out, "221 Bye");
+				return;
+			}else{
+				//MAIL, RCPT, RSET, NOOP and anything else
+				reply(out, "250 OK");
+			}
+		}
+	}
+
+	private void reply(Writer out, String response) throws IOException{
+		if(ResponseDelayMillis > 0){
+			try{
+				Thread.sleep(ResponseDelayMillis);
+			}catch(InterruptedException e){
+				Thread.currentThread().interrupt();
+			}
+		}
+		out.write(response + "\r\n");
+		out.flush();
+	}
+
+	private void save(CharSequence message) throws IOException{
+		File file = new File(Directory, Received.incrementAndGet() + ".eml");
+		OutputStream out = new FileOutputStream(file);
+		try{
+			out.write(message.toString().getBytes("ISO-8859-1"));
+		}finally{
+			out.close();
+		}
+	}
+}
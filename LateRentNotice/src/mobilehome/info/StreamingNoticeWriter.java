@@ -0,0 +1,192 @@
+package mobilehome.info;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Calendar;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes a .docx file one paragraph at a time, straight into the zip
+ * stream, instead of building an XWPFDocument in memory. Only the parts a
+ * word processor needs are written ([Content_Types].xml, _rels/.rels and
+ * word/document.xml), so memory use does not grow with the number of
+ * notices. The paragraph markup is the same as XWPFParagraph/XWPFRun
+ * produce for the settings used by the late notices.
+ */
+public class StreamingNoticeWriter implements Closeable {
+	public final static String CENTER = "center";
+	public final static String LEFT = "left";
+	public final static String TIMES_NEW_ROMAN = "Times New Roman";
+
+	private final static String CONTENT_TYPES =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+			+ "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+			+ "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+			+ "<Override PartName=\"/word/document.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>"
+			+ "</Types>";
+	private final static String RELATIONSHIPS =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n"
+			+ "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+			+ "<Relationship Id=\"rId1\" Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" Target=\"word/document.xml\"/>"
+			+ "</Relationships>";
+	private final static String DOCUMENT_START =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\"><w:body>";
+	private final static String DOCUMENT_END = "</w:body></w:document>";
+
+	private final ZipOutputStream zip;
+	private final Writer writer;
+	private final StringBuilder buffer = new StringBuilder(256);
+	private boolean closed = false;
+
+	/**
+	 * Starts a new document on the given stream. The stream is closed by close().
+	 */
+	public StreamingNoticeWriter(OutputStream out) throws IOException {
+		zip = new ZipOutputStream(out);
+		writer = new BufferedWriter(new OutputStreamWriter(zip, "UTF-8"));
+
+		zip.putNextEntry(entry("[Content_Types].xml"));
+		writer.write(CONTENT_TYPES);
+		writer.flush();
+		zip.closeEntry();
+
+		zip.putNextEntry(entry("_rels/.rels"));
+		writer.write(RELATIONSHIPS);
+		writer.flush();
+		zip.closeEntry();
+
+		zip.putNextEntry(entry("word/document.xml"));
+		writer.write(DOCUMENT_START);
+	}
+
+	private static ZipEntry entry(String name){
+		ZipEntry entry = new ZipEntry(name);
+		entry.setTime(entryTime());
+		return entry;
+	}
+
+	/**
+	 * Returns 2 Jan 1980 00:00 in the default time zone, which ZipEntry
+	 * turns into the same DOS date and time on every host, so equal notices
+	 * give equal files. A fixed UTC instant would fall before the DOS epoch
+	 * west of UTC and get a time zone dependent extended timestamp instead.
+	 */
+	private static long entryTime(){
+		Calendar c = Calendar.getInstance();
+		c.clear();
+		c.set(1980, Calendar.JANUARY, 2);
+		return c.getTimeInMillis();
+	}
+
+	/**
+	 * Writes a paragraph holding a single run of text.
+	 *
+	 * @param text the text of the run
+	 * @param alignment CENTER, LEFT or null for the default alignment
+	 * @param pagebreak start the paragraph on a new page
+	 * @param fontfamily font of the run, or null for the default font
+	 * @param bold make the run bold
+	 */
+	public void paragraph(String text, String alignment, boolean pagebreak, String fontfamily, boolean bold)
+			throws IOException {
+		buffer.setLength(0);
+		appendParagraph(buffer, text, alignment, pagebreak, fontfamily, bold);
+		writer.append(buffer);
+	}
+
+	/**
+	 * Writes an empty paragraph with default formatting.
+	 */
+	public void emptyParagraph() throws IOException {
+		paragraph("", null, false, null, false);
+	}
+
+	/**
+	 * Writes already rendered WordprocessingML paragraphs, as produced by
+	 * appendParagraph.
+	 */
+	public void write(CharSequence paragraphs) throws IOException {
+		writer.append(paragraphs);
+	}
+
+	/**
+	 * Appends the WordprocessingML markup of a single run paragraph to xml.
+	 * See paragraph() for the parameters.
+	 */
+	public static void appendParagraph(StringBuilder xml, String text, String alignment, boolean pagebreak,
+			String fontfamily, boolean bold){
+		xml.append("<w:p>");
+		if(pagebreak || alignment != null){
+			xml.append("<w:pPr>");
+			if(pagebreak){
+				xml.append("<w:pageBreakBefore w:val=\"true\"/>");
+			}
+			if(alignment != null){
+				xml.append("<w:jc w:val=\"").append(alignment).append("\"/>");
+			}
+			xml.append("</w:pPr>");
+		}
+		xml.append("<w:r>");
+		if(fontfamily != null || bold){
+			xml.append("<w:rPr>");
+			if(fontfamily != null){
+				xml.append("<w:rFonts w:ascii=\"");
+				appendEscaped(xml, fontfamily);
+				xml.append("\"/>");
+			}
+			if(bold){
+				xml.append("<w:b w:val=\"true\"/>");
+			}
+			xml.append("</w:rPr>");
+		}
+		if(text.length() == 0){
+			xml.append("<w:t/>");
+		}else{
+			if(Character.isWhitespace(text.charAt(0)) || Character.isWhitespace(text.charAt(text.length() - 1))){
+				xml.append("<w:t xml:space=\"preserve\">");
+			}else{
+				xml.append("<w:t>");
+			}
+			appendEscaped(xml, text);
+			xml.append("</w:t>");
+		}
+		xml.append("</w:r></w:p>");
+	}
+
+	/**
+	 * Appends text with the XML special characters escaped.
+	 */
+	public static void appendEscaped(StringBuilder xml, String text){
+		for(int i = 0; i < text.length(); i++){
+			char c = text.charAt(i);
+			switch(c){
+			case '&': xml.append("&amp;"); break;
+			case '<': xml.append("&lt;"); break;
+			case '>': xml.append("&gt;"); break;
+			case '"': xml.append("&quot;"); break;
+			default: xml.append(c);
+			}
+		}
+	}
+
+	/**
+	 * Finishes the document and closes the underlying stream.
+	 */
+	public void close() throws IOException {
+		if(closed){
+			return;
+		}
+		closed = true;
+		writer.write(DOCUMENT_END);
+		writer.flush();
+		zip.closeEntry();
+		writer.close();
+	}
+}
@@ -0,0 +1,220 @@
+package mobilehome.info;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes one file per delinquent lot, as PDF and/or DOCX, next to the
+ * combined notice file, so each tenant's notice can be mailed on its own.
+ * The files of a worksheet are rendered concurrently on a bounded pool
+ * (shared by all worksheets of a run) and written through file channels.
+ * A manifest.tsv listing lot, amounts and file names is written last, in
+ * lot order.
+ */
+public class TenantNoticeWriter {
+	public final static int PDF = 1;
+	public final static int DOCX = 2;
+	public final static int BOTH = PDF | DOCX;
+
+	private final static String MANIFEST = "manifest.tsv";
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private final ExecutorService Pool;
+	private final int Formats;
+
+	/**
+	 * @param formats PDF, DOCX or BOTH
+	 * @param threads maximum number of files rendered at the same time
+	 */
+	public TenantNoticeWriter(int formats, int threads){
+		Formats = formats;
+		Pool = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Parses "pdf", "docx" or "both".
+	 *
+	 * @throws IllegalArgumentException for anything else
+	 */
+	public static int parseFormats(String formats){
+		if("pdf".equalsIgnoreCase(formats)){
+			return PDF;
+		}else if("docx".equalsIgnoreCase(formats)){
+			return DOCX;
+		}else if("both".equalsIgnoreCase(formats)){
+			return BOTH;
+		}
+		throw new IllegalArgumentException("Unknown output format: " + formats);
+	}
+
+	/**
+	 * Returns the directory holding the per lot files of a combined notice
+	 * file: resources/20140509_CT-LateNotice.docx gives
+	 * resources/20140509_CT-LateNotice/.
+	 */
+	public static File directoryFor(String outputfile){
+		String name = outputfile.endsWith(".docx") ? outputfile.substring(0, outputfile.length() - 5) : outputfile;
+		return new File(name);
+	}
+
+	/**
+	 * Told about the files of each lot as soon as they are written, on the
+	 * thread that wrote them, e.g. to mail them while other lots are still
+	 * being rendered.
+	 */
+	public interface Listener {
+		void written(MobileHomeInfo mh, List<File> files) throws IOException;
+	}
+
+	/**
+	 * Writes the files of every delinquent lot to directory and the manifest.
+	 *
+	 * @return the files written, manifest last
+	 */
+	public List<File> write(List<MobileHomeInfo> mobilehomeinfo, LateNoticeTemplate template, File directory)
+			throws IOException{
+		return write(mobilehomeinfo, template, directory, null);
+	}
+
+	/**
+	 * Same as above, calling listener (if not null) with the files of each lot.
+	 */
+	public List<File> write(List<MobileHomeInfo> mobilehomeinfo, final LateNoticeTemplate template, final File directory,
+			final Listener listener) throws IOException{
+		if(!directory.isDirectory() && !directory.mkdirs()){
+			throw new IOException("Could not create directory " + directory);
+		}
+		List<MobileHomeInfo> delinquent = new ArrayList<MobileHomeInfo>();
+		List<Future<List<File>>> results = new ArrayList<Future<List<File>>>();
+		for(final MobileHomeInfo mh : mobilehomeinfo){
+			if(!mh.IsDelinquent()){
+				continue;
+			}
+			delinquent.add(mh);
+			results.add(Pool.submit(new Callable<List<File>>(){
+				public List<File> call() throws IOException{
+					List<File> files = writeLot(mh, template, directory);
+					if(listener != null){
+						listener.written(mh, files);
+					}
+					return files;
+				}
+			}));
+		}
+
+		List<File> files = new ArrayList<File>();
+		StringBuilder manifest = new StringBuilder(4096);
+		manifest.append("lot\tamount after 5th\tamount after 10th\tfiles\n");
+		try{
+			for(int i = 0; i < results.size(); i++){
+				MobileHomeInfo mh = delinquent.get(i);
+				List<File> lotfiles = results.get(i).get();
+				manifest.append(mh.getLotNumber()).append('\t');
+				Money.append(manifest, mh.AmountAfter5th(template.getFees())).append('\t');
+				Money.append(manifest, mh.AmountAfter10th(template.getFees()));
+				for(int j = 0; j < lotfiles.size(); j++){
+					manifest.append(j == 0 ? '\t' : ',').append(lotfiles.get(j).getName());
+				}
+				manifest.append('\n');
+				files.addAll(lotfiles);
+			}
+		}catch(InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing notices to " + directory, e);
+		}catch(ExecutionException e){
+			throw new IOException("Could not write notices to " + directory, e.getCause());
+		}
+
+		File manifestfile = new File(directory, MANIFEST);
+		write(manifestfile, ByteBuffer.wrap(manifest.toString().getBytes("UTF-8")));
+		files.add(manifestfile);
+		return files;
+	}
+
+	/**
+	 * Stops the pool once the files already submitted are written.
+	 */
+	public void shutdown(){
+		Pool.shutdown();
+	}
+
+	private List<File> writeLot(MobileHomeInfo mh, LateNoticeTemplate template, File directory) throws IOException{
+		List<File> files = new ArrayList<File>(2);
+		String name = "Lot" + mh.getLotNumber();
+		if((Formats & PDF) != 0){
+			File file = new File(directory, name + ".pdf");
+			RunMetrics.Span render = RunMetrics.start(RunMetrics.RENDER);
+			byte[] pdf;
+			try{
+				pdf = NoticePdfWriter.render(template.paragraphs(mh));
+				render.stop();
+			}finally{
+				render.fail();
+			}
+			write(file, ByteBuffer.wrap(pdf));
+			files.add(file);
+		}
+		if((Formats & DOCX) != 0){
+			File file = new File(directory, name + ".docx");
+			StringBuilder xml = new StringBuilder(8192);
+			RunMetrics.Span render = RunMetrics.start(RunMetrics.RENDER);
+			try{
+				template.render(mh, xml);
+				render.stop();
+			}finally{
+				render.fail();
+			}
+			RunMetrics.Span span = RunMetrics.start(RunMetrics.WRITE);
+			try{
+				FileChannel channel = open(file);
+				StreamingNoticeWriter writer = new StreamingNoticeWriter(
+						new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE));
+				try{
+					writer.write(xml);
+				}finally{
+					writer.close();
+				}
+				span.stop(file.length());
+			}finally{
+				span.fail();
+			}
+			files.add(file);
+		}
+		return files;
+	}
+
+	private static void write(File file, ByteBuffer bytes) throws IOException{
+		RunMetrics.Span span = RunMetrics.start(RunMetrics.WRITE);
+		try{
+			int length = bytes.remaining();
+			FileChannel channel = open(file);
+			try{
+				while(bytes.hasRemaining()){
+					channel.write(bytes);
+				}
+			}finally{
+				channel.close();
+			}
+			span.stop(length);
+		}finally{
+			span.fail();
+		}
+	}
+
+	private static FileChannel open(File file) throws IOException{
+		return FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+	}
+}
@@ -0,0 +1,94 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Saves, reloads and drops tokens with AuthTokenStore.
+ */
+public class AuthTokenStoreTest {
+  private static final long DAY = 24L * 60 * 60 * 1000;
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void keepsTokensAcrossRuns() throws Exception {
+    File file = new File(folder.getRoot(), "cache/tokens.properties");
+    new AuthTokenStore(file, DAY).put("Manager@example.com", "secret", "wise", "token1");
+
+    AuthTokenStore store = new AuthTokenStore(file, DAY);
+    assertEquals("token1", store.get("manager@example.com", "secret", "wise"));
+    assertNull(store.get("manager@example.com", "secret", "writely"));
+  }
+
+  @Test
+  public void onlyGivesTokensForTheSameCredentials() throws Exception {
+    File file = new File(folder.getRoot(), "tokens.properties");
+    AuthTokenStore store = new AuthTokenStore(file, DAY);
+    store.put("manager@example.com", "old password", "wise", "token1");
+    assertNull(store.get("manager@example.com", "new password", "wise"));
+
+    store.put("manager@example.com", "new password", "wise", "token2");
+    assertEquals("token2", store.get("manager@example.com", "new password", "wise"));
+    assertNull(store.get("manager@example.com", "old password", "wise"));
+    assertFalse(new String(Files.readAllBytes(file.toPath()), "ISO-8859-1").contains("token1"));
+    assertFalse(new String(Files.readAllBytes(file.toPath()), "ISO-8859-1").contains("password"));
+  }
+
+  @Test
+  public void dropsInvalidatedTokens() throws Exception {
+    File file = new File(folder.getRoot(), "tokens.properties");
+    AuthTokenStore store = new AuthTokenStore(file, DAY);
+    store.put("manager@example.com", "secret", "wise", "token1");
+    store.put("manager@example.com", "secret", "writely", "token2");
+    store.invalidate("manager@example.com", "secret", "wise");
+
+    store = new AuthTokenStore(file, DAY);
+    assertNull(store.get("manager@example.com", "secret", "wise"));
+    assertEquals("token2", store.get("manager@example.com", "secret", "writely"));
+  }
+
+  @Test
+  public void expiresTokens() throws Exception {
+    AuthTokenStore store = new AuthTokenStore(new File(folder.getRoot(), "tokens.properties"), 0);
+    store.put("manager@example.com", "secret", "wise", "token1");
+    assertNull(store.get("manager@example.com", "secret", "wise"));
+  }
+
+  @Test
+  public void writesAFileOnlyItsOwnerCanRead() throws Exception {
+    File file = new File(folder.getRoot(), "tokens.properties");
+    assumeTrue(Files.getFileStore(folder.getRoot().toPath()).supportsFileAttributeView("posix"));
+    new AuthTokenStore(file, DAY).put("manager@example.com", "secret", "wise", "token1");
+    assertEquals("rw-------",
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(file.toPath())));
+    assertEquals(1, folder.getRoot().list().length);
+  }
+}
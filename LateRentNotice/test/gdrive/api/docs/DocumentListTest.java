@@ -0,0 +1,181 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.gdata.client.spreadsheet.SpreadsheetService;
+import com.google.gdata.data.spreadsheet.CellEntry;
+import com.google.gdata.data.spreadsheet.CellFeed;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import mobilehome.info.MobileHomeInfo;
+import mobilehome.info.Money;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Records notices on a Rent Roll served by a FakeFeedServer and checks which
+ * cells recordNotices writes.
+ */
+public class DocumentListTest {
+  private static final String WORKSHEET = "May 2014";
+  private static final Date ISSUED = new Date(1399939200000L);
+  private static final String STANDARD = "Lot,B,C,D,E,F,Lot Rent,MHP Rent,Taxes Insurance,"
+      + "Previous Balance,Late Fee,Credit,M,Received Before 5th,O,P,Q";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private File worksheet;
+  private FakeFeedServer server;
+  private DocumentList documentList;
+
+  @Before
+  public void setUp() throws Exception {
+    File rentRoll = new File(folder.getRoot(), "Rent Roll");
+    assertTrue(rentRoll.mkdirs());
+    worksheet = new File(rentRoll, WORKSHEET + ".csv");
+    server = new FakeFeedServer(folder.getRoot(), 0).start();
+    documentList = new DocumentList("DocumentListTest");
+    documentList.setFeedBase(server.getBaseUrl());
+  }
+
+  @After
+  public void tearDown() {
+    server.stop();
+  }
+
+  @Test
+  public void addsNoticeColumnsAfterTheLastUsedColumn() throws Exception {
+    writeWorksheet(STANDARD + ",Phone,Deposit,Notes",
+        "1,,,,,,200,300,0,0,0,0,,100,,,,555-0101,500,R-T are taken",
+        "2,,,,,,200,300,0,0,0,0,,500",
+        "3,,,,,,200,300,0,40,0,0,,0,,,,555-0103");
+    List<MobileHomeInfo> lots = documentList.loadRentRoll(MobileHomeInfo.MESA, WORKSHEET);
+    documentList.recordNotices(MobileHomeInfo.MESA, WORKSHEET, lots, ISSUED);
+
+    Map<String, String> cells = cells();
+    assertEquals("Phone", cells.get("R1C18"));
+    assertEquals("Deposit", cells.get("R1C19"));
+    assertEquals("Notes", cells.get("R1C20"));
+    assertEquals("555-0101", cells.get("R2C18"));
+    assertEquals("500", cells.get("R2C19"));
+    assertEquals("R-T are taken", cells.get("R2C20"));
+    assertEquals("Notice Date", cells.get("R1C21"));
+    assertEquals("Amount After 5th", cells.get("R1C22"));
+    assertEquals("Amount After 10th", cells.get("R1C23"));
+    assertNotice(cells, lots.get(0), 2, 21, 22, 23);
+    assertNull(cells.get("R3C21"));
+    assertNotice(cells, lots.get(2), 4, 21, 22, 23);
+  }
+
+  @Test
+  public void writesToColumnsFoundByHeader() throws Exception {
+    writeWorksheet("Lot,B,C,D,E,F,Lot Rent,MHP Rent,Taxes Insurance,Previous Balance,Late Fee,"
+        + "Credit,M,Received Before 5th,O,notice date,Amount after 5th,Notes",
+        "1,,,,,,200,300,0,0,0,0,,100,,,,keep",
+        "2,,,,,,200,300,0,0,0,0,,0");
+    List<MobileHomeInfo> lots = documentList.loadRentRoll(MobileHomeInfo.MESA, WORKSHEET);
+    documentList.recordNotices(MobileHomeInfo.MESA, WORKSHEET, lots, ISSUED);
+    Map<String, String> first = cells();
+    assertEquals("notice date", first.get("R1C16"));
+    assertEquals("Amount after 5th", first.get("R1C17"));
+    assertEquals("Amount After 10th", first.get("R1C19"));
+    assertEquals("keep", first.get("R2C18"));
+    assertNotice(first, lots.get(0), 2, 16, 17, 19);
+    assertNotice(first, lots.get(1), 3, 16, 17, 19);
+
+    // a second run finds all three columns and adds none
+    documentList.recordNotices(MobileHomeInfo.MESA, WORKSHEET, lots, ISSUED);
+    assertEquals(first, cells());
+  }
+
+  @Test
+  public void stopsIfALotMoved() throws Exception {
+    writeWorksheet(STANDARD,
+        "1,,,,,,200,300,0,0,0,0,,100",
+        "2,,,,,,200,300,0,0,0,0,,0");
+    List<MobileHomeInfo> lots = documentList.loadRentRoll(MobileHomeInfo.MESA, WORKSHEET);
+    long loaded = worksheet.lastModified();
+
+    // sorted by hand between loading and recording
+    writeWorksheet(STANDARD,
+        "2,,,,,,200,300,0,0,0,0,,0",
+        "1,,,,,,200,300,0,0,0,0,,100");
+    assertTrue(worksheet.setLastModified(loaded + 2000));
+    Map<String, String> before = cells();
+    try {
+      documentList.recordNotices(MobileHomeInfo.MESA, WORKSHEET, lots, ISSUED);
+      fail("lot 1 moved to row 3");
+    } catch (IOException expected) {
+      assertTrue(expected.getMessage(),
+          expected.getMessage().startsWith("Lot 1 is no longer on row 2 of May 2014"));
+    }
+    assertEquals(before, cells());
+    assertFalse(cells().containsKey("R1C18"));
+  }
+
+  private void writeWorksheet(String... lines) throws IOException {
+    StringBuilder csv = new StringBuilder();
+    for (String line : Arrays.asList(lines)) {
+      csv.append(line).append('\n');
+    }
+    Files.write(worksheet.toPath(), csv.toString().getBytes("UTF-8"));
+  }
+
+  /** Returns the input value of every non-empty cell, by id ("R2C18"). */
+  private Map<String, String> cells() throws Exception {
+    CellFeed feed = new SpreadsheetService("DocumentListTest").getFeed(
+        documentList.findWorksheet(DocumentList.RENT_ROLL_TITLE, WORKSHEET).getCellFeedUrl(),
+        CellFeed.class);
+    Map<String, String> cells = new HashMap<String, String>();
+    for (CellEntry cell : feed.getEntries()) {
+      cells.put("R" + cell.getCell().getRow() + "C" + cell.getCell().getCol(),
+          cell.getCell().getInputValue());
+    }
+    return cells;
+  }
+
+  private static void assertNotice(Map<String, String> cells, MobileHomeInfo mh, int row,
+      int date, int after5th, int after10th) {
+    assertTrue(mh.IsDelinquent());
+    assertEquals(new SimpleDateFormat("MM/dd/yyyy").format(ISSUED),
+        cells.get("R" + row + "C" + date));
+    assertEquals(Money.format(mh.AmountAfter5th(MobileHomeInfo.MESA)),
+        cells.get("R" + row + "C" + after5th));
+    assertEquals(Money.format(mh.AmountAfter10th(MobileHomeInfo.MESA)),
+        cells.get("R" + row + "C" + after10th));
+  }
+}
@@ -0,0 +1,159 @@
+/* Copyright (c) 2008 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package gdrive.api.docs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks which requests NoticeDaemon lets through to its jobs. The requests
+ * are written by hand, since HttpURLConnection will not send a Host or an
+ * Origin header of its choosing.
+ */
+public class NoticeDaemonTest {
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private NoticeDaemon daemon;
+  private File tokenFile;
+  private int port;
+
+  @Before
+  public void setUp() throws Exception {
+    tokenFile = new File(folder.getRoot(), "cache/daemon.token");
+    DocumentListDemo demo = new DocumentListDemo(System.out, "NoticeDaemonTest",
+        DocumentList.DEFAULT_HOST, null, null);
+    daemon = new NoticeDaemon(demo, 1, 0, null, tokenFile).start();
+    port = Integer.parseInt(daemon.getBaseUrl().substring(daemon.getBaseUrl().lastIndexOf(':') + 1));
+  }
+
+  @After
+  public void tearDown() {
+    daemon.stop();
+  }
+
+  @Test
+  public void writesTheTokenForItsOwnerOnly() throws Exception {
+    assertEquals(daemon.getToken() + "\n",
+        new String(Files.readAllBytes(tokenFile.toPath()), "UTF-8"));
+    assumeTrue(Files.getFileStore(tokenFile.toPath()).supportsFileAttributeView("posix"));
+    assertEquals("rw-------",
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(tokenFile.toPath())));
+  }
+
+  @Test
+  public void servesRequestsWithTheToken() throws Exception {
+    assertEquals(200, status("GET", "/status", "localhost:" + port, daemon.getToken(), null));
+    assertEquals(200, status("GET", "/status", "127.0.0.1:" + port, daemon.getToken(), null));
+    // let through to the job parser, which wants a park and a worksheet
+    assertEquals(400, status("POST", "/generate", "localhost:" + port, daemon.getToken(), null));
+  }
+
+  @Test
+  public void refusesRequestsWithoutTheToken() throws Exception {
+    assertEquals(403, status("GET", "/status", "localhost:" + port, null, null));
+    assertEquals(403, status("GET", "/status", "localhost:" + port, "0" + daemon.getToken(), null));
+    assertEquals(403, status("POST", "/generate", "localhost:" + port, null, null));
+  }
+
+  @Test
+  public void refusesOtherHostsAndBrowsers() throws Exception {
+    assertEquals(403, status("GET", "/status", "attacker.example.com:" + port, daemon.getToken(),
+        null));
+    assertEquals(403, status("GET", "/status", null, daemon.getToken(), null));
+    assertEquals(403, status("POST", "/generate", "localhost:" + port, daemon.getToken(),
+        "http://attacker.example.com"));
+    assertEquals(403, status("POST", "/generate", "localhost:" + port, daemon.getToken(), "null"));
+  }
+
+  @Test
+  public void onlyGeneratesAndStopsOnPost() throws Exception {
+    assertEquals(405, status("GET", "/generate?park=MESA&worksheet=May+2014", "localhost:" + port,
+        daemon.getToken(), null));
+    assertEquals(405, status("GET", "/stop", "localhost:" + port, daemon.getToken(), null));
+  }
+
+  @Test
+  public void removesTheTokenFileWhenStopped() throws Exception {
+    assertEquals(200, status("POST", "/stop", "localhost:" + port, daemon.getToken(), null));
+    daemon.join();
+    assertFalse(tokenFile.exists());
+  }
+
+  @Test
+  public void recognisesLoopbackHosts() {
+    assertTrue(NoticeDaemon.isLoopback("localhost"));
+    assertTrue(NoticeDaemon.isLoopback("LOCALHOST:8765"));
+    assertTrue(NoticeDaemon.isLoopback("127.0.0.1:8765"));
+    assertTrue(NoticeDaemon.isLoopback("[::1]:8765"));
+    assertFalse(NoticeDaemon.isLoopback("localhost.attacker.example.com"));
+    assertFalse(NoticeDaemon.isLoopback("127.0.0.2"));
+    assertFalse(NoticeDaemon.isLoopback(null));
+  }
+
+  /**
+   * Sends one HTTP/1.0 request, without a Host header if host is null, and
+   * returns the response's status code.
+   */
+  private int status(String method, String path, String host, String token, String origin)
+      throws Exception {
+    Socket socket = new Socket("127.0.0.1", port);
+    try {
+      StringBuilder request = new StringBuilder();
+      request.append(method).append(' ').append(path).append(" HTTP/1.0\r\n");
+      if (host != null) {
+        request.append("Host: ").append(host).append("\r\n");
+      }
+      if (token != null) {
+        request.append(NoticeDaemon.TOKEN_HEADER).append(": ").append(token).append("\r\n");
+      }
+      if (origin != null) {
+        request.append("Origin: ").append(origin).append("\r\n");
+      }
+      if (method.equals("POST")) {
+        request.append("Content-Type: application/x-www-form-urlencoded\r\n");
+        request.append("Content-Length: 0\r\n");
+      }
+      request.append("\r\n");
+      OutputStream out = socket.getOutputStream();
+      out.write(request.toString().getBytes("ISO-8859-1"));
+      out.flush();
+      BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(),
+          "ISO-8859-1"));
+      String statusLine = in.readLine();
+      return Integer.parseInt(statusLine.split(" ")[1]);
+    } finally {
+      socket.close();
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package mobilehome.info;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compiles FeeSchedule rules into day tables and checks the amounts quoted
+ * from them, for the STANDARD schedule against the baseline arithmetic.
+ */
+public class FeeScheduleTest {
+
+	@Test
+	public void compilesTheStandardSchedule(){
+		FeeSchedule fees = FeeSchedule.STANDARD;
+		assertEquals(5, fees.graceDay());
+		assertEquals(6, fees.firstLateDay());
+		assertEquals(11, fees.secondTierDay());
+		assertEquals(5, fees.noticeDays());
+		assertEquals(11, fees.deadlineDay());
+		assertFees(fees, 1, 5, 0);
+		assertFees(fees, 6, 10, 5000);
+		assertFees(fees, 11, FeeSchedule.DAYS, 10000);
+		assertTrue(FeeSchedule.forPark(MobileHomeInfo.CT) == FeeSchedule.STANDARD);
+		assertTrue(FeeSchedule.forPark(MobileHomeInfo.MESA) == FeeSchedule.STANDARD);
+	}
+
+	@Test
+	public void replacesEarlierTiers(){
+		FeeSchedule fees = new FeeSchedule.Rules(5).tier(6, 2500).tier(11, 7500).tier(20, 5000).compile();
+		assertFees(fees, 1, 5, 0);
+		assertFees(fees, 6, 10, 2500);
+		assertFees(fees, 11, 19, 7500);
+		assertFees(fees, 20, FeeSchedule.DAYS, 5000);
+		//the third tier is not the one notices quote
+		assertEquals(11, fees.secondTierDay());
+	}
+
+	@Test
+	public void accruesOnTopOfTheTierUpToTheCap(){
+		FeeSchedule fees = new FeeSchedule.Rules(3).tier(4, 1000).accrue(8, 200).cap(2000).compile();
+		assertFees(fees, 1, 3, 0);
+		assertFees(fees, 4, 7, 1000);
+		assertEquals(1200, fees.feeOn(8));
+		assertEquals(1400, fees.feeOn(9));
+		assertEquals(2000, fees.feeOn(12));
+		assertFees(fees, 13, FeeSchedule.DAYS, 2000);
+		assertEquals(4, fees.secondTierDay());
+	}
+
+	@Test
+	public void quotesSchedulesWithOneTierOrNone(){
+		FeeSchedule single = new FeeSchedule.Rules(5).tier(9, 3000).compile();
+		assertEquals(9, single.secondTierDay());
+		assertFees(single, 6, 8, 0);
+		assertFees(single, 9, FeeSchedule.DAYS, 3000);
+
+		FeeSchedule daily = new FeeSchedule.Rules(5).accrue(6, 100).compile();
+		assertEquals(daily.firstLateDay(), daily.secondTierDay());
+		assertEquals(100, daily.feeOn(6));
+		assertEquals(2600, daily.feeOn(FeeSchedule.DAYS));
+
+		FeeSchedule none = new FeeSchedule.Rules(5).compile();
+		assertEquals(6, none.secondTierDay());
+		assertFees(none, 1, FeeSchedule.DAYS, 0);
+	}
+
+	@Test
+	public void endsDeadlinesWithTheMonth(){
+		assertEquals(FeeSchedule.DAYS, new FeeSchedule.Rules(28).noticeDays(10).compile().deadlineDay());
+	}
+
+	@Test
+	public void rejectsDaysOutsideTheMonth(){
+		assertRejected(new FeeSchedule.Rules(5), 5);
+		assertRejected(new FeeSchedule.Rules(5), FeeSchedule.DAYS + 1);
+		try{
+			new FeeSchedule.Rules(-1);
+			fail("grace day -1");
+		}catch(IllegalArgumentException expected){
+		}
+	}
+
+	@Test
+	public void chargesNoFeeToLotsThatOweNothing(){
+		FeeSchedule fees = FeeSchedule.STANDARD;
+		assertEquals(10000, fees.amountDueOn(10000, 5000, 6));
+		assertEquals(5000, fees.amountDueOn(10000, 5000, 5));
+		assertEquals(20000, fees.amountDueOn(10000, 0, 11));
+		assertEquals(0, fees.amountDueOn(10000, 10000, 11));
+		assertEquals(-500, fees.amountDueOn(10000, 10500, 11));
+	}
+
+	@Test
+	public void quotesRollsLikeSingleLots(){
+		List<MobileHomeInfo> lots = lots(new Random(7), 40);
+		RentRoll roll = RentRoll.of(lots);
+		FeeSchedule fees = new FeeSchedule.Rules(5).tier(6, 2500).accrue(9, 150).cap(6000).compile();
+		long[] quote = fees.quote(roll);
+		long[] due = new long[roll.size()];
+		for(int day = 1; day <= FeeSchedule.DAYS; day++){
+			fees.amountsDueOn(roll, day, due);
+			for(int i = 0; i < roll.size(); i++){
+				long expected = fees.amountDueOn(lots.get(i).TotalDue(), lots.get(i).getReceivedBefore5th(), day);
+				assertEquals(expected, due[i]);
+				assertEquals(expected, quote[i * FeeSchedule.DAYS + day - 1]);
+			}
+		}
+	}
+
+	@Test
+	public void matchesTheBaselineAmounts(){
+		for(MobileHomeInfo mh : lots(new Random(2014), 500)){
+			if(!mh.IsDelinquent()){
+				continue;
+			}
+			//as the notices computed them before fee schedules, in dollars
+			double amountdue = dollars(mh.getExpectedMonthlyRent()) + dollars(mh.getLateFee())
+					+ dollars(mh.getPreviousBalance()) + dollars(mh.getCredit());
+			double amountafter5th = amountdue - dollars(mh.getReceivedBefore5th()) + 50;
+			double amountafter10th = amountdue - dollars(mh.getReceivedBefore5th()) + 100;
+			for(int park : new int[]{MobileHomeInfo.CT, MobileHomeInfo.MESA}){
+				assertEquals(mh.toString(), Math.round(amountafter5th * 100), mh.AmountAfter5th(park));
+				assertEquals(mh.toString(), Math.round(amountafter10th * 100), mh.AmountAfter10th(park));
+			}
+		}
+	}
+
+	/**
+	 * Returns lots owing anything from nothing to a few months of rent, with
+	 * credits, and paying nothing, part of it or all of it before the 5th.
+	 */
+	private static List<MobileHomeInfo> lots(Random random, int count){
+		List<MobileHomeInfo> lots = new ArrayList<MobileHomeInfo>(count);
+		for(int lot = 1; lot <= count; lot++){
+			long rent = 20000 + random.nextInt(40000);
+			long previous = (random.nextInt(3) == 0) ? random.nextInt(150000) : 0;
+			long latefee = (previous > 0) ? 5000 * random.nextInt(3) : 0;
+			long credit = (random.nextInt(4) == 0) ? -random.nextInt(5000) : 0;
+			long due = rent + previous + latefee + credit;
+			long received;
+			switch(random.nextInt(3)){
+				case 0: received = 0; break;
+				case 1: received = (long) (due * random.nextDouble()); break;
+				default: received = due;
+			}
+			lots.add(new MobileHomeInfo(rent, previous, latefee, credit, lot, received));
+		}
+		return lots;
+	}
+
+	private static double dollars(long cents){
+		return cents / 100.0;
+	}
+
+	private static void assertFees(FeeSchedule fees, int from, int to, long cents){
+		for(int day = from; day <= to; day++){
+			assertEquals("day " + day, cents, fees.feeOn(day));
+		}
+	}
+
+	private static void assertRejected(FeeSchedule.Rules rules, int day){
+		try{
+			rules.tier(day, 100);
+			fail("tier on day " + day);
+		}catch(IllegalArgumentException expected){
+		}
+		try{
+			rules.accrue(day, 100);
+			fail("accrual from day " + day);
+		}catch(IllegalArgumentException expected){
+		}
+	}
+}
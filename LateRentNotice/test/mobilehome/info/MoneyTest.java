@@ -0,0 +1,88 @@
+package mobilehome.info;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Parses and formats amounts with Money.
+ */
+public class MoneyTest {
+
+	@Test
+	public void parsesAmounts(){
+		assertEquals(123450, Money.parse("1,234.5"));
+		assertEquals(63707, Money.parse("$637.07"));
+		assertEquals(63707, Money.parse(" 637.07\t"));
+		assertEquals(2550, Money.parse("+25.50"));
+		assertEquals(0, Money.parse(""));
+		assertEquals(0, Money.parse("   "));
+	}
+
+	@Test
+	public void parsesNegativeAndAccountingAmounts(){
+		assertEquals(-1000, Money.parse("-10"));
+		assertEquals(-1000, Money.parse("(10.00)"));
+		assertEquals(-123450, Money.parse("($1,234.50)"));
+		assertEquals(-5, Money.parse("-0.05"));
+	}
+
+	@Test
+	public void roundsHalfAwayFromZero(){
+		assertEquals(1, Money.parse("0.005"));
+		assertEquals(-1, Money.parse("-0.005"));
+		assertEquals(-1, Money.parse("(0.005)"));
+		assertEquals(0, Money.parse("0.004"));
+		assertEquals(124, Money.parse("1.235"));
+		//only the third decimal decides
+		assertEquals(123, Money.parse("1.2349"));
+	}
+
+	@Test
+	public void parsesTheLargestAmounts(){
+		assertEquals(Long.MAX_VALUE, Money.parse("92233720368547758.07"));
+		assertEquals(-Long.MAX_VALUE, Money.parse("-92,233,720,368,547,758.07"));
+	}
+
+	@Test
+	public void rejectsAmountsThatOverflow(){
+		assertNotAnAmount("99999999999999999999");
+		assertNotAnAmount("92233720368547758.08");
+		assertNotAnAmount("92233720368547758.075");
+		assertNotAnAmount("922337203685477581");
+	}
+
+	@Test
+	public void rejectsText(){
+		assertNotAnAmount("12a");
+		assertNotAnAmount("$");
+		assertNotAnAmount(".");
+		assertNotAnAmount("1.2.3");
+	}
+
+	@Test
+	public void formatsWithTwoDecimals(){
+		assertEquals("637.07", Money.format(63707));
+		assertEquals("-10.00", Money.format(-1000));
+		assertEquals("0.05", Money.format(5));
+		assertEquals("-0.05", Money.format(-5));
+		assertEquals("0.00", Money.format(Money.ZERO));
+	}
+
+	@Test
+	public void roundTripsFormattedAmounts(){
+		long[] amounts = {0, 1, -1, 99, -100, 63707, -123450, Long.MAX_VALUE, -Long.MAX_VALUE};
+		for(long cents : amounts){
+			assertEquals(cents, Money.parse(Money.format(cents)));
+		}
+	}
+
+	private static void assertNotAnAmount(String text){
+		try{
+			long cents = Money.parse(text);
+			fail("\"" + text + "\" parsed as " + cents);
+		}catch(NumberFormatException expected){
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package mobilehome.info;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Sends notices through NoticeMailer to an SmtpStub and checks that every
+ * notice reaches the server exactly once, across crashes and failures.
+ */
+public class NoticeMailerTest {
+	private final static Date ISSUED = new Date(1399939200000L);
+	private final static String WORKSHEET = "May 2014";
+
+	@Rule
+	public TemporaryFolder Folder = new TemporaryFolder();
+
+	private SmtpStub Stub;
+	private File Outbox;
+	private File Notice;
+	private Properties Tenants;
+
+	@Before
+	public void setUp() throws IOException{
+		Stub = new SmtpStub(0, Folder.newFolder("received")).start();
+		Outbox = Folder.newFolder("outbox");
+		Notice = Folder.newFile("notice.docx");
+		FileOutputStream out = new FileOutputStream(Notice);
+		try{
+			out.write("notice".getBytes("UTF-8"));
+		}finally{
+			out.close();
+		}
+		Tenants = new Properties();
+		for(int lot = 1; lot <= 3; lot++){
+			Tenants.setProperty("MESA." + lot, "lot" + lot + "@example.com");
+		}
+	}
+
+	@After
+	public void tearDown() throws IOException{
+		Stub.close();
+	}
+
+	@Test
+	public void sendsEveryNoticeOnce() throws Exception{
+		NoticeMailer mailer = mailer();
+		mailer.start();
+		for(int lot = 1; lot <= 3; lot++){
+			assertTrue(enqueue(mailer, lot));
+		}
+		assertFalse(enqueue(mailer, 1));
+		assertEquals(0, mailer.close());
+		assertEquals(3, Stub.getReceived());
+		assertEquals(3, count(".sent"));
+
+		NoticeMailer again = mailer();
+		again.start();
+		assertFalse(enqueue(again, 2));
+		assertEquals(0, again.close());
+		assertEquals(3, Stub.getReceived());
+	}
+
+	@Test
+	public void resumesWhatACrashLeftPending() throws Exception{
+		NoticeMailer crashed = mailer();
+		for(int lot = 1; lot <= 3; lot++){
+			assertTrue(enqueue(crashed, lot));
+		}
+		//never started, as if the run died before its senders got to the queue
+		assertEquals(3, count(".pending"));
+		assertEquals(0, Stub.getReceived());
+
+		NoticeMailer resumed = mailer();
+		resumed.start();
+		assertEquals(0, resumed.close());
+		assertEquals(3, Stub.getReceived());
+		assertEquals(3, count(".sent"));
+		assertEquals(0, count(".pending"));
+	}
+
+	@Test
+	public void neverResendsWhatACrashLeftSending() throws Exception{
+		NoticeMailer crashed = mailer();
+		assertTrue(enqueue(crashed, 1));
+		File[] pending = files(".pending");
+		String name = pending[0].getName();
+		assertTrue(pending[0].renameTo(new File(Outbox, name.replace(".pending", ".sending"))));
+
+		NoticeMailer resumed = mailer();
+		resumed.start();
+		assertFalse(enqueue(resumed, 1));
+		assertEquals(0, resumed.close());
+		assertEquals(0, Stub.getReceived());
+		assertEquals(1, count(".sending"));
+	}
+
+	@Test
+	public void neverResendsWhenTheSentRenameFails() throws Exception{
+		//every reply of the stub is delayed, which leaves time to block the
+		//rename to .sent after the message was received but before the
+		//server's 250 reached the mailer
+		Stub.setResponseDelay(200);
+		NoticeMailer mailer = mailer();
+		mailer.start();
+		assertTrue(enqueue(mailer, 1));
+		long deadline = System.currentTimeMillis() + 30000;
+		while(Stub.getReceived() == 0 && System.currentTimeMillis() < deadline){
+			Thread.sleep(5);
+		}
+		assertEquals(1, Stub.getReceived());
+		String name = files(".sending")[0].getName();
+		File sent = new File(Outbox, name.replace(".sending", ".sent"));
+		assertTrue(new File(sent, "in-the-way").mkdirs());
+
+		assertEquals(0, mailer.close());
+		assertEquals(1, Stub.getReceived());
+		assertEquals(1, count(".sending"));
+
+		NoticeMailer resumed = mailer();
+		resumed.start();
+		assertFalse(enqueue(resumed, 1));
+		assertEquals(0, resumed.close());
+		assertEquals(1, Stub.getReceived());
+	}
+
+	private NoticeMailer mailer() throws IOException{
+		return new NoticeMailer("127.0.0.1", Stub.getPort(), null, null, "office@example.com", Outbox, Tenants,
+				2, NoticeMailer.DEFAULT_QUEUE_SIZE);
+	}
+
+	private boolean enqueue(NoticeMailer mailer, int lot) throws IOException, InterruptedException{
+		MobileHomeInfo mh = new MobileHomeInfo(30000, 0, 0, 0, lot, 0);
+		List<File> files = Collections.singletonList(Notice);
+		return mailer.enqueue(MobileHomeInfo.MESA, WORKSHEET, ISSUED, mh, files);
+	}
+
+	private File[] files(String suffix){
+		File[] files = Outbox.listFiles();
+		Arrays.sort(files);
+		int n = 0;
+		for(File file : files){
+			if(file.getName().endsWith(suffix)){
+				files[n++] = file;
+			}
+		}
+		return Arrays.copyOf(files, n);
+	}
+
+	private int count(String suffix){
+		return files(suffix).length;
+	}
+}
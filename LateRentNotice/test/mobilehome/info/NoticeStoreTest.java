@@ -0,0 +1,125 @@
+package mobilehome.info;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.google.common.io.Files;
+
+/**
+ * Re-renders a roll through NoticeStore and checks that the .docx is byte
+ * for byte the one a full render of the same roll writes.
+ */
+public class NoticeStoreTest {
+	private final static Date ISSUED = new Date(1399939200000L);
+	private final static String KEY = MobileHomeInfo.MESA + "/May 2014";
+	/** Enough lots for the store to read and write several windows. */
+	private final static int LOTS = NoticeStore.WINDOW * 2 + 37;
+
+	@Rule
+	public TemporaryFolder Folder = new TemporaryFolder();
+
+	private NoticeStore Store;
+	private LateNoticeTemplate Template;
+	private ForkJoinPool Pool;
+
+	@Before
+	public void setUp() throws IOException{
+		Store = new NoticeStore(Folder.newFolder("notices"));
+		Template = LateNoticeTemplate.forPark(MobileHomeInfo.MESA, ISSUED);
+		Pool = new ForkJoinPool(4);
+	}
+
+	@After
+	public void tearDown(){
+		Pool.shutdown();
+	}
+
+	@Test
+	public void rendersOnlyChangedLots() throws IOException{
+		List<MobileHomeInfo> roll = roll();
+		assertEquals(LOTS, Store.write(KEY, roll, Template, null, path("first.docx")));
+		assertSameAsFullRender(roll, "first.docx");
+
+		//one lot falls behind, another pays up
+		roll.set(300, new MobileHomeInfo(50000, 12345, 5000, 0, 301, 0));
+		roll.set(4, new MobileHomeInfo(50000, 0, 0, 0, 5, 50000));
+		assertEquals(2, Store.write(KEY, roll, Template, null, path("second.docx")));
+		assertSameAsFullRender(roll, "second.docx");
+
+		assertEquals(0, Store.write(KEY, roll, Template, null, path("third.docx")));
+		assertSameAsFullRender(roll, "third.docx");
+	}
+
+	@Test
+	public void rendersChangedLotsInParallel() throws IOException{
+		ParallelNoticeRenderer renderer = new ParallelNoticeRenderer(Pool);
+		List<MobileHomeInfo> roll = roll();
+		Store.write(KEY, roll, Template, renderer, path("first.docx"));
+
+		roll.set(LOTS - 1, new MobileHomeInfo(60000, 100, 0, -100, LOTS, 0));
+		assertEquals(1, Store.write(KEY, roll, Template, renderer, path("second.docx")));
+		assertSameAsFullRender(roll, "second.docx");
+
+		renderer.generateLateNotices(roll, Template, path("parallel.docx"));
+		assertSameAsFullRender(roll, "parallel.docx");
+	}
+
+	@Test
+	public void rendersEverythingForANewTemplate() throws IOException{
+		List<MobileHomeInfo> roll = roll();
+		Store.write(KEY, roll, Template, null, path("first.docx"));
+
+		Template = LateNoticeTemplate.forPark(MobileHomeInfo.MESA, new Date(ISSUED.getTime() + 86400000L));
+		assertEquals(LOTS, Store.write(KEY, roll, Template, null, path("second.docx")));
+		assertSameAsFullRender(roll, "second.docx");
+	}
+
+	@Test
+	public void keepsParksAndWorksheetsApart() throws IOException{
+		List<MobileHomeInfo> roll = roll();
+		Store.write(KEY, roll, Template, null, path("mesa.docx"));
+
+		List<MobileHomeInfo> june = roll();
+		june.set(0, new MobileHomeInfo(50000, 99900, 0, 0, 1, 0));
+		assertEquals(LOTS, Store.write(MobileHomeInfo.MESA + "/June 2014", june, Template, null,
+				path("june.docx")));
+		assertSameAsFullRender(june, "june.docx");
+	}
+
+	/**
+	 * Returns a roll where every third lot paid in full before the 5th.
+	 */
+	private static List<MobileHomeInfo> roll(){
+		List<MobileHomeInfo> roll = new ArrayList<MobileHomeInfo>(LOTS);
+		for(int i = 0; i < LOTS; i++){
+			long rent = 40000 + i * 101;
+			long previous = (i % 7) * 2500;
+			long received = i % 3 == 0 ? rent + previous : i * 37;
+			roll.add(new MobileHomeInfo(rent, previous, 0, i % 5 == 0 ? -1000 : 0, i + 1, received));
+		}
+		return roll;
+	}
+
+	private void assertSameAsFullRender(List<MobileHomeInfo> roll, String name) throws IOException{
+		String full = path("full-" + name);
+		MobileHomeInfo.GenerateLateNotices(roll, Template, full);
+		assertArrayEquals(name, Files.toByteArray(new File(full)), Files.toByteArray(new File(path(name))));
+	}
+
+	private String path(String name){
+		return new File(Folder.getRoot(), name).getPath();
+	}
+}
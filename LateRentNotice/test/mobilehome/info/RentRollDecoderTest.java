@@ -0,0 +1,142 @@
+package mobilehome.info;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Binds Rent Roll columns by header with RentRollDecoder and decodes rows.
+ */
+public class RentRollDecoderTest {
+	private final static String[] STANDARD = {
+		"Lot", "", "", "", "", "", "Lot Rent", "MHP Rent", "Taxes Insurance", "Previous Balance",
+		"Late Fee", "Credit", "", "Received Before 5th", "", "", ""
+	};
+
+	@Test
+	public void decodesTheStandardHeader(){
+		RentRollDecoder decoder = RentRollDecoder.fromHeader(STANDARD);
+		String[] row = new String[STANDARD.length];
+		row[MobileHomeInfo.COL_LOT_NUMBER] = "12";
+		row[MobileHomeInfo.COL_LOT_RENT] = "$250.00";
+		row[MobileHomeInfo.COL_MHP_RENT] = "300";
+		row[MobileHomeInfo.COL_TAXES_INSURANCE] = "25.50";
+		row[MobileHomeInfo.COL_PREVIOUS_BALANCE] = "1,000";
+		row[MobileHomeInfo.COL_LATE_FEE] = "50";
+		row[MobileHomeInfo.COL_CREDIT] = "(10.00)";
+		row[MobileHomeInfo.COL_RECEIVED_BEFORE_5TH] = "575.50";
+		assertLot(decoder.decode(row), 12, 57550, 100000, 5000, -1000, 57550);
+	}
+
+	@Test
+	public void bindsAliasesInAnyColumn(){
+		String[] header = new String[40];
+		header[31] = "Lot #";
+		header[32] = "Received before the 5th";
+		header[33] = "MH Rent";
+		header[34] = "LOT RENT";
+		header[35] = "Taxes & Insurance";
+		header[36] = "Prev. Balance";
+		header[37] = "Late Fees";
+		header[38] = "Credits";
+		header[0] = "Notes";
+		RentRollDecoder decoder;
+		try{
+			decoder = RentRollDecoder.fromHeader(header);
+			fail("\"Received before the 5th\" is not a recognised name");
+		}catch(IllegalArgumentException expected){
+			assertTrue(expected.getMessage(), expected.getMessage().contains("Received Before 5th is not named"));
+		}
+
+		header[32] = "Paid Before 5th";
+		decoder = RentRollDecoder.fromHeader(header);
+		assertEquals(39, decoder.getWidth());
+		assertFalse(decoder.isUsed(0));
+		assertTrue(decoder.isUsed(31));
+
+		String[] row = new String[header.length];
+		Arrays.fill(row, "999");
+		row[31] = "7";
+		row[32] = "100";
+		row[33] = "300";
+		row[34] = "200";
+		row[35] = "0";
+		row[36] = "0";
+		row[37] = "0";
+		row[38] = "-10";
+		assertLot(decoder.decode(row), 7, 50000, 0, 0, -1000, 10000);
+	}
+
+	@Test
+	public void rejectsFieldsNamedTwice(){
+		String[] header = STANDARD.clone();
+		header[15] = "previous  balance";
+		try{
+			RentRollDecoder.fromHeader(header);
+			fail("two Previous Balance columns");
+		}catch(IllegalArgumentException expected){
+			assertTrue(expected.getMessage(),
+					expected.getMessage().contains("Previous Balance is named by columns 10 and 16"));
+		}
+	}
+
+	@Test
+	public void rejectsHeadersMissingAField(){
+		String[] header = STANDARD.clone();
+		//loose names such as "Balance Forward" no longer name a field
+		header[MobileHomeInfo.COL_PREVIOUS_BALANCE] = "Balance Forward";
+		header[MobileHomeInfo.COL_CREDIT] = "";
+		try{
+			RentRollDecoder.fromHeader(header);
+			fail("Previous Balance and Credit are not named");
+		}catch(IllegalArgumentException expected){
+			assertTrue(expected.getMessage(), expected.getMessage().contains("Previous Balance is not named"));
+			assertTrue(expected.getMessage(), expected.getMessage().contains("Credit is not named"));
+		}
+	}
+
+	@Test
+	public void fallsBackToTheStandardColumns(){
+		String[] letters = new String[MobileHomeInfo.RENT_ROLL_COLUMNS];
+		for(int col = 0; col < letters.length; col++){
+			letters[col] = String.valueOf((char) ('A' + col));
+		}
+		RentRollDecoder decoder = RentRollDecoder.fromHeader(letters);
+		for(int col = 0; col < letters.length; col++){
+			assertEquals(RentRollDecoder.defaults().isUsed(col), decoder.isUsed(col));
+		}
+		assertTrue(decoder.isUsed(MobileHomeInfo.COL_RECEIVED_BEFORE_5TH));
+		assertTrue(RentRollDecoder.fromHeader(new String[3]).isUsed(MobileHomeInfo.COL_LATE_FEE));
+	}
+
+	@Test
+	public void decodesNumericCells(){
+		RentRollDecoder decoder = RentRollDecoder.defaults();
+		decoder.beginRow();
+		decoder.cell(MobileHomeInfo.COL_LOT_NUMBER, 3.0);
+		decoder.cell(MobileHomeInfo.COL_LOT_RENT, 250.006);
+		decoder.cell(MobileHomeInfo.COL_RECEIVED_BEFORE_5TH, 100.1);
+		//columns without a field are ignored
+		decoder.cell(MobileHomeInfo.RENT_ROLL_COLUMNS, 42.0);
+		decoder.cell(MobileHomeInfo.RENT_ROLL_COLUMNS, "05/13/2014");
+		assertLot(decoder.endRow(), 3, 25001, 0, 0, 0, 10010);
+
+		decoder.beginRow();
+		assertLot(decoder.endRow(), 0, 0, 0, 0, 0, 0);
+	}
+
+	private static void assertLot(MobileHomeInfo mh, int lot, long rent, long previous, long latefee, long credit,
+			long received){
+		assertEquals(lot, mh.getLotNumber());
+		assertEquals(rent, mh.getExpectedMonthlyRent());
+		assertEquals(previous, mh.getPreviousBalance());
+		assertEquals(latefee, mh.getLateFee());
+		assertEquals(credit, mh.getCredit());
+		assertEquals(received, mh.getReceivedBefore5th());
+	}
+}